@@ -19,6 +19,7 @@ import org.moqui.context.ExecutionContext;
 import org.moqui.context.MessageFacade;
 import org.moqui.context.UserFacade;
 import org.moqui.entity.*;
+import org.moqui.entity.util.EntityDocumentPage;
 import org.moqui.service.ServiceFacade;
 import org.moqui.util.ContextStack;
 import org.moqui.util.ContextUtil;
@@ -76,8 +77,14 @@ public class StatusFlowService {
         EntityConditionFactory ecf = ef.getConditionFactory();
         EntityCondition findCondition = ecf.getTrueCondition();
 
+        // search a page of the filtered status flows in the index, unless the index cannot apply every condition
+        EntityDocumentPage documentPage = null;
+        if (StringUtil.isValidElasticsearchQuery(filter) && ef.find("moqui.basic.StatusFlow").searchFormMap(cs, null, null, null, false).getWhereEntityCondition() == null) {
+            documentPage = EntityDocumentPage.search(ec, "MoquiStatusFlow", "statusFlowId", filter, orderByField, pageIndex, pageSize);
+        }
+
         // add the filter
-        if(StringUtil.isValidElasticsearchQuery(filter)) {
+        if (documentPage == null && StringUtil.isValidElasticsearchQuery(filter)) {
             Map<String, Object> resp = sf.sync().name("org.moqui.search.SearchServices.search#DataDocuments")
                     .parameter("indexName", "workflow")
                     .parameter("documentType", "MoquiStatusFlow")
@@ -104,22 +111,26 @@ public class StatusFlowService {
         // find
         String userId = uf.getUserId();
         ArrayList<Map<String, Object>> statusFlowList = new ArrayList<>();
-        EntityList statusFlows = ef.find("moqui.basic.StatusFlow")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .offset(pageIndex, pageSize)
-                .limit(pageSize)
-                .orderBy(orderByField)
-                .list();
+        EntityFind find = ef.find("moqui.basic.StatusFlow")
+                .condition(findCondition);
+        List<EntityValue> statusFlows = documentPage != null
+                ? documentPage.list(find)
+                : find.searchFormMap(cs, null, null, null, false)
+                        .offset(pageIndex, pageSize)
+                        .limit(pageSize)
+                        .orderBy(orderByField)
+                        .list();
         for (EntityValue statusFlow : statusFlows) {
             statusFlowList.add(statusFlow.getMap());
         }
 
         // count
-        long totalRows = ef.find("moqui.basic.StatusFlow")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .count();
+        long totalRows = documentPage != null
+                ? documentPage.getTotalRows()
+                : ef.find("moqui.basic.StatusFlow")
+                        .condition(findCondition)
+                        .searchFormMap(cs, null, null, null, false)
+                        .count();
 
         // log the processing time
         stopWatch.stop();
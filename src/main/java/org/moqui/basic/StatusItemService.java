@@ -18,6 +18,7 @@ import org.moqui.context.ExecutionContext;
 import org.moqui.context.MessageFacade;
 import org.moqui.context.UserFacade;
 import org.moqui.entity.*;
+import org.moqui.entity.util.EntityDocumentPage;
 import org.moqui.service.ServiceFacade;
 import org.moqui.util.ContextStack;
 import org.moqui.util.ContextUtil;
@@ -75,8 +76,14 @@ public class StatusItemService {
         EntityConditionFactory ecf = ef.getConditionFactory();
         EntityCondition findCondition = ecf.getTrueCondition();
 
+        // search a page of the filtered status items in the index, unless the index cannot apply every condition
+        EntityDocumentPage documentPage = null;
+        if (StringUtil.isValidElasticsearchQuery(filter) && ef.find("moqui.basic.StatusItem").searchFormMap(cs, null, null, null, false).getWhereEntityCondition() == null) {
+            documentPage = EntityDocumentPage.search(ec, "MoquiStatusItem", "statusId", filter, orderByField, pageIndex, pageSize);
+        }
+
         // add the filter
-        if(StringUtil.isValidElasticsearchQuery(filter)) {
+        if (documentPage == null && StringUtil.isValidElasticsearchQuery(filter)) {
             Map<String, Object> resp = sf.sync().name("org.moqui.search.SearchServices.search#DataDocuments")
                     .parameter("indexName", "workflow")
                     .parameter("documentType", "MoquiStatusItem")
@@ -103,22 +110,26 @@ public class StatusItemService {
         // find
         String userId = uf.getUserId();
         ArrayList<Map<String, Object>> statusItemList = new ArrayList<>();
-        EntityList statusItems = ef.find("moqui.basic.StatusItem")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .offset(pageIndex, pageSize)
-                .limit(pageSize)
-                .orderBy(orderByField)
-                .list();
+        EntityFind find = ef.find("moqui.basic.StatusItem")
+                .condition(findCondition);
+        List<EntityValue> statusItems = documentPage != null
+                ? documentPage.list(find)
+                : find.searchFormMap(cs, null, null, null, false)
+                        .offset(pageIndex, pageSize)
+                        .limit(pageSize)
+                        .orderBy(orderByField)
+                        .list();
         for (EntityValue statusItem : statusItems) {
             statusItemList.add(statusItem.getMap());
         }
 
         // count
-        long totalRows = ef.find("moqui.basic.StatusItem")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .count();
+        long totalRows = documentPage != null
+                ? documentPage.getTotalRows()
+                : ef.find("moqui.basic.StatusItem")
+                        .condition(findCondition)
+                        .searchFormMap(cs, null, null, null, false)
+                        .count();
 
         // log the processing time
         stopWatch.stop();
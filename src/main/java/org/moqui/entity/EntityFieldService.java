@@ -13,6 +13,7 @@
  */
 package org.moqui.entity;
 
+import org.moqui.entity.util.EntityFieldCatalog;
 import org.moqui.entity.util.EntityFieldType;
 import org.moqui.util.ContextUtil;
 import org.apache.commons.lang3.time.StopWatch;
@@ -54,7 +55,6 @@ public class EntityFieldService {
         ContextStack cs = ec.getContext();
         MessageFacade mf = ec.getMessage();
         L10nFacade lf = ec.getL10n();
-        EntityFacade ef = ec.getEntity();
 
         // get the parameters
         String fieldId = (String) cs.getOrDefault("fieldId", null);
@@ -65,9 +65,8 @@ public class EntityFieldService {
         logger.debug(String.format("[%s] Param fieldId=%s", logId, fieldId));
 
         // validate the field
-        EntityValue field = ef.find("moqui.entity.EntityField")
-                .condition("fieldId", fieldId)
-                .one();
+        EntityFieldCatalog catalog = EntityFieldCatalog.getCatalog(ec);
+        EntityFieldCatalog.Field field = catalog.getFieldById(fieldId);
         if(field==null) {
             stopWatch.stop();
             mf.addError(lf.localize("ENTITY_FIELD_NOT_FOUND"));
@@ -76,40 +75,10 @@ public class EntityFieldService {
         }
 
         // get field type
-        EntityFieldType fieldType;
-        try {
-            fieldType = EntityFieldType.valueOf(field.getString("fieldTypeEnumId"));
-        } catch (IllegalArgumentException e) {
-            fieldType = EntityFieldType.ENTITY_FLD_TEXT;
-        }
-
-        // get enum type
-        String enumTypeId;
-        switch(fieldType) {
-            case ENTITY_FLD_BOOLEAN:
-                enumTypeId = "BooleanComparisonOperator";
-                break;
-            case ENTITY_FLD_DATE:
-                enumTypeId = "DateComparisonOperator";
-                break;
-            case ENTITY_FLD_TEXT:
-                enumTypeId = "TextComparisonOperator";
-                break;
-            case ENTITY_FLD_NUMBER:
-                enumTypeId = "NumberComparisonOperator";
-                break;
-            default:
-                enumTypeId = "_NA_";
-        }
+        EntityFieldType fieldType = field.getFieldType() != null ? field.getFieldType() : EntityFieldType.ENTITY_FLD_TEXT;
 
         // find
-        ArrayList<Map<String, Object>> operatorList = new ArrayList<>();
-        EntityList operators = ef.find("moqui.basic.Enumeration")
-                .condition("enumTypeId", enumTypeId)
-                .list();
-        for (EntityValue operator : operators) {
-            operatorList.add(operator.getMap());
-        }
+        ArrayList<Map<String, Object>> operatorList = new ArrayList<>(catalog.getComparisonOperators(fieldType));
 
         // log the processing time
         stopWatch.stop();
@@ -120,4 +89,56 @@ public class EntityFieldService {
         outParams.put("operatorList", operatorList);
         return outParams;
     }
+
+    /**
+     * Reloads the entity field catalog.
+     *
+     * @param ec Execution context
+     * @return Output parameter map
+     */
+    public Map<String, Object> reloadEntityFieldCatalog(ExecutionContext ec) {
+
+        // start the stop watch
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+
+        // shortcuts for convenience
+        MessageFacade mf = ec.getMessage();
+
+        // generate a new log ID
+        String logId = ContextUtil.getLogId(ec);
+        logger.debug(String.format("[%s] Reloading entity field catalog ...", logId));
+
+        // reload
+        EntityFieldCatalog catalog = EntityFieldCatalog.reload(ec);
+
+        // log the processing time
+        stopWatch.stop();
+        logger.debug(String.format("[%s] Loaded %d entity fields in %d milliseconds", logId, catalog.getFieldCount(), stopWatch.getTime()));
+        mf.addMessage("Entity field catalog reloaded successfully.");
+
+        // return the output parameters
+        HashMap<String, Object> outParams = new HashMap<>();
+        outParams.put("fieldCount", catalog.getFieldCount());
+        return outParams;
+    }
+
+    /**
+     * Removes the entity field catalog from the cache, it is reloaded on next use.
+     *
+     * @param ec Execution context
+     * @return Output parameter map
+     */
+    public Map<String, Object> invalidateEntityFieldCatalog(ExecutionContext ec) {
+
+        // generate a new log ID
+        String logId = ContextUtil.getLogId(ec);
+        logger.debug(String.format("[%s] Invalidating entity field catalog ...", logId));
+
+        // invalidate
+        EntityFieldCatalog.invalidate(ec);
+
+        // return the output parameters
+        return new HashMap<>();
+    }
 }
@@ -29,7 +29,6 @@ import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 
 /**
  * Utility class to help constructing entity conditions.
@@ -44,6 +43,10 @@ public class EntityConditionBuilder {
      * Entity condition factory.
      */
     private EntityConditionFactory ecf;
+    /**
+     * Operator joining the added conditions.
+     */
+    private EntityCondition.JoinOperator joinOperator;
     /**
      * Condition.
      */
@@ -55,7 +58,7 @@ public class EntityConditionBuilder {
      * @param ec Execution context
      */
     public EntityConditionBuilder(ExecutionContext ec) {
-        this(ec, null);
+        this(ec, (EntityCondition) null);
     }
 
     /**
@@ -67,9 +70,33 @@ public class EntityConditionBuilder {
     public EntityConditionBuilder(ExecutionContext ec, EntityCondition baseCondition) {
         this.ec = ec;
         this.ecf = ec.getEntity().getConditionFactory();
+        this.joinOperator = EntityCondition.JoinOperator.AND;
         this.condition = baseCondition==null ? ecf.getTrueCondition() : baseCondition;
     }
 
+    /**
+     * Creates a new {@code EntityConditionBuilder} without a base condition, joining the added conditions with
+     * the given operator.
+     *
+     * @param ec Execution context
+     * @param joinOperator Operator joining the added conditions
+     */
+    public EntityConditionBuilder(ExecutionContext ec, EntityCondition.JoinOperator joinOperator) {
+        this.ec = ec;
+        this.ecf = ec.getEntity().getConditionFactory();
+        this.joinOperator = joinOperator;
+        this.condition = null;
+    }
+
+    /**
+     * Gets the condition built so far.
+     *
+     * @return Condition or {@code null} if no condition was added to a builder without base condition
+     */
+    public EntityCondition getCondition() {
+        return condition;
+    }
+
     /**
      * Add a text condition.
      *
@@ -81,60 +108,28 @@ public class EntityConditionBuilder {
     public EntityCondition textCondition(String fieldName, TextComparisonOperator operator, String value) {
         switch(operator) {
             case TXT_STARTS_WITH:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LIKE, value + "%")
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LIKE, value + "%"));
                 break;
             case TXT_ENDS_WITH:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LIKE, "%" + value)
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LIKE, "%" + value));
                 break;
             case TXT_CONTAINS:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LIKE, "%" + value + "%")
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LIKE, "%" + value + "%"));
                 break;
             case TXT_NOT_CONTAINS:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.NOT_LIKE, "%" + value + "%")
-                );
+                join(orNull(fieldName, ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.NOT_LIKE, "%" + value + "%")));
                 break;
             case TXT_EQUALS:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.EQUALS, value)
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.EQUALS, value));
                 break;
             case TXT_NOT_EQUALS:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.NOT_EQUAL, value)
-                );
+                join(orNull(fieldName, ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.NOT_EQUAL, value)));
                 break;
             case TXT_EMPTY:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.EQUALS, "")
-                );
+                join(orNull(fieldName, ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.EQUALS, "")));
                 break;
             case TXT_NOT_EMPTY:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.NOT_EQUAL, "")
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.NOT_EQUAL, ""));
                 break;
             default:
                 break;
@@ -155,46 +150,22 @@ public class EntityConditionBuilder {
     public EntityCondition numberCondition(String fieldName, NumberComparisonOperator operator, double value) {
         switch(operator) {
             case NUM_LESS_THAN:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN, value)
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN, value));
                 break;
             case NUM_LESS_THAN_EQUALS:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN_EQUAL_TO, value)
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN_EQUAL_TO, value));
                 break;
             case NUM_GREATER_THAN:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN, value)
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN, value));
                 break;
             case NUM_GREATER_THAN_EQUALS:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN_EQUAL_TO, value)
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN_EQUAL_TO, value));
                 break;
             case NUM_EQUALS:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.EQUALS, value)
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.EQUALS, value));
                 break;
             case NUM_NOT_EQUALS:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.NOT_EQUAL, value)
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.NOT_EQUAL, value));
                 break;
             default:
                 break;
@@ -215,41 +186,24 @@ public class EntityConditionBuilder {
     public EntityCondition dateCondition(String fieldName, DateComparisonOperator operator, Timestamp value) {
         switch(operator) {
             case DATE_BEFORE:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN, value)
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN, value));
                 break;
             case DATE_AFTER:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN, value)
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN, value));
                 break;
             case DATE_EQUALS:
-                condition = ecf.makeCondition(
-                        Arrays.asList(
-                                condition,
-                                ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN, value),
-                                ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN, new Timestamp(DateUtils.addDays(value, 1).getTime()))
-                        ),
-                        EntityCondition.JoinOperator.AND
-                );
+                join(ecf.makeCondition(
+                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN_EQUAL_TO, value),
+                        EntityCondition.JoinOperator.AND,
+                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN, new Timestamp(DateUtils.addDays(value, 1).getTime()))
+                ));
                 break;
             case DATE_NOT_EQUALS:
-                condition = ecf.makeCondition(
-                        Arrays.asList(
-                                condition,
-                                ecf.makeCondition(
-                                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN, value),
-                                        EntityCondition.JoinOperator.OR,
-                                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN, new Timestamp(DateUtils.addDays(value, 1).getTime()))
-                                )
-                        ),
-                        EntityCondition.JoinOperator.AND
-                );
+                join(ecf.makeCondition(
+                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.LESS_THAN, value),
+                        EntityCondition.JoinOperator.OR,
+                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.GREATER_THAN_EQUAL_TO, new Timestamp(DateUtils.addDays(value, 1).getTime()))
+                ));
                 break;
             default:
                 break;
@@ -269,18 +223,10 @@ public class EntityConditionBuilder {
     public EntityCondition booleanCondition(String fieldName, BooleanComparisonOperator operator) {
         switch(operator) {
             case BOOL_TRUE:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.EQUALS, "Y")
-                );
+                join(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.EQUALS, "Y"));
                 break;
             case BOOL_FALSE:
-                condition = ecf.makeCondition(
-                        condition,
-                        EntityCondition.JoinOperator.AND,
-                        ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.EQUALS, "N")
-                );
+                join(orNull(fieldName, ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.NOT_EQUAL, "Y")));
                 break;
             default:
                 break;
@@ -327,4 +273,29 @@ public class EntityConditionBuilder {
         // return condition for cascading
         return condition;
     }
+
+    /**
+     * Joins a condition to the conditions added so far.
+     *
+     * @param newCondition Condition to join
+     */
+    private void join(EntityCondition newCondition) {
+        condition = condition == null ? newCondition : ecf.makeCondition(condition, joinOperator, newCondition);
+    }
+
+    /**
+     * Extends a condition to also match rows where the field is null, for operators that treat a missing
+     * value as not matching the comparison value.
+     *
+     * @param fieldName Entity field name
+     * @param fieldCondition Field condition
+     * @return Extended condition
+     */
+    private EntityCondition orNull(String fieldName, EntityCondition fieldCondition) {
+        return ecf.makeCondition(
+                fieldCondition,
+                EntityCondition.JoinOperator.OR,
+                ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.EQUALS, null)
+        );
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.entity.util;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of data documents found in the search index.
+ * <p>
+ * Filtered finds ask the index for a single sorted page and its total hit count, then load the page rows by
+ * primary key, instead of loading every matching ID into an {@code IN} condition. The index query must carry
+ * every condition of the find, so finds with conditions the index cannot express keep the database path.
+ */
+public final class EntityDocumentPage {
+
+    /**
+     * Maximum number of terms in a query built by {@link #makeTermsQuery(String, Collection)}.
+     */
+    public static final int MAX_TERMS = 1000;
+
+    /**
+     * Primary key field.
+     */
+    private final String pkField;
+    /**
+     * Primary keys of the page in index order.
+     */
+    private final List<String> idList;
+    /**
+     * Total number of hits.
+     */
+    private final long totalRows;
+
+    /**
+     * Creates a new page.
+     *
+     * @param pkField Primary key field
+     * @param idList Primary keys of the page
+     * @param totalRows Total number of hits
+     */
+    private EntityDocumentPage(String pkField, List<String> idList, long totalRows) {
+        this.pkField = pkField;
+        this.idList = idList;
+        this.totalRows = totalRows;
+    }
+
+    /**
+     * Searches one page of data documents in the {@code workflow} index.
+     *
+     * @param ec Execution context
+     * @param documentType Data document ID
+     * @param pkField Primary key field, which must be a document field
+     * @param queryString Query string
+     * @param orderByField Order by field, prefixed with {@code -} when descending
+     * @param pageIndex Page index
+     * @param pageSize Page size
+     * @return Page or {@code null} if the order by field is not a document field
+     */
+    public static EntityDocumentPage search(ExecutionContext ec, String documentType, String pkField, String queryString,
+                                            String orderByField, int pageIndex, int pageSize) {
+        String fieldName = orderByField.replaceFirst("^[-+]", "");
+        if (!getDocumentFieldNames(ec, documentType).contains(fieldName)) {
+            return null;
+        }
+
+        Map<String, Object> resp = ec.getService().sync().name("org.moqui.search.SearchServices.search#DataDocuments")
+                .parameter("indexName", "workflow")
+                .parameter("documentType", documentType)
+                .parameter("queryString", queryString)
+                .parameter("orderByFields", fieldName.equals(pkField) ? Collections.singletonList(orderByField) : Arrays.asList(orderByField, pkField))
+                .parameter("pageIndex", pageIndex)
+                .parameter("pageSize", pageSize)
+                .call();
+
+        List<String> idList = new ArrayList<>();
+        long totalRows = 0;
+        if (resp != null && resp.containsKey("documentList")) {
+            for (Object documentObj : (List) resp.get("documentList")) {
+                if (documentObj instanceof Map) {
+                    idList.add((String) ((Map) documentObj).get(pkField));
+                }
+            }
+            Object countObj = resp.get("documentListCount");
+            totalRows = countObj instanceof Number ? ((Number) countObj).longValue() : idList.size();
+        }
+        return new EntityDocumentPage(pkField, idList, totalRows);
+    }
+
+    /**
+     * Makes a query matching any of the values of a field.
+     *
+     * @param fieldName Field name
+     * @param values Field values, at most {@link #MAX_TERMS}
+     * @return Query string
+     */
+    public static String makeTermsQuery(String fieldName, Collection<String> values) {
+        StringBuilder query = new StringBuilder(fieldName).append(":(");
+        boolean first = true;
+        for (String value : values) {
+            if (!first) {
+                query.append(" OR ");
+            }
+            query.append('"').append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            first = false;
+        }
+        return query.append(')').toString();
+    }
+
+    /**
+     * Loads the rows of the page in one query, in index order. Documents whose rows no longer exist are left out.
+     *
+     * @param find Find of the rows
+     * @return Page rows
+     */
+    public List<EntityValue> list(EntityFind find) {
+        if (idList.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<Object, EntityValue> rowMap = new HashMap<>();
+        for (EntityValue row : find.condition(pkField, EntityCondition.ComparisonOperator.IN, idList).list()) {
+            rowMap.put(row.get(pkField), row);
+        }
+        List<EntityValue> rows = new ArrayList<>(idList.size());
+        for (String id : idList) {
+            EntityValue row = rowMap.get(id);
+            if (row != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Gets the primary keys of the page.
+     *
+     * @return Primary keys in index order
+     */
+    public List<String> getIdList() {
+        return idList;
+    }
+
+    /**
+     * Gets the total number of hits.
+     *
+     * @return Total hits
+     */
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    /**
+     * Gets the field names of a data document.
+     *
+     * @param ec Execution context
+     * @param documentType Data document ID
+     * @return Field names
+     */
+    private static List<String> getDocumentFieldNames(ExecutionContext ec, String documentType) {
+        List<String> fieldNames = new ArrayList<>();
+        for (EntityValue field : ec.getEntity().find("moqui.entity.document.DataDocumentField")
+                .condition("dataDocumentId", documentType)
+                .useCache(true)
+                .list()) {
+            String fieldNameAlias = field.getString("fieldNameAlias");
+            String fieldPath = field.getString("fieldPath");
+            fieldNames.add(fieldNameAlias != null && !fieldNameAlias.isEmpty() ? fieldNameAlias : fieldPath.substring(fieldPath.lastIndexOf(':') + 1));
+        }
+        return fieldNames;
+    }
+}
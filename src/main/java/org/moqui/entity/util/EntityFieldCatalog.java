@@ -0,0 +1,338 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.entity.util;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityFacade;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.cache.Cache;
+import javax.transaction.Synchronization;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable catalog of the exposed entity fields and the comparison operators allowed for each field type.
+ * <p>
+ * Field metadata only changes when seed data is loaded, so the catalog is loaded with two queries the first
+ * time it is needed and then served from a cache configured in MoquiConf.xml. It is removed from the cache
+ * when an entity field is created, updated or deleted, and reloaded on next use or by an explicit reload.
+ */
+public final class EntityFieldCatalog {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(EntityFieldCatalog.class);
+    /**
+     * Comparison operator enumeration types by field type.
+     */
+    private static final Map<EntityFieldType, String> OPERATOR_ENUM_TYPES = new EnumMap<>(EntityFieldType.class);
+    static {
+        OPERATOR_ENUM_TYPES.put(EntityFieldType.ENTITY_FLD_TEXT, "TextComparisonOperator");
+        OPERATOR_ENUM_TYPES.put(EntityFieldType.ENTITY_FLD_NUMBER, "NumberComparisonOperator");
+        OPERATOR_ENUM_TYPES.put(EntityFieldType.ENTITY_FLD_DATE, "DateComparisonOperator");
+        OPERATOR_ENUM_TYPES.put(EntityFieldType.ENTITY_FLD_BOOLEAN, "BooleanComparisonOperator");
+    }
+    /**
+     * Cache name, configured in MoquiConf.xml.
+     */
+    public static final String CACHE_NAME = "workflow.field.catalog";
+    /**
+     * Key of the catalog in the cache.
+     */
+    private static final String CACHE_KEY = "catalog";
+
+    /**
+     * Fields by entity name and field name.
+     */
+    private final Map<String, Map<String, Field>> fieldsByEntity;
+    /**
+     * Fields by field ID.
+     */
+    private final Map<String, Field> fieldsById;
+    /**
+     * Comparison operators by field type.
+     */
+    private final Map<EntityFieldType, List<Map<String, Object>>> operators;
+
+    /**
+     * Creates a new catalog.
+     *
+     * @param fieldsByEntity Fields by entity name and field name
+     * @param fieldsById Fields by field ID
+     * @param operators Comparison operators by field type
+     */
+    private EntityFieldCatalog(Map<String, Map<String, Field>> fieldsByEntity, Map<String, Field> fieldsById, Map<EntityFieldType, List<Map<String, Object>>> operators) {
+        this.fieldsByEntity = fieldsByEntity;
+        this.fieldsById = fieldsById;
+        this.operators = operators;
+    }
+
+    /**
+     * Gets the catalog, loading it if not cached yet.
+     *
+     * @param ec Execution context
+     * @return Entity field catalog
+     */
+    public static EntityFieldCatalog getCatalog(ExecutionContext ec) {
+        Cache<String, EntityFieldCatalog> cache = getCache(ec);
+        EntityFieldCatalog catalog = cache.get(CACHE_KEY);
+        if (catalog == null) {
+            catalog = load(ec);
+            cache.put(CACHE_KEY, catalog);
+        }
+        return catalog;
+    }
+
+    /**
+     * Loads the catalog and replaces the cached one.
+     *
+     * @param ec Execution context
+     * @return Reloaded catalog
+     */
+    public static EntityFieldCatalog reload(ExecutionContext ec) {
+        EntityFieldCatalog catalog = load(ec);
+        getCache(ec).put(CACHE_KEY, catalog);
+        return catalog;
+    }
+
+    /**
+     * Removes the catalog from the cache. When called inside a transaction the catalog is removed again after
+     * the transaction completes, so that a concurrent reader cannot cache the fields being replaced.
+     *
+     * @param ec Execution context
+     */
+    public static void invalidate(ExecutionContext ec) {
+        Cache<String, EntityFieldCatalog> cache = getCache(ec);
+        cache.remove(CACHE_KEY);
+        if (ec.getTransaction().isTransactionInPlace()) {
+            ec.getTransaction().registerSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    cache.remove(CACHE_KEY);
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets an exposed field.
+     *
+     * @param entityName Entity name
+     * @param fieldName Field name
+     * @return Field or {@code null} if the field is not exposed
+     */
+    public Field getField(String entityName, String fieldName) {
+        Map<String, Field> fields = fieldsByEntity.get(entityName);
+        return fields != null ? fields.get(fieldName) : null;
+    }
+
+    /**
+     * Gets an exposed field by ID.
+     *
+     * @param fieldId Field ID
+     * @return Field or {@code null} if the field does not exist
+     */
+    public Field getFieldById(String fieldId) {
+        return fieldId != null ? fieldsById.get(fieldId) : null;
+    }
+
+    /**
+     * Gets the comparison operators allowed for a field type.
+     *
+     * @param fieldType Field type
+     * @return Read-only operator enumerations
+     */
+    public List<Map<String, Object>> getComparisonOperators(EntityFieldType fieldType) {
+        List<Map<String, Object>> operatorList = fieldType != null ? operators.get(fieldType) : null;
+        return operatorList != null ? operatorList : Collections.emptyList();
+    }
+
+    /**
+     * Gets the number of exposed fields.
+     *
+     * @return Field count
+     */
+    public int getFieldCount() {
+        return fieldsById.size();
+    }
+
+    /**
+     * Gets the catalog cache.
+     *
+     * @param ec Execution context
+     * @return Catalog cache
+     */
+    @SuppressWarnings("unchecked")
+    private static Cache<String, EntityFieldCatalog> getCache(ExecutionContext ec) {
+        return (Cache<String, EntityFieldCatalog>) ec.getCache().getCache(CACHE_NAME);
+    }
+
+    /**
+     * Loads the exposed fields and the comparison operators.
+     *
+     * @param ec Execution context
+     * @return New catalog
+     */
+    private static EntityFieldCatalog load(ExecutionContext ec) {
+        EntityFacade ef = ec.getEntity();
+
+        // load the fields
+        Map<String, Map<String, Field>> fieldsByEntity = new HashMap<>();
+        Map<String, Field> fieldsById = new HashMap<>();
+        EntityList fieldList = ef.find("moqui.entity.EntityField")
+                .selectField("fieldId,entityName,fieldName,fieldTypeEnumId,displayName")
+                .useCache(false)
+                .list();
+        for (EntityValue fieldValue : fieldList) {
+            Field field = new Field(fieldValue);
+            fieldsById.put(field.getFieldId(), field);
+            fieldsByEntity.computeIfAbsent(field.getEntityName(), k -> new HashMap<>()).putIfAbsent(field.getFieldName(), field);
+        }
+        fieldsByEntity.replaceAll((entityName, fields) -> Collections.unmodifiableMap(fields));
+
+        // load the operators
+        Map<String, List<Map<String, Object>>> operatorsByEnumType = new HashMap<>();
+        EntityList operatorList = ef.find("moqui.basic.Enumeration")
+                .condition("enumTypeId", EntityCondition.ComparisonOperator.IN, new ArrayList<>(OPERATOR_ENUM_TYPES.values()))
+                .orderBy(Arrays.asList("sequenceNum", "enumId"))
+                .useCache(false)
+                .list();
+        for (EntityValue operator : operatorList) {
+            operatorsByEnumType.computeIfAbsent(operator.getString("enumTypeId"), k -> new ArrayList<>())
+                    .add(Collections.unmodifiableMap(new HashMap<>(operator.getMap())));
+        }
+        Map<EntityFieldType, List<Map<String, Object>>> operators = new EnumMap<>(EntityFieldType.class);
+        for (Map.Entry<EntityFieldType, String> entry : OPERATOR_ENUM_TYPES.entrySet()) {
+            operators.put(entry.getKey(), Collections.unmodifiableList(operatorsByEnumType.getOrDefault(entry.getValue(), new ArrayList<>())));
+        }
+
+        logger.info(String.format("Loaded %d entity fields and %d comparison operators", fieldsById.size(), operatorList.size()));
+        return new EntityFieldCatalog(Collections.unmodifiableMap(fieldsByEntity), Collections.unmodifiableMap(fieldsById), Collections.unmodifiableMap(operators));
+    }
+
+    /**
+     * Exposed entity field.
+     */
+    public static final class Field {
+
+        /**
+         * Field ID.
+         */
+        private final String fieldId;
+        /**
+         * Entity name.
+         */
+        private final String entityName;
+        /**
+         * Field name.
+         */
+        private final String fieldName;
+        /**
+         * Field type enumeration ID as stored.
+         */
+        private final String fieldTypeEnumId;
+        /**
+         * Field type, {@code null} if unknown.
+         */
+        private final EntityFieldType fieldType;
+        /**
+         * Display name.
+         */
+        private final String displayName;
+
+        /**
+         * Creates a new field.
+         *
+         * @param field Entity field
+         */
+        private Field(EntityValue field) {
+            fieldId = field.getString("fieldId");
+            entityName = field.getString("entityName");
+            fieldName = field.getString("fieldName");
+            fieldTypeEnumId = field.getString("fieldTypeEnumId");
+            fieldType = EnumUtils.getEnum(EntityFieldType.class, fieldTypeEnumId);
+            displayName = field.getString("displayName");
+        }
+
+        /**
+         * Gets the field ID.
+         *
+         * @return Field ID
+         */
+        public String getFieldId() {
+            return fieldId;
+        }
+
+        /**
+         * Gets the entity name.
+         *
+         * @return Entity name
+         */
+        public String getEntityName() {
+            return entityName;
+        }
+
+        /**
+         * Gets the field name.
+         *
+         * @return Field name
+         */
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        /**
+         * Gets the field type enumeration ID as stored.
+         *
+         * @return Field type enumeration ID
+         */
+        public String getFieldTypeEnumId() {
+            return fieldTypeEnumId;
+        }
+
+        /**
+         * Gets the field type.
+         *
+         * @return Field type or {@code null} if unknown
+         */
+        public EntityFieldType getFieldType() {
+            return fieldType;
+        }
+
+        /**
+         * Gets the display name.
+         *
+         * @return Display name
+         */
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+}
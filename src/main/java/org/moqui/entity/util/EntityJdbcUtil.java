@@ -0,0 +1,174 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.entity.util;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityException;
+import org.moqui.entity.EntityFacade;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Savepoint;
+import java.util.List;
+
+/**
+ * Utility class for the few statements the entity facade cannot express atomically, such as conditional
+ * updates and batch inserts. Statements run on the connection of the entity's group, enlisted in the
+ * current transaction, and bypass entity caches and ECAs.
+ */
+public class EntityJdbcUtil {
+
+    /**
+     * Gets the default table name of an entity.
+     *
+     * @param entityName Entity name, with or without package
+     * @return Table name
+     */
+    public static String getTableName(String entityName) {
+        return getColumnName(entityName.substring(entityName.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * Gets the default column name of a field.
+     *
+     * @param fieldName Field name
+     * @return Column name
+     */
+    public static String getColumnName(String fieldName) {
+        StringBuilder columnName = new StringBuilder(fieldName.length() + 8);
+        for (int i = 0; i < fieldName.length(); i++) {
+            char c = fieldName.charAt(i);
+            if (Character.isUpperCase(c) && i > 0) {
+                columnName.append('_');
+            }
+            columnName.append(Character.toUpperCase(c));
+        }
+        return columnName.toString();
+    }
+
+    /**
+     * Executes an update statement.
+     *
+     * @param ec Execution context
+     * @param entityName Entity name used to pick the connection
+     * @param sql SQL statement
+     * @param parameters Statement parameters
+     * @return Number of affected rows
+     */
+    public static int executeUpdate(ExecutionContext ec, String entityName, String sql, Object... parameters) {
+        EntityFacade ef = ec.getEntity();
+        try (Connection connection = ef.getConnection(ef.getEntityGroupName(entityName));
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            return statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new EntityException(String.format("Error executing statement on %s: %s", entityName, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Executes an insert statement unless a row with the same key already exists. The insert runs under a
+     * savepoint, so that a duplicate key does not abort the current transaction on databases that roll back the
+     * whole transaction on a failed statement. An insert racing another transaction inserting the same key waits
+     * for that transaction and reports the duplicate once it commits.
+     *
+     * @param ec Execution context
+     * @param entityName Entity name used to pick the connection
+     * @param sql SQL insert statement
+     * @param parameters Statement parameters
+     * @return {@code true} if the row was inserted, {@code false} if the key already exists
+     */
+    public static boolean executeInsertIfAbsent(ExecutionContext ec, String entityName, String sql, Object... parameters) {
+        EntityFacade ef = ec.getEntity();
+        try (Connection connection = ef.getConnection(ef.getEntityGroupName(entityName))) {
+            Savepoint savepoint = null;
+            if (!connection.getAutoCommit()) {
+                try {
+                    savepoint = connection.setSavepoint();
+                } catch (SQLFeatureNotSupportedException e) {
+                    // statement failures leave the transaction usable where savepoints are not supported
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < parameters.length; i++) {
+                    statement.setObject(i + 1, parameters[i]);
+                }
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                if (!isDuplicateKey(e)) {
+                    throw e;
+                }
+                if (savepoint != null) {
+                    connection.rollback(savepoint);
+                }
+                return false;
+            }
+            if (savepoint != null) {
+                connection.releaseSavepoint(savepoint);
+            }
+            return true;
+        } catch (SQLException e) {
+            throw new EntityException(String.format("Error executing insert on %s: %s", entityName, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Checks if an exception reports an integrity constraint violation, i.e. SQL state class 23.
+     *
+     * @param e Exception
+     * @return {@code true} if the statement violated a key or constraint
+     */
+    private static boolean isDuplicateKey(SQLException e) {
+        return e instanceof SQLIntegrityConstraintViolationException || (e.getSQLState() != null && e.getSQLState().startsWith("23"));
+    }
+
+    /**
+     * Executes a statement once per parameter row as a single JDBC batch.
+     *
+     * @param ec Execution context
+     * @param entityName Entity name used to pick the connection
+     * @param sql SQL statement
+     * @param parameterRows Statement parameters, one array per row
+     * @return Number of affected rows
+     */
+    public static int executeBatch(ExecutionContext ec, String entityName, String sql, List<Object[]> parameterRows) {
+        if (parameterRows.isEmpty()) {
+            return 0;
+        }
+
+        EntityFacade ef = ec.getEntity();
+        try (Connection connection = ef.getConnection(ef.getEntityGroupName(entityName));
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Object[] parameters : parameterRows) {
+                for (int i = 0; i < parameters.length; i++) {
+                    statement.setObject(i + 1, parameters[i]);
+                }
+                statement.addBatch();
+            }
+
+            int affected = 0;
+            for (int count : statement.executeBatch()) {
+                affected += count == PreparedStatement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+            }
+            return affected;
+        } catch (SQLException e) {
+            throw new EntityException(String.format("Error executing batch on %s: %s", entityName, e.getMessage()), e);
+        }
+    }
+}
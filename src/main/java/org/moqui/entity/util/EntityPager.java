@@ -0,0 +1,403 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.entity.util;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityConditionFactory;
+import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.moqui.util.ContextStack;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Pages the results of a find service, reading the paging parameters from the service context.
+ * <p>
+ * The default {@code offset} mode pages with {@code pageIndex} and {@code pageSize}. The {@code keyset} mode
+ * continues after the last row of the previous page, identified by an opaque {@code cursor} holding its order
+ * by field value and primary key, so that deep pages cost the same as the first one. The {@code countMode}
+ * controls the total row count: {@code exact} counts all rows, {@code skip} does not count and {@code estimate}
+ * counts at most {@link #ESTIMATE_LIMIT} rows past the start of the page, or of the first page in keyset mode,
+ * returning that lower bound with {@code totalRowsExact} set to false when there are more.
+ */
+public final class EntityPager {
+
+    /**
+     * Maximum number of rows counted past the start of the page when estimating.
+     */
+    public static final int ESTIMATE_LIMIT = 1000;
+
+    /**
+     * Pagination modes.
+     */
+    public enum PaginationMode {
+        offset,
+        keyset
+    }
+
+    /**
+     * Count modes.
+     */
+    public enum CountMode {
+        exact,
+        skip,
+        estimate
+    }
+
+    /**
+     * Entity condition factory.
+     */
+    private final EntityConditionFactory ecf;
+    /**
+     * Pagination mode.
+     */
+    private final PaginationMode paginationMode;
+    /**
+     * Count mode.
+     */
+    private final CountMode countMode;
+    /**
+     * Page index of offset pagination.
+     */
+    private final int pageIndex;
+    /**
+     * Page size.
+     */
+    private final int pageSize;
+    /**
+     * Order by field, prefixed with {@code -} when descending.
+     */
+    private final String orderByField;
+    /**
+     * Primary key field used to break ties.
+     */
+    private final String pkField;
+    /**
+     * Cursor of keyset pagination, {@code null} for the first page.
+     */
+    private final JSONObject cursor;
+    /**
+     * Cursor of the next page, {@code null} if there is none.
+     */
+    private String nextCursor;
+    /**
+     * Number of rows of the page.
+     */
+    private int pageRows;
+    /**
+     * Whether the last count is exact.
+     */
+    private boolean countExact = true;
+
+    /**
+     * Creates a new pager.
+     *
+     * @param ecf Entity condition factory
+     * @param paginationMode Pagination mode
+     * @param countMode Count mode
+     * @param pageIndex Page index
+     * @param pageSize Page size
+     * @param orderByField Order by field
+     * @param pkField Primary key field
+     * @param cursor Cursor
+     */
+    private EntityPager(EntityConditionFactory ecf, PaginationMode paginationMode, CountMode countMode, int pageIndex, int pageSize, String orderByField, String pkField, JSONObject cursor) {
+        this.ecf = ecf;
+        this.paginationMode = paginationMode;
+        this.countMode = countMode;
+        this.pageIndex = pageIndex;
+        this.pageSize = pageSize;
+        this.orderByField = orderByField;
+        this.pkField = pkField;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Reads the paging parameters of a find service.
+     *
+     * @param ec Execution context
+     * @param defaultOrderByField Order by field used when none is given
+     * @param pkField Primary key field
+     * @return Pager
+     * @throws IllegalArgumentException if a mode or the cursor is invalid
+     */
+    public static EntityPager fromContext(ExecutionContext ec, String defaultOrderByField, String pkField) {
+        ContextStack cs = ec.getContext();
+        String paginationModeName = (String) cs.getOrDefault("paginationMode", null);
+        String countModeName = (String) cs.getOrDefault("countMode", null);
+        String cursorText = (String) cs.getOrDefault("cursor", null);
+        int pageIndex = (Integer) cs.getOrDefault("pageIndex", 0);
+        int pageSize = (Integer) cs.getOrDefault("pageSize", 10);
+        String orderByField = (String) cs.getOrDefault("orderByField", defaultOrderByField);
+
+        PaginationMode paginationMode;
+        CountMode countMode;
+        try {
+            paginationMode = paginationModeName != null ? PaginationMode.valueOf(paginationModeName) : PaginationMode.offset;
+            countMode = countModeName != null ? CountMode.valueOf(countModeName) : CountMode.exact;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Invalid pagination mode %s or count mode %s", paginationModeName, countModeName));
+        }
+
+        JSONObject cursor = null;
+        if (paginationMode == PaginationMode.keyset && cursorText != null && !cursorText.isEmpty()) {
+            try {
+                cursor = new JSONObject(new String(Base64.getUrlDecoder().decode(cursorText), StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException | JSONException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            if (!orderByField.equals(cursor.optString("o")) || !cursor.has("k")) {
+                throw new IllegalArgumentException("Cursor does not match the order by field");
+            }
+        }
+        return new EntityPager(ec.getEntity().getConditionFactory(), paginationMode, countMode, pageIndex, Math.max(pageSize, 1), orderByField, pkField, cursor);
+    }
+
+    /**
+     * Lists one page of a find.
+     *
+     * @param find Find with its conditions
+     * @return Page rows
+     */
+    public EntityList list(EntityFind find) {
+        EntityList rows;
+        if (paginationMode == PaginationMode.offset) {
+            rows = find.offset(pageIndex, pageSize)
+                    .limit(pageSize)
+                    .orderBy(orderByField)
+                    .list();
+        } else {
+
+            // seek past the cursor in a stable order with nulls last and ties broken by the primary key in the same
+            // direction, reading one extra row to detect the next page
+            boolean descending = orderByField.startsWith("-");
+            String fieldName = orderByField.replaceFirst("^[-+]", "");
+            if (cursor != null) {
+                find.condition(makeSeekCondition(fieldName, descending));
+            }
+            if (fieldName.equals(pkField)) {
+                find.orderBy(orderByField);
+            } else {
+                find.orderBy(Arrays.asList(orderByField + " NULLS LAST", descending ? "-" + pkField : pkField));
+            }
+            rows = find.limit(pageSize + 1).list();
+
+            // build the next cursor
+            nextCursor = null;
+            if (rows.size() > pageSize) {
+                rows.remove(pageSize);
+                EntityValue last = rows.get(pageSize - 1);
+                JSONObject next = new JSONObject();
+                next.put("o", orderByField);
+                next.put("k", last.get(pkField));
+                putValue(next, last.get(fieldName));
+                nextCursor = Base64.getUrlEncoder().withoutPadding().encodeToString(next.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        pageRows = rows.size();
+        return rows;
+    }
+
+    /**
+     * Adds the search form conditions of a find service to a find. The {@code orderByField} parameter is left
+     * out because the pager orders the find itself, keyset pagination relying on its own ordering.
+     *
+     * @param find Find
+     * @param cs Service context
+     * @return Find with the search form conditions
+     */
+    public EntityFind searchFormMap(EntityFind find, ContextStack cs) {
+        cs.push();
+        try {
+            cs.put("orderByField", null);
+            return find.searchFormMap(cs, null, null, null, false);
+        } finally {
+            cs.pop();
+        }
+    }
+
+    /**
+     * Counts the rows of a find according to the count mode.
+     *
+     * @param countFind Find with the same conditions as the listed one
+     * @return Row count or {@code null} if skipped
+     */
+    public Long count(EntityFind countFind) {
+        countExact = countMode != CountMode.skip;
+        if (countMode == CountMode.skip) {
+            return null;
+        } else if (countMode == CountMode.exact) {
+            return countFind.count();
+        }
+
+        // estimate from the page if it is the last one, otherwise count a bounded number of rows from its start
+        long start = paginationMode == PaginationMode.offset ? (long) pageIndex * pageSize : 0;
+        boolean lastPage = pageRows < pageSize && (pageRows > 0 || start == 0);
+        if (lastPage && (paginationMode == PaginationMode.offset || cursor == null)) {
+            return start + pageRows;
+        }
+        long rows = countFind.selectField(pkField)
+                .offset((int) start)
+                .limit(ESTIMATE_LIMIT + 1)
+                .list()
+                .size();
+        countExact = rows <= ESTIMATE_LIMIT;
+        return start + Math.min(rows, ESTIMATE_LIMIT);
+    }
+
+    /**
+     * Adds the paging output parameters.
+     *
+     * @param outParams Output parameter map
+     */
+    public void putOutParams(Map<String, Object> outParams) {
+        outParams.put("nextCursor", nextCursor);
+        outParams.put("totalRowsExact", countExact);
+    }
+
+    /**
+     * Gets the pagination mode.
+     *
+     * @return Pagination mode
+     */
+    public PaginationMode getPaginationMode() {
+        return paginationMode;
+    }
+
+    /**
+     * Gets the count mode.
+     *
+     * @return Count mode
+     */
+    public CountMode getCountMode() {
+        return countMode;
+    }
+
+    /**
+     * Gets the page index of offset pagination.
+     *
+     * @return Page index
+     */
+    public int getPageIndex() {
+        return pageIndex;
+    }
+
+    /**
+     * Gets the page size.
+     *
+     * @return Page size
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Gets the order by field.
+     *
+     * @return Order by field, prefixed with {@code -} when descending
+     */
+    public String getOrderByField() {
+        return orderByField;
+    }
+
+    /**
+     * Makes the condition matching the rows after the cursor, with rows having no order by value sorted last.
+     *
+     * @param fieldName Order by field name
+     * @param descending Whether the order is descending
+     * @return Seek condition
+     */
+    private EntityCondition makeSeekCondition(String fieldName, boolean descending) {
+        EntityCondition.ComparisonOperator after = descending ? EntityCondition.ComparisonOperator.LESS_THAN : EntityCondition.ComparisonOperator.GREATER_THAN;
+        EntityCondition pkAfter = ecf.makeCondition(pkField, after, cursor.get("k"));
+        if (fieldName.equals(pkField)) {
+            return pkAfter;
+        }
+
+        EntityCondition fieldNull = ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.IS_NULL, null);
+        Object value = getValue(cursor);
+        if (value == null) {
+            return ecf.makeCondition(fieldNull, EntityCondition.JoinOperator.AND, pkAfter);
+        }
+        return ecf.makeCondition(Arrays.asList(
+                ecf.makeCondition(fieldName, after, value),
+                ecf.makeCondition(ecf.makeCondition(fieldName, EntityCondition.ComparisonOperator.EQUALS, value), EntityCondition.JoinOperator.AND, pkAfter),
+                fieldNull
+        ), EntityCondition.JoinOperator.OR);
+    }
+
+    /**
+     * Puts an order by value into a cursor, tagged with its type.
+     *
+     * @param cursor Cursor
+     * @param value Order by value
+     */
+    private static void putValue(JSONObject cursor, Object value) {
+        if (value == null) {
+            cursor.put("t", "null");
+        } else if (value instanceof Timestamp) {
+            cursor.put("t", "ts");
+            cursor.put("v", ((Timestamp) value).getTime());
+        } else if (value instanceof java.util.Date) {
+            cursor.put("t", "dt");
+            cursor.put("v", ((java.util.Date) value).getTime());
+        } else if (value instanceof BigDecimal || value instanceof Double || value instanceof Float) {
+            cursor.put("t", "dec");
+            cursor.put("v", value.toString());
+        } else if (value instanceof Number) {
+            cursor.put("t", "num");
+            cursor.put("v", ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            cursor.put("t", "bool");
+            cursor.put("v", value);
+        } else {
+            cursor.put("t", "str");
+            cursor.put("v", value.toString());
+        }
+    }
+
+    /**
+     * Gets the order by value of a cursor.
+     *
+     * @param cursor Cursor
+     * @return Order by value
+     */
+    private static Object getValue(JSONObject cursor) {
+        switch (cursor.optString("t")) {
+            case "ts":
+                return new Timestamp(cursor.getLong("v"));
+            case "dt":
+                return new java.sql.Date(cursor.getLong("v"));
+            case "dec":
+                return new BigDecimal(cursor.getString("v"));
+            case "num":
+                return cursor.getLong("v");
+            case "bool":
+                return cursor.getBoolean("v");
+            case "str":
+                return cursor.getString("v");
+            default:
+                return null;
+        }
+    }
+}
@@ -16,6 +16,7 @@ package org.moqui.security;
 import org.apache.commons.lang3.time.StopWatch;
 import org.moqui.context.ExecutionContext;
 import org.moqui.entity.*;
+import org.moqui.entity.util.EntityDocumentPage;
 import org.moqui.service.ServiceFacade;
 import org.moqui.util.ContextStack;
 import org.moqui.util.ContextUtil;
@@ -71,8 +72,14 @@ private final Logger logger = LoggerFactory.getLogger(getClass());
         EntityConditionFactory ecf = ef.getConditionFactory();
         EntityCondition findCondition = ecf.getTrueCondition();
 
+        // search a page of the filtered user groups in the index, unless the index cannot apply every condition
+        EntityDocumentPage documentPage = null;
+        if (StringUtil.isValidElasticsearchQuery(filter) && ef.find("moqui.security.UserGroup").searchFormMap(cs, null, null, null, false).getWhereEntityCondition() == null) {
+            documentPage = EntityDocumentPage.search(ec, "MoquiUserGroup", "userGroupId", filter, orderByField, pageIndex, pageSize);
+        }
+
         // add the filter
-        if (StringUtil.isValidElasticsearchQuery(filter)) {
+        if (documentPage == null && StringUtil.isValidElasticsearchQuery(filter)) {
             Map<String, Object> resp = sf.sync().name("org.moqui.search.SearchServices.search#DataDocuments")
                     .parameter("indexName", "workflow")
                     .parameter("documentType", "MoquiUserGroup")
@@ -98,22 +105,26 @@ private final Logger logger = LoggerFactory.getLogger(getClass());
 
         // find user groups
         ArrayList<Map<String, Object>> userGroupList = new ArrayList<>();
-        EntityList userGroups = ef.find("moqui.security.UserGroup")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .offset(pageIndex, pageSize)
-                .limit(pageSize)
-                .orderBy(orderByField)
-                .list();
+        EntityFind find = ef.find("moqui.security.UserGroup")
+                .condition(findCondition);
+        List<EntityValue> userGroups = documentPage != null
+                ? documentPage.list(find)
+                : find.searchFormMap(cs, null, null, null, false)
+                        .offset(pageIndex, pageSize)
+                        .limit(pageSize)
+                        .orderBy(orderByField)
+                        .list();
         for (EntityValue userGroup : userGroups) {
             userGroupList.add(userGroup.getMap());
         }
 
         // count user groups
-        long totalRows = ef.find("moqui.security.UserGroup")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .count();
+        long totalRows = documentPage != null
+                ? documentPage.getTotalRows()
+                : ef.find("moqui.security.UserGroup")
+                        .condition(findCondition)
+                        .searchFormMap(cs, null, null, null, false)
+                        .count();
 
         // log the processing time
         stopWatch.stop();
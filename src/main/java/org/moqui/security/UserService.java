@@ -16,6 +16,7 @@ package org.moqui.security;
 import org.apache.commons.lang3.time.StopWatch;
 import org.moqui.context.*;
 import org.moqui.entity.*;
+import org.moqui.entity.util.EntityDocumentPage;
 import org.moqui.service.ServiceFacade;
 import org.moqui.util.ContextStack;
 import org.moqui.util.ContextUtil;
@@ -71,8 +72,14 @@ public class UserService {
         EntityConditionFactory ecf = ef.getConditionFactory();
         EntityCondition findCondition = ecf.makeCondition("disabled", EntityCondition.ComparisonOperator.EQUALS, "N");
 
+        // search a page of the filtered users in the index, unless the index cannot apply every condition
+        EntityDocumentPage documentPage = null;
+        if (StringUtil.isValidElasticsearchQuery(filter) && ef.find("moqui.security.UserAccount").searchFormMap(cs, null, null, null, false).getWhereEntityCondition() == null) {
+            documentPage = EntityDocumentPage.search(ec, "MoquiUser", "userId", String.format("disabled:N AND (%s)", filter), orderByField, pageIndex, pageSize);
+        }
+
         // add the filter
-        if (StringUtil.isValidElasticsearchQuery(filter)) {
+        if (documentPage == null && StringUtil.isValidElasticsearchQuery(filter)) {
             Map<String, Object> resp = sf.sync().name("org.moqui.search.SearchServices.search#DataDocuments")
                     .parameter("indexName", "workflow")
                     .parameter("documentType", "MoquiUser")
@@ -98,23 +105,27 @@ public class UserService {
 
         // find users
         ArrayList<Map<String, Object>> userList = new ArrayList<>();
-        EntityList users = ef.find("moqui.security.UserAccount")
+        EntityFind find = ef.find("moqui.security.UserAccount")
                 .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .offset(pageIndex, pageSize)
-                .limit(pageSize)
-                .orderBy(orderByField)
-                .selectFields(Arrays.asList("userId", "username", "userFullName", "emailAddress", "externalUserId", "creationDate"))
-                .list();
+                .selectFields(Arrays.asList("userId", "username", "userFullName", "emailAddress", "externalUserId", "creationDate"));
+        List<EntityValue> users = documentPage != null
+                ? documentPage.list(find)
+                : find.searchFormMap(cs, null, null, null, false)
+                        .offset(pageIndex, pageSize)
+                        .limit(pageSize)
+                        .orderBy(orderByField)
+                        .list();
         for (EntityValue user : users) {
             userList.add(user.getMap());
         }
 
         // count users
-        long totalRows = ef.find("moqui.security.UserAccount")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .count();
+        long totalRows = documentPage != null
+                ? documentPage.getTotalRows()
+                : ef.find("moqui.security.UserAccount")
+                        .condition(findCondition)
+                        .searchFormMap(cs, null, null, null, false)
+                        .count();
 
         // log the processing time
         stopWatch.stop();
@@ -18,31 +18,53 @@ import org.moqui.util.StringUtil;
 import org.moqui.util.TimeFrequency;
 import org.moqui.util.TimestampUtil;
 import org.apache.commons.lang3.EnumUtils;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
 import org.moqui.context.L10nFacade;
 import org.moqui.context.MessageFacade;
 import org.moqui.context.UserFacade;
 import org.moqui.entity.*;
+import org.moqui.entity.util.EntityDocumentPage;
+import org.moqui.entity.util.EntityPager;
 import org.moqui.service.ServiceFacade;
 import org.moqui.util.*;
 import org.moqui.workflow.activity.*;
+import org.moqui.workflow.condition.WorkflowConditionStats;
+import org.moqui.workflow.definition.UserActivityConfig;
+import org.moqui.workflow.definition.WorkflowActivityDefinition;
+import org.moqui.workflow.definition.WorkflowCrowdConfig;
+import org.moqui.workflow.definition.WorkflowDefinition;
+import org.moqui.workflow.definition.WorkflowDefinitionCache;
+import org.moqui.workflow.definition.WorkflowTransitionDefinition;
+import org.moqui.workflow.expression.WorkflowExpression;
+import org.moqui.workflow.expression.WorkflowExpressionException;
+import org.moqui.workflow.instance.WorkflowAdvanceDispatcher;
+import org.moqui.workflow.instance.WorkflowAdvanceQueue;
+import org.moqui.workflow.instance.WorkflowApprovalTally;
+import org.moqui.workflow.instance.WorkflowInstanceLease;
+import org.moqui.workflow.instance.WorkflowInstanceState;
+import org.moqui.workflow.instance.WorkflowInstanceTimer;
+import org.moqui.workflow.instance.WorkflowPartitionManager;
+import org.moqui.workflow.instance.WorkflowTaskCounter;
+import org.moqui.workflow.instance.WorkflowTaskWriter;
+import org.moqui.workflow.instance.WorkflowTimerWheel;
+import org.moqui.workflow.script.WorkflowScriptRuntime;
 import org.moqui.workflow.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service to manage workflows and execute workflow instances.
@@ -54,6 +76,10 @@ public class WorkflowService {
      * Class logger.
      */
     private final Logger logger = LoggerFactory.getLogger(getClass());
+    /**
+     * Permission required to administer workflow instances.
+     */
+    private static final String ADMIN_PERMISSION = "WORKFLOW_ADMIN";
 
     /**
      * Gets a set of workflow IDs the user has access to.
@@ -96,6 +122,56 @@ public class WorkflowService {
         return idSet;
     }
 
+    /**
+     * Gets the condition matching the tasks in the user's inbox, i.e. the tasks assigned to the user and the
+     * unclaimed tasks assigned to the user's groups.
+     *
+     * @param ec Execution context
+     * @return Task condition
+     */
+    private static EntityCondition getUserTaskCondition(ExecutionContext ec) {
+
+        // shortcuts for convenience
+        EntityConditionFactory ecf = ec.getEntity().getConditionFactory();
+        UserFacade uf = ec.getUser();
+
+        // assigned to the user or claimable by the user
+        return ecf.makeCondition(
+                ecf.makeCondition("assignedUserId", EntityCondition.ComparisonOperator.EQUALS, uf.getUserId()),
+                EntityCondition.JoinOperator.OR,
+                ecf.makeCondition(
+                        ecf.makeCondition("assignedUserId", EntityCondition.ComparisonOperator.EQUALS, null),
+                        EntityCondition.JoinOperator.AND,
+                        ecf.makeCondition("assignedUserGroupId", EntityCondition.ComparisonOperator.IN, uf.getUserGroupIdSet())
+                )
+        );
+    }
+
+    /**
+     * Gets the search index query matching the tasks in the user's inbox, the counterpart of
+     * {@link #getUserTaskCondition(ExecutionContext)}.
+     *
+     * @param ec Execution context
+     * @return Task query or {@code null} if the user has too many groups to query
+     */
+    private static String getUserTaskQuery(ExecutionContext ec) {
+
+        // shortcuts for convenience
+        UserFacade uf = ec.getUser();
+        String userId = uf.getUserId();
+        Set<String> userGroupIdSet = uf.getUserGroupIdSet();
+        if (userId == null || userGroupIdSet.size() > EntityDocumentPage.MAX_TERMS) {
+            return null;
+        }
+
+        // assigned to the user or claimable by the user
+        String userQuery = EntityDocumentPage.makeTermsQuery("assignedUserId", Collections.singleton(userId));
+        if (userGroupIdSet.isEmpty()) {
+            return userQuery;
+        }
+        return String.format("(%s OR (%s AND NOT _exists_:assignedUserId))", userQuery, EntityDocumentPage.makeTermsQuery("assignedUserGroupId", userGroupIdSet));
+    }
+
     /***
      * Synchronizes the workflow objects with the design model.
      *
@@ -271,7 +347,7 @@ public class WorkflowService {
             } else {
 
                 // get activity type
-                WorkflowActivityType activityTypeEnumId = WorkflowActivityType.fromNodeType(nodeType);
+                String activityTypeEnumId = WorkflowActivityRegistry.activityTypeEnumIdFromNodeType(nodeType);
                 if (activityTypeEnumId == null) {
                     logger.warn(String.format("[%s] Skipping unrecognized node: %s", logId, nodeType));
                     continue;
@@ -381,7 +457,11 @@ public class WorkflowService {
         for (EntityValue activity : activities) {
             String activityId = activity.getString("activityId");
             String activityTypeDescription = activity.getString("activityTypeDescription");
-            WorkflowActivityType activityType = WorkflowActivityType.valueOf(activity.getString("activityTypeEnumId"));
+            // custom activity types are validated like the built-in automatic activities
+            WorkflowActivityType activityType = EnumUtils.getEnum(WorkflowActivityType.class, activity.getString("activityTypeEnumId"));
+            if (activityType == null) {
+                activityType = WorkflowActivityType.WF_ACTIVITY_SERVICE;
+            }
             switch (activityType) {
                 case WF_ACTIVITY_ENTER: {
                     long successCount = ef.find("moqui.workflow.WorkflowTransition")
@@ -572,6 +652,9 @@ public class WorkflowService {
         int pageSize = (Integer) cs.getOrDefault("pageSize", 10);
         String orderByField = (String) cs.getOrDefault("orderByField", "workflowId");
         String filter = (String) cs.getOrDefault("filter", null);
+        String paginationMode = (String) cs.getOrDefault("paginationMode", null);
+        String cursor = (String) cs.getOrDefault("cursor", null);
+        String countMode = (String) cs.getOrDefault("countMode", null);
 
         // generate a new log ID
         String logId = ContextUtil.getLogId(ec);
@@ -580,13 +663,37 @@ public class WorkflowService {
         logger.debug(String.format("[%s] Param pageSize=%s", logId, pageSize));
         logger.debug(String.format("[%s] Param orderByField=%s", logId, orderByField));
         logger.debug(String.format("[%s] Param filter=%s", logId, filter));
+        logger.debug(String.format("[%s] Param paginationMode=%s", logId, paginationMode));
+        logger.debug(String.format("[%s] Param cursor=%s", logId, cursor));
+        logger.debug(String.format("[%s] Param countMode=%s", logId, countMode));
+
+        // validate the paging
+        EntityPager pager;
+        try {
+            pager = EntityPager.fromContext(ec, "workflowId", "workflowId");
+        } catch (IllegalArgumentException e) {
+            stopWatch.stop();
+            mf.addError("Invalid pagination parameters.");
+            logger.error(String.format("[%s] %s", logId, e.getMessage()));
+            return new HashMap<>();
+        }
 
         // prepare the conditions
         EntityConditionFactory ecf = ef.getConditionFactory();
-        EntityCondition findCondition = ecf.makeCondition("workflowId", EntityCondition.ComparisonOperator.IN, getUserWorkflowIdSet(ec));
+        Set<String> workflowIdSet = getUserWorkflowIdSet(ec);
+        EntityCondition findCondition = ecf.makeCondition("workflowId", EntityCondition.ComparisonOperator.IN, workflowIdSet);
+
+        // search a page of the filtered workflows in the index, unless the index cannot apply every condition
+        EntityDocumentPage documentPage = null;
+        if (StringUtil.isValidElasticsearchQuery(filter) && pager.getPaginationMode() == EntityPager.PaginationMode.offset
+                && !workflowIdSet.isEmpty() && workflowIdSet.size() <= EntityDocumentPage.MAX_TERMS
+                && pager.searchFormMap(ef.find("moqui.workflow.WorkflowDetail"), cs).getWhereEntityCondition() == null) {
+            String queryString = String.format("%s AND (%s)", EntityDocumentPage.makeTermsQuery("workflowId", workflowIdSet), filter);
+            documentPage = EntityDocumentPage.search(ec, "MoquiWorkflow", "workflowId", queryString, pager.getOrderByField(), pager.getPageIndex(), pager.getPageSize());
+        }
 
         // add the filter
-        if (StringUtil.isValidElasticsearchQuery(filter)) {
+        if (documentPage == null && StringUtil.isValidElasticsearchQuery(filter)) {
             Map<String, Object> resp = sf.sync().name("org.moqui.search.SearchServices.search#DataDocuments")
                     .parameter("indexName", "workflow")
                     .parameter("documentType", "MoquiWorkflow")
@@ -613,22 +720,20 @@ public class WorkflowService {
         // find
         String userId = uf.getUserId();
         ArrayList<Map<String, Object>> workflowList = new ArrayList<>();
-        EntityList workflows = ef.find("moqui.workflow.WorkflowDetail")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .offset(pageIndex, pageSize)
-                .limit(pageSize)
-                .orderBy(orderByField)
-                .list();
+        EntityFind find = ef.find("moqui.workflow.WorkflowDetail")
+                .condition(findCondition);
+        List<EntityValue> workflows = documentPage != null
+                ? documentPage.list(find)
+                : pager.list(pager.searchFormMap(find, cs));
         for (EntityValue workflow : workflows) {
             workflowList.add(workflow.getMap());
         }
 
         // count
-        long totalRows = ef.find("moqui.workflow.WorkflowDetail")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .count();
+        Long totalRows = documentPage != null
+                ? Long.valueOf(documentPage.getTotalRows())
+                : pager.count(pager.searchFormMap(ef.find("moqui.workflow.WorkflowDetail")
+                        .condition(findCondition), cs));
 
         // log the processing time
         stopWatch.stop();
@@ -637,6 +742,7 @@ public class WorkflowService {
         // return the output parameters
         HashMap<String, Object> outParams = new HashMap<>();
         outParams.put("totalRows", totalRows);
+        pager.putOutParams(outParams);
         outParams.put("workflowList", workflowList);
         return outParams;
     }
@@ -796,6 +902,7 @@ public class WorkflowService {
                 .parameter("disabled", disabled)
                 .parameter("updateUserId", uf.getUserId())
                 .call();
+        WorkflowDefinitionCache.invalidate(ec, workflowId);
 
         // log the processing time
         stopWatch.stop();
@@ -855,6 +962,7 @@ public class WorkflowService {
                 .parameter("disabled", disabled)
                 .parameter("updateUserId", uf.getUserId())
                 .call();
+        WorkflowDefinitionCache.invalidate(ec, workflowId);
 
         // log the processing time
         stopWatch.stop();
@@ -918,6 +1026,7 @@ public class WorkflowService {
 
         // sync the workflow
         syncWorkflowWithModel(ec, workflow);
+        WorkflowDefinitionCache.invalidate(ec, workflowId);
 
         // validate the workflow model
         if (!validateWorkflowModel(ec, workflow)) {
@@ -967,6 +1076,9 @@ public class WorkflowService {
         int pageSize = (Integer) cs.getOrDefault("pageSize", 10);
         String orderByField = (String) cs.getOrDefault("orderByField", "initiatorId");
         String filter = (String) cs.getOrDefault("filter", null);
+        String paginationMode = (String) cs.getOrDefault("paginationMode", null);
+        String cursor = (String) cs.getOrDefault("cursor", null);
+        String countMode = (String) cs.getOrDefault("countMode", null);
 
         // generate a new log ID
         String logId = ContextUtil.getLogId(ec);
@@ -976,6 +1088,9 @@ public class WorkflowService {
         logger.debug(String.format("[%s] Param pageSize=%s", logId, pageSize));
         logger.debug(String.format("[%s] Param orderByField=%s", logId, orderByField));
         logger.debug(String.format("[%s] Param filter=%s", logId, filter));
+        logger.debug(String.format("[%s] Param paginationMode=%s", logId, paginationMode));
+        logger.debug(String.format("[%s] Param cursor=%s", logId, cursor));
+        logger.debug(String.format("[%s] Param countMode=%s", logId, countMode));
 
         // validate the workflow
         EntityValue workflow = ef.find("moqui.workflow.Workflow")
@@ -988,6 +1103,17 @@ public class WorkflowService {
             return new HashMap<>();
         }
 
+        // validate the paging
+        EntityPager pager;
+        try {
+            pager = EntityPager.fromContext(ec, "initiatorId", "initiatorId");
+        } catch (IllegalArgumentException e) {
+            stopWatch.stop();
+            mf.addError("Invalid pagination parameters.");
+            logger.error(String.format("[%s] %s", logId, e.getMessage()));
+            return new HashMap<>();
+        }
+
         // prepare the conditions
         EntityConditionFactory ecf = ef.getConditionFactory();
         EntityCondition findCondition = ecf.makeCondition("workflowId", EntityCondition.ComparisonOperator.EQUALS, workflowId);
@@ -1019,21 +1145,16 @@ public class WorkflowService {
 
         // find
         ArrayList<Map<String, Object>> workflowInitiatorList = new ArrayList<>();
-        EntityList workflowInitiators = ef.find("moqui.workflow.WorkflowInitiatorDetail")
-                .condition(findCondition)
-                .offset(pageIndex, pageSize)
-                .limit(pageSize)
-                .orderBy(orderByField)
-                .list();
+        EntityList workflowInitiators = pager.list(ef.find("moqui.workflow.WorkflowInitiatorDetail")
+                .condition(findCondition));
         for (EntityValue workflowInitiator : workflowInitiators) {
             Map<String, Object> map = workflowInitiator.getMap();
             workflowInitiatorList.add(map);
         }
 
         // count
-        long totalRows = ef.find("moqui.workflow.WorkflowInitiatorDetail")
-                .condition(findCondition)
-                .count();
+        Long totalRows = pager.count(ef.find("moqui.workflow.WorkflowInitiatorDetail")
+                .condition(findCondition));
 
         // log the processing time
         stopWatch.stop();
@@ -1042,6 +1163,7 @@ public class WorkflowService {
         // return the output parameters
         HashMap<String, Object> outParams = new HashMap<>();
         outParams.put("totalRows", totalRows);
+        pager.putOutParams(outParams);
         outParams.put("workflowInitiatorList", workflowInitiatorList);
         return outParams;
     }
@@ -1237,6 +1359,9 @@ public class WorkflowService {
         int pageSize = (Integer) cs.getOrDefault("pageSize", 10);
         String orderByField = (String) cs.getOrDefault("orderByField", "variableName");
         String filter = (String) cs.getOrDefault("filter", null);
+        String paginationMode = (String) cs.getOrDefault("paginationMode", null);
+        String cursor = (String) cs.getOrDefault("cursor", null);
+        String countMode = (String) cs.getOrDefault("countMode", null);
 
         // generate a new log ID
         String logId = ContextUtil.getLogId(ec);
@@ -1246,6 +1371,9 @@ public class WorkflowService {
         logger.debug(String.format("[%s] Param pageSize=%s", logId, pageSize));
         logger.debug(String.format("[%s] Param orderByField=%s", logId, orderByField));
         logger.debug(String.format("[%s] Param filter=%s", logId, filter));
+        logger.debug(String.format("[%s] Param paginationMode=%s", logId, paginationMode));
+        logger.debug(String.format("[%s] Param cursor=%s", logId, cursor));
+        logger.debug(String.format("[%s] Param countMode=%s", logId, countMode));
 
         // validate the workflow
         EntityValue workflow = ef.find("moqui.workflow.Workflow")
@@ -1258,6 +1386,17 @@ public class WorkflowService {
             return new HashMap<>();
         }
 
+        // validate the paging
+        EntityPager pager;
+        try {
+            pager = EntityPager.fromContext(ec, "variableName", "variableId");
+        } catch (IllegalArgumentException e) {
+            stopWatch.stop();
+            mf.addError("Invalid pagination parameters.");
+            logger.error(String.format("[%s] %s", logId, e.getMessage()));
+            return new HashMap<>();
+        }
+
         // prepare the conditions
         EntityConditionFactory ecf = ef.getConditionFactory();
         EntityCondition findCondition = ecf.makeCondition("workflowId", EntityCondition.ComparisonOperator.EQUALS, workflowId);
@@ -1289,22 +1428,15 @@ public class WorkflowService {
 
         // find
         ArrayList<Map<String, Object>> workflowVariableList = new ArrayList<>();
-        EntityList workflowVariables = ef.find("moqui.workflow.WorkflowVariableDetail")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .offset(pageIndex, pageSize)
-                .limit(pageSize)
-                .orderBy(orderByField)
-                .list();
+        EntityList workflowVariables = pager.list(pager.searchFormMap(ef.find("moqui.workflow.WorkflowVariableDetail")
+                .condition(findCondition), cs));
         for (EntityValue workflowVariable : workflowVariables) {
             workflowVariableList.add(workflowVariable.getMap());
         }
 
         // count
-        long totalRows = ef.find("moqui.workflow.WorkflowVariableDetail")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .count();
+        Long totalRows = pager.count(pager.searchFormMap(ef.find("moqui.workflow.WorkflowVariableDetail")
+                .condition(findCondition), cs));
 
         // log the processing time
         stopWatch.stop();
@@ -1313,6 +1445,7 @@ public class WorkflowService {
         // return the output parameters
         HashMap<String, Object> outParams = new HashMap<>();
         outParams.put("totalRows", totalRows);
+        pager.putOutParams(outParams);
         outParams.put("workflowVariableList", workflowVariableList);
         return outParams;
     }
@@ -1361,6 +1494,17 @@ public class WorkflowService {
             return new HashMap<>();
         }
 
+        // validate the default value
+        WorkflowVariableValue defaultVariableValue;
+        try {
+            defaultVariableValue = WorkflowVariableValue.of(EnumUtils.getEnum(WorkflowVariableType.class, variableTypeEnumId), defaultValue);
+        } catch (IllegalArgumentException e) {
+            stopWatch.stop();
+            mf.addError(e.getMessage());
+            logger.error(String.format("[%s] Invalid default value: %s", logId, e.getMessage()));
+            return new HashMap<>();
+        }
+
         // validate the workflow
         EntityValue workflow = ef.find("moqui.workflow.Workflow")
                 .condition("workflowId", workflowId)
@@ -1378,7 +1522,7 @@ public class WorkflowService {
                 .parameter("variableTypeEnumId", variableTypeEnumId)
                 .parameter("variableName", variableName)
                 .parameter("description", description)
-                .parameter("defaultValue", defaultValue)
+                .parameter("defaultValue", defaultVariableValue.getDefinedValue())
                 .call();
         String variableId = (String) resp.get("variableId");
 
@@ -1484,10 +1628,13 @@ public class WorkflowService {
             return new HashMap<>();
         }
 
-        // create instance
+        // create instance, its ID generated upfront to store the partition it hashes to
         String workflowName = workflow.getString("workflowName");
         logger.debug(String.format("[%s] Workflow %s (%s) will be instantiated", logId, workflowId, workflowName));
+        String newInstanceId = ef.sequencedIdPrimary("moqui.workflow.WorkflowInstance", null, null);
         Map<String, Object> resp = sf.sync().name("create#moqui.workflow.WorkflowInstance")
+                .parameter("instanceId", newInstanceId)
+                .parameter("partitionId", (long) WorkflowPartitionManager.partitionOfInstance(newInstanceId))
                 .parameter("workflowId", workflowId)
                 .parameter("primaryKeyValue", primaryKeyValue)
                 .parameter("actionTypeEnumId", actionTypeEnumId)
@@ -1500,10 +1647,18 @@ public class WorkflowService {
                 .condition("workflowId", workflowId)
                 .list();
         for (EntityValue variable : variables) {
+            WorkflowVariableType variableType = EnumUtils.getEnum(WorkflowVariableType.class, variable.getString("variableTypeEnumId"));
+            WorkflowVariableValue variableValue;
+            try {
+                variableValue = WorkflowVariableValue.of(variableType, variable.get("defaultValue"));
+            } catch (IllegalArgumentException e) {
+                logger.warn(String.format("[%s] Invalid default value of variable %s, only kept as text: %s", logId, variable.get("variableId"), e.getMessage()));
+                variableValue = WorkflowVariableValue.of(WorkflowVariableType.WF_VAR_TEXT, variable.get("defaultValue"));
+            }
             sf.sync().name("create#moqui.workflow.WorkflowInstanceVariable")
                     .parameter("instanceId", instanceId)
                     .parameter("variableId", variable.get("variableId"))
-                    .parameter("definedValue", variable.get("defaultValue"))
+                    .parameters(variableValue.toFields())
                     .call();
         }
 
@@ -1547,6 +1702,10 @@ public class WorkflowService {
         logger.debug(String.format("[%s] Executing workflow instance ...", logId));
         logger.debug(String.format("[%s] Param instanceId=%s", logId, instanceId));
 
+        // lease the instance before reading it, so that the read reflects the previous holder's changes, and
+        // release the lease right away when giving up before changing the instance
+        WorkflowInstanceLease lease = WorkflowInstanceLease.acquire(ec, instanceId);
+
         // validate the instance
         EntityValue instance = ef.find("moqui.workflow.WorkflowInstance")
                 .condition("instanceId", instanceId)
@@ -1555,71 +1714,72 @@ public class WorkflowService {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_INSTANCE_NOT_FOUND"));
             logger.error(String.format("[%s] Instance with ID %s not found", logId, instanceId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         } else if (instance.getString("statusId").equals(WorkflowInstanceStatus.WF_INST_STAT_COMPLETE.name()) || instance.getString("statusId").equals(WorkflowInstanceStatus.WF_INST_STAT_ABORT.name())) {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_INSTANCE_NOT_OPERABLE"));
             logger.error(String.format("[%s] Instance not in operable state", logId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         }
 
         // validate the workflow
         String workflowId = instance.getString("workflowId");
-        EntityValue workflow = ef.find("moqui.workflow.WorkflowDetail")
-                .condition("workflowId", workflowId)
-                .one();
+        WorkflowDefinition workflow;
+        try {
+            workflow = WorkflowDefinitionCache.getWorkflowDefinition(ec, workflowId);
+        } catch (IllegalStateException e) {
+            stopWatch.stop();
+            mf.addError(e.getMessage());
+            logger.error(String.format("[%s] Workflow with ID %s cannot be loaded: %s", logId, workflowId, e.getMessage()));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
+            return new HashMap<>();
+        }
         if (workflow == null) {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_NOT_FOUND"));
             logger.error(String.format("[%s] Workflow with ID %s was not found", logId, workflowId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
-        } else if (workflow.getString("disabled").equals("Y")) {
+        } else if (workflow.isDisabled()) {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_DISABLED"));
             logger.error(String.format("[%s] Workflow is disabled", logId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         }
 
-        // lock the instance
-        String serverName = ServerUtil.getServerName();
-        sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                .parameter("instanceId", instanceId)
-                .parameter("semaphore", serverName)
-                .call();
-        instance.refresh();
-
-        // proceed only if instance is locked by this server
-        String semaphore = instance.getString("semaphore");
-        if (semaphore.equals(serverName)) {
+        // proceed only if the instance is leased by this call
+        if (lease != null) {
+            WorkflowInstanceState state = new WorkflowInstanceState(instance, lease);
 
             // if current activity not set, then set activity to WF_ACTIVITY_ENTER or fail
             if (StringUtils.isBlank(instance.getString("activityId"))) {
-                EntityList activities = ef.find("moqui.workflow.WorkflowActivityDetail")
-                        .condition("workflowId", workflow.getString("workflowId"))
-                        .condition("activityTypeEnumId", WorkflowActivityType.WF_ACTIVITY_ENTER.name())
-                        .list();
-                if (activities.isEmpty()) {
+                WorkflowActivityDefinition activity = workflow.getEntryActivity();
+                if (activity == null) {
                     stopWatch.stop();
                     mf.addError(lf.localize("WORKFLOW_INSTANCE_NO_ENTRY_ACTIVITY"));
                     logger.error(String.format("[%s] Instance has no entry activity", logId));
+                    lease.releaseNow(ec);
                     return new HashMap<>();
                 }
 
-                EntityValue activity = activities.getFirst();
-                sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                        .parameter("instanceId", instanceId)
-                        .parameter("statusId", WorkflowInstanceStatus.WF_INST_STAT_ACTIVE)
-                        .parameter("activityId", activity.getString("activityId"))
-                        .parameter("activityExecuted", "N")
-                        .parameter("lastUpdateDate", TimestampUtil.now())
-                        .call();
-                instance.refresh();
+                state.setStatusId(WorkflowInstanceStatus.WF_INST_STAT_ACTIVE.name());
+                state.setActivityId(activity.getActivityId());
+                state.setActivityExecuted(false);
             } else {
-                sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                        .parameter("instanceId", instanceId)
-                        .parameter("statusId", WorkflowInstanceStatus.WF_INST_STAT_ACTIVE)
-                        .parameter("lastUpdateDate", TimestampUtil.now())
-                        .call();
+                state.setStatusId(WorkflowInstanceStatus.WF_INST_STAT_ACTIVE.name());
             }
 
             // advance the workflow
@@ -1627,133 +1787,77 @@ public class WorkflowService {
             while (workflowAdvanced) {
 
                 // get current activity
-                EntityValue currentActivity = ef.find("moqui.workflow.WorkflowActivityDetail")
-                        .condition("activityId", instance.getString("activityId"))
-                        .one();
-                String currentActivityId = currentActivity.getString("activityId");
-                WorkflowActivityType currentActivityType = WorkflowActivityType.valueOf(currentActivity.getString("activityTypeEnumId"));
-                logger.debug(String.format("[%s] Instance is currently in %s activity (%s)", logId, currentActivityType.name(), currentActivityId));
+                WorkflowActivityDefinition currentActivity = workflow.getActivity(state.getActivityId());
+                if (currentActivity == null) {
+                    logger.error(String.format("[%s] Instance is in activity %s which is not part of the workflow, contact your administrator!", logId, state.getActivityId()));
+                    break;
+                }
+                String currentActivityId = currentActivity.getActivityId();
+                WorkflowActivityType currentActivityType = currentActivity.getActivityType();
+                logger.debug(String.format("[%s] Instance is currently in %s activity (%s)", logId, currentActivity.getActivityTypeEnumId(), currentActivityId));
 
                 // execute the activity if not executed yet
                 Boolean activitySuccess = null;
-                if (instance.getString("activityExecuted").equals("N")) {
+                if (!state.isActivityExecuted()) {
 
                     // get the workflow activity handler
-                    WorkflowActivity activity;
-                    switch (currentActivityType) {
-                        case WF_ACTIVITY_ENTER:
-                            activity = new WorkflowEnterActivity(currentActivity);
-                            break;
-                        case WF_ACTIVITY_EXIT:
-                            activity = new WorkflowExitActivity(currentActivity);
-                            break;
-                        case WF_ACTIVITY_ADJUST:
-                            activity = new WorkflowAdjustmentActivity(currentActivity);
-                            break;
-                        case WF_ACTIVITY_CONDITION:
-                            activity = new WorkflowConditionActivity(currentActivity);
-                            break;
-                        case WF_ACTIVITY_USER:
-                            activity = new WorkflowUserActivity(currentActivity);
-                            break;
-                        case WF_ACTIVITY_SERVICE:
-                            activity = new WorkflowServiceActivity(currentActivity);
-                            break;
-                        case WF_ACTIVITY_NOTIFY:
-                            activity = new WorkflowNotificationActivity(currentActivity);
-                            break;
-                        default:
-                            activity = null;
-                            break;
-                    }
+                    WorkflowActivity activity = WorkflowActivityRegistry.getHandler(currentActivity.getActivityTypeEnumId());
 
                     // execute the activity
-                    activitySuccess = activity.execute(ec, instance);
-                    sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                            .parameter("instanceId", instanceId)
-                            .parameter("activityExecuted", "Y")
-                            .parameter("lastUpdateDate", TimestampUtil.now())
-                            .call();
-                    instance.refresh();
+                    activitySuccess = activity.execute(ec, currentActivity, state);
+                    state.setActivityExecuted(true);
                 }
 
                 // find next transition
-                EntityValue nextTransition = null;
+                WorkflowTransitionDefinition nextTransition = null;
                 WorkflowPortType outgoingPortType = null;
                 if (currentActivityType == WorkflowActivityType.WF_ACTIVITY_USER) {
 
                     // get the task type
-                    JSONObject nodeData = new JSONObject(currentActivity.getString("nodeData"));
-                    WorkflowTaskType taskType = nodeData.has("taskTypeEnumId") ? EnumUtils.getEnum(WorkflowTaskType.class, nodeData.getString("taskTypeEnumId")) : null;
+                    UserActivityConfig userConfig = currentActivity.getConfig(UserActivityConfig.class);
+                    WorkflowTaskType taskType = userConfig.getTaskType();
 
                     // check if activity has timed out
-                    Timestamp timeoutDate = instance.getTimestamp("timeoutDate");
+                    Timestamp timeoutDate = state.getTimeoutDate();
                     if (timeoutDate != null && timeoutDate.before(TimestampUtil.now())) {
                         outgoingPortType = WorkflowPortType.WF_PORT_TIMEOUT;
-                        nextTransition = ef.find("moqui.workflow.WorkflowTransitionDetail")
-                                .condition("fromActivityId", currentActivityId)
-                                .condition("fromPortTypeEnumId", outgoingPortType.name())
-                                .list()
-                                .getFirst();
+                        nextTransition = currentActivity.getTransition(outgoingPortType);
                     } else if (taskType == WorkflowTaskType.WF_TASK_APPROVAL) {
 
+                        // get the approval tallies
+                        Map<String, EntityValue> tallies = WorkflowApprovalTally.find(ec, instanceId, currentActivityId);
+
                         // evaluate crowds
-                        EntityCondition.JoinOperator joinOperator = nodeData.has("joinOperator") ? EnumUtils.getEnum(EntityCondition.JoinOperator.class, nodeData.getString("joinOperator")) : null;
-                        JSONArray crowds = nodeData.has("crowds") ? nodeData.getJSONArray("crowds") : new JSONArray();
-                        boolean conditionsMet = joinOperator == EntityCondition.JoinOperator.AND;
-                        for (int i=0; i<crowds.length(); i++) {
-                            JSONObject crowd = crowds.getJSONObject(i);
-                            WorkflowCrowdType crowdType = crowd.has("crowdTypeEnumId") ? EnumUtils.getEnum(WorkflowCrowdType.class, crowd.getString("crowdTypeEnumId")) : null;
-                            String userId = crowd.has("userId") ? crowd.getString("userId") : null;
-                            String userGroupId = crowd.has("userGroupId") ? crowd.getString("userGroupId") : null;
-                            long minApprovals = crowd.has("minApprovals") ? crowd.getLong("minApprovals") : 0;
-                            long minRejections = crowd.has("minRejections") ? crowd.getLong("minRejections") : 0;
-
-                            // get user ID set
-                            Set<String> userIdSet = new HashSet<>();
-                            if (crowdType == WorkflowCrowdType.WF_CROWD_USER && StringUtils.isNotBlank(userId)) {
-                                EntityValue userAccount = ef.find("moqui.security.UserAccount")
-                                        .condition("userId", userId)
-                                        .one();
-                                if (userAccount!=null) {
-                                    userIdSet.add(userAccount.getString("userId"));
-                                }
-                            } else if (crowdType == WorkflowCrowdType.WF_CROWD_USER_GROUP && StringUtils.isNotBlank(userGroupId)) {
-                                EntityList groupMembers = ef.find("moqui.security.UserGroupMember")
-                                        .condition("userGroupId", userGroupId)
-                                        .conditionDate("fromDate", "thruDate", TimestampUtil.now())
-                                        .list();
-                                for (EntityValue groupMember : groupMembers) {
-                                    EntityValue userAccount = ef.find("moqui.security.UserAccount")
-                                            .condition("userId", groupMember.getString("userId"))
-                                            .one();
-                                    if (userAccount != null) {
-                                        userIdSet.add(userAccount.getString("userId"));
-                                    }
-                                }
-                            } else if (crowdType == WorkflowCrowdType.WF_CROWD_INITIATOR) {
-                                EntityValue userAccount = ef.find("moqui.security.UserAccount")
-                                        .condition("userId", instance.getString("inputUserId"))
-                                        .one();
-                                if (userAccount != null) {
-                                    userIdSet.add(userAccount.getString("userId"));
-                                }
+                        EntityCondition.JoinOperator joinOperator = userConfig.getJoinOperator();
+                        List<WorkflowCrowdConfig> crowds = userConfig.getCrowds();
+                        for (int i = 0; i < crowds.size(); i++) {
+                            WorkflowCrowdConfig crowd = crowds.get(i);
+                            long minApprovals = crowd.getMinApprovals();
+                            long minRejections = crowd.getMinRejections();
+
+                            // read the tally, counting the tasks if the activity has none
+                            long approvals;
+                            long rejections;
+                            EntityValue tally = tallies.get(WorkflowApprovalTally.getCrowdSeqId(i));
+                            if (tally != null) {
+                                approvals = tally.getLong("approvalCount");
+                                rejections = tally.getLong("rejectionCount");
+                            } else {
+                                Set<String> userIdSet = WorkflowCrowdResolver.resolve(ec, crowd, instance.getString("inputUserId")).keySet();
+                                approvals = ef.find("moqui.workflow.WorkflowInstanceTask")
+                                        .condition("instanceId", instanceId)
+                                        .condition("activityId", currentActivityId)
+                                        .condition("assignedUserId", EntityCondition.ComparisonOperator.IN, userIdSet)
+                                        .condition("statusId", WorkflowTaskStatus.WF_TASK_STAT_APPROVE)
+                                        .count();
+                                rejections = ef.find("moqui.workflow.WorkflowInstanceTask")
+                                        .condition("instanceId", instanceId)
+                                        .condition("activityId", currentActivityId)
+                                        .condition("assignedUserId", EntityCondition.ComparisonOperator.IN, userIdSet)
+                                        .condition("statusId", WorkflowTaskStatus.WF_TASK_STAT_REJECT)
+                                        .count();
                             }
 
-                            // count approvals
-                            long approvals = ef.find("moqui.workflow.WorkflowInstanceTask")
-                                    .condition("instanceId", instanceId)
-                                    .condition("activityId", currentActivityId)
-                                    .condition("assignedUserId", EntityCondition.ComparisonOperator.IN, userIdSet)
-                                    .condition("statusId", WorkflowTaskStatus.WF_TASK_STAT_APPROVE)
-                                    .count();
-                            long rejections = ef.find("moqui.workflow.WorkflowInstanceTask")
-                                    .condition("instanceId", instanceId)
-                                    .condition("activityId", currentActivityId)
-                                    .condition("assignedUserId", EntityCondition.ComparisonOperator.IN, userIdSet)
-                                    .condition("statusId", WorkflowTaskStatus.WF_TASK_STAT_REJECT)
-                                    .count();
-
                             // determine outgoing port type
                             if (rejections >= minRejections) {
                                 outgoingPortType = WorkflowPortType.WF_PORT_FAILURE;
@@ -1773,11 +1877,7 @@ public class WorkflowService {
 
                         // lookup next transition
                         if (outgoingPortType != null) {
-                            nextTransition = ef.find("moqui.workflow.WorkflowTransitionDetail")
-                                    .condition("fromActivityId", currentActivityId)
-                                    .condition("fromPortTypeEnumId", outgoingPortType.name())
-                                    .list()
-                                    .getFirst();
+                            nextTransition = currentActivity.getTransition(outgoingPortType);
                         }
                     } else if (taskType == WorkflowTaskType.WF_TASK_MANUAL || taskType == WorkflowTaskType.WF_TASK_VARIABLE) {
 
@@ -1801,11 +1901,7 @@ public class WorkflowService {
 
                         // lookup next transition
                         if (outgoingPortType != null) {
-                            nextTransition = ef.find("moqui.workflow.WorkflowTransitionDetail")
-                                    .condition("fromActivityId", currentActivityId)
-                                    .condition("fromPortTypeEnumId", outgoingPortType.name())
-                                    .list()
-                                    .getFirst();
+                            nextTransition = currentActivity.getTransition(outgoingPortType);
                         }
                     }
                 } else if (currentActivityType == WorkflowActivityType.WF_ACTIVITY_EXIT) {
@@ -1817,11 +1913,7 @@ public class WorkflowService {
                     outgoingPortType = activitySuccess ? WorkflowPortType.WF_PORT_SUCCESS : WorkflowPortType.WF_PORT_FAILURE;
 
                     // lookup next transition
-                    nextTransition = ef.find("moqui.workflow.WorkflowTransitionDetail")
-                            .condition("fromActivityId", currentActivityId)
-                            .condition("fromPortTypeEnumId", outgoingPortType.name())
-                            .list()
-                            .getFirst();
+                    nextTransition = currentActivity.getTransition(outgoingPortType);
                 } else {
                     // This case should never occur. It means that the workflow instance is currently on a non-user activity that hasn't been executed
                     logger.error(String.format("[%s] Instance may be stuck, contact your administrator!", logId));
@@ -1833,31 +1925,22 @@ public class WorkflowService {
 
                     // mark incomplete tasks as obsolete
                     if (currentActivityType == WorkflowActivityType.WF_ACTIVITY_USER) {
-                        EntityList tasks = ef.find("moqui.workflow.WorkflowInstanceTask")
-                                .condition("instanceId", instanceId)
-                                .condition("activityId", currentActivityId)
-                                .condition(ecf.makeCondition(
-                                        Arrays.asList(
-                                                ecf.makeCondition("statusId", EntityCondition.ComparisonOperator.EQUALS, WorkflowTaskStatus.WF_TASK_STAT_PEND.name()),
-                                                ecf.makeCondition("statusId", EntityCondition.ComparisonOperator.EQUALS, WorkflowTaskStatus.WF_TASK_STAT_PROGRESS.name())
-                                        ),
-                                        EntityCondition.JoinOperator.OR
-                                ))
-                                .list();
-                        for (EntityValue task : tasks) {
-                            sf.sync().name("update#moqui.workflow.WorkflowInstanceTask")
-                                    .parameter("taskId", task.getString("taskId"))
-                                    .parameter("statusId", WorkflowTaskStatus.WF_TASK_STAT_OBSOLETE)
-                                    .call();
-                        }
+                        int obsoleteCount = WorkflowTaskWriter.transitionTasks(
+                                ec,
+                                instanceId,
+                                currentActivityId,
+                                Arrays.asList(WorkflowTaskStatus.WF_TASK_STAT_PEND, WorkflowTaskStatus.WF_TASK_STAT_PROGRESS),
+                                WorkflowTaskStatus.WF_TASK_STAT_OBSOLETE
+                        );
+                        logger.debug(String.format("[%s] Marked %d incomplete tasks as obsolete", logId, obsoleteCount));
                     }
 
                     // update instance activity
-                    String transitionId = nextTransition.getString("transitionId");
-                    String fromActivityTypeDescription = nextTransition.getString("fromActivityTypeDescription");
+                    String transitionId = nextTransition.getTransitionId();
+                    String fromActivityTypeDescription = nextTransition.getFromActivity().getActivityTypeDescription();
                     String fromPortTypeDescription = WorkflowPortType.portTypeDescription(outgoingPortType);
-                    String toActivityId = nextTransition.getString("toActivityId");
-                    String toActivityTypeDescription = nextTransition.getString("toActivityTypeDescription");
+                    String toActivityId = nextTransition.getToActivity().getActivityId();
+                    String toActivityTypeDescription = nextTransition.getToActivity().getActivityTypeDescription();
                     logger.debug(String.format("[%s] Advanced to %s activity (%s) via %s port and transition %s",
                             logId,
                             toActivityTypeDescription,
@@ -1865,13 +1948,11 @@ public class WorkflowService {
                             fromPortTypeDescription,
                             transitionId)
                     );
-                    sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                            .parameter("instanceId", instanceId)
-                            .parameter("activityId", toActivityId)
-                            .parameter("activityExecuted", "N")
-                            .parameter("lastUpdateDate", TimestampUtil.now())
-                            .call();
-                    instance.refresh();
+                    state.setActivityId(toActivityId);
+                    state.setActivityExecuted(false);
+                    if (state.getTimeoutDate() != null) {
+                        state.setTimeoutDate(null);
+                    }
 
                     // create event
                     WorkflowUtil.createWorkflowEvent(
@@ -1893,14 +1974,15 @@ public class WorkflowService {
                 }
             }
 
-            // release the instance
-            sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                    .parameter("instanceId", instanceId)
-                    .parameter("semaphore", null)
-                    .call();
-            instance.refresh();
+            // save the instance and release it
+            if (!state.flushAndRelease(ec)) {
+                stopWatch.stop();
+                mf.addError(lf.localize("WORKFLOW_INSTANCE_LEASE_LOST"));
+                logger.error(String.format("[%s] Instance lease expired and was taken over before release", logId));
+                return new HashMap<>();
+            }
         } else {
-            logger.debug(String.format("[%s] Instance locked by server %s, not executing", logId, semaphore));
+            logger.debug(String.format("[%s] Instance leased by %s, not executing", logId, instance.getString("leaseOwner")));
         }
 
         // log the processing time
@@ -1911,6 +1993,104 @@ public class WorkflowService {
         // return the output parameters
         HashMap<String, Object> outParams = new HashMap<>();
         outParams.put("instanceId", instanceId);
+        outParams.put("executed", lease != null);
+        return outParams;
+    }
+
+    /**
+     * Enqueues a workflow instance to be advanced asynchronously once the current transaction commits.
+     *
+     * @param ec Execution context
+     * @return Output parameter map
+     */
+    public Map<String, Object> enqueueWorkflowInstance(ExecutionContext ec) {
+
+        // start the stop watch
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+
+        // shortcuts for convenience
+        ContextStack cs = ec.getContext();
+        MessageFacade mf = ec.getMessage();
+        L10nFacade lf = ec.getL10n();
+        EntityFacade ef = ec.getEntity();
+
+        // get the parameters
+        String instanceId = (String) cs.getOrDefault("instanceId", null);
+
+        // generate a new log ID
+        String logId = ContextUtil.getLogId(ec);
+        logger.debug(String.format("[%s] Enqueuing workflow instance ...", logId));
+        logger.debug(String.format("[%s] Param instanceId=%s", logId, instanceId));
+
+        // validate the instance
+        long instanceCount = ef.find("moqui.workflow.WorkflowInstance")
+                .condition("instanceId", instanceId)
+                .count();
+        if (instanceCount == 0) {
+            stopWatch.stop();
+            mf.addError(lf.localize("WORKFLOW_INSTANCE_NOT_FOUND"));
+            logger.error(String.format("[%s] Instance with ID %s not found", logId, instanceId));
+            return new HashMap<>();
+        }
+
+        // enqueue the instance
+        WorkflowAdvanceQueue.enqueue(ec, instanceId);
+
+        // log the processing time
+        stopWatch.stop();
+        logger.debug(String.format("[%s] Instance %s enqueued in %d milliseconds", logId, instanceId, stopWatch.getTime()));
+
+        // return the output parameters
+        HashMap<String, Object> outParams = new HashMap<>();
+        outParams.put("instanceId", instanceId);
+        return outParams;
+    }
+
+    /**
+     * Hands due workflow advance queue entries to the dispatcher, covering entries whose after-commit hand-over
+     * was lost and failed advances waiting for a retry.
+     *
+     * @param ec Execution context
+     * @return Output parameter map
+     */
+    public Map<String, Object> processWorkflowAdvanceQueue(ExecutionContext ec) {
+
+        // start the stop watch
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+
+        // shortcuts for convenience
+        ContextStack cs = ec.getContext();
+
+        // get the parameters
+        int batchSize = (Integer) cs.getOrDefault("batchSize", 1000);
+
+        // generate a new log ID
+        String logId = ContextUtil.getLogId(ec);
+        logger.debug(String.format("[%s] Processing workflow advance queue ...", logId));
+        logger.debug(String.format("[%s] Param batchSize=%s", logId, batchSize));
+
+        // submit the due entries, advancing them in place if the dispatcher is not available
+        List<String> instanceIds = WorkflowAdvanceQueue.findDue(ec, WorkflowPartitionManager.getOwnedPartitions(ec.getFactory()), batchSize);
+        WorkflowAdvanceDispatcher dispatcher = WorkflowAdvanceDispatcher.getDispatcher(ec.getFactory());
+        int submitted = 0;
+        for (String instanceId : instanceIds) {
+            if (dispatcher == null) {
+                WorkflowAdvanceQueue.process(ec, instanceId);
+            } else if (!dispatcher.submit(instanceId)) {
+                break;
+            }
+            submitted++;
+        }
+
+        // log the processing time
+        stopWatch.stop();
+        logger.debug(String.format("[%s] Submitted %d of %d due instances in %d milliseconds", logId, submitted, instanceIds.size(), stopWatch.getTime()));
+
+        // return the output parameters
+        HashMap<String, Object> outParams = new HashMap<>();
+        outParams.put("submittedCount", submitted);
         return outParams;
     }
 
@@ -1928,46 +2108,259 @@ public class WorkflowService {
 
         // shortcuts for convenience
         ContextStack cs = ec.getContext();
-        MessageFacade mf = ec.getMessage();
         EntityFacade ef = ec.getEntity();
-        ServiceFacade sf = ec.getService();
+        ExecutionContextFactory ecfi = ec.getFactory();
+
+        // get the parameters
+        int maxInstances = (Integer) cs.getOrDefault("maxInstances", 5000);
+        int parallelism = (Integer) cs.getOrDefault("parallelism", NumberUtils.toInt(System.getProperty("workflow_elapsed_parallelism"), 8));
 
         // generate a new log ID
         String logId = ContextUtil.getLogId(ec);
         logger.debug(String.format("[%s] Executing elapsed workflow instances ...", logId));
+        logger.debug(String.format("[%s] Param maxInstances=%s", logId, maxInstances));
+        logger.debug(String.format("[%s] Param parallelism=%s", logId, parallelism));
 
-        // find the documents that should expire
+        // stream the elapsed instances of the owned partitions to a bounded set of workers, each starting its instance in its own transaction
+        WorkflowPartitionManager partitionManager = WorkflowPartitionManager.getManager(ecfi);
         Timestamp now = TimestampUtil.now();
         EntityConditionFactory ecf = ef.getConditionFactory();
-        EntityList instances = ef.find("moqui.workflow.WorkflowInstance")
-                .condition(ecf.makeCondition(
-                        Arrays.asList(
-                                ecf.makeCondition("statusId", EntityCondition.ComparisonOperator.EQUALS, WorkflowInstanceStatus.WF_INST_STAT_PEND.name()),
-                                ecf.makeCondition("statusId", EntityCondition.ComparisonOperator.EQUALS, WorkflowInstanceStatus.WF_INST_STAT_ACTIVE.name()),
-                                ecf.makeCondition("statusId", EntityCondition.ComparisonOperator.EQUALS, WorkflowInstanceStatus.WF_INST_STAT_SUSPEND.name())
-                        ),
-                        EntityCondition.JoinOperator.OR
-                ))
-                .condition(ecf.makeCondition(
-                        Arrays.asList(
-                                ecf.makeCondition("timeoutDate", EntityCondition.ComparisonOperator.IS_NOT_NULL, null),
-                                ecf.makeCondition("timeoutDate", EntityCondition.ComparisonOperator.LESS_THAN, now)
-                        ),
-                        EntityCondition.JoinOperator.AND
-                ))
-                .list();
-        for (EntityValue instance : instances) {
-            sf.sync().name("moqui.workflow.WorkflowServices.start#WorkflowInstance")
-                    .parameter("instanceId", instance.getString("instanceId"))
-                    .requireNewTransaction(true)
-                    .ignorePreviousError(true)
-                    .disableAuthz()
-                    .call();
+        EntityCondition partitionCondition = null;
+        if (partitionManager != null) {
+
+            // instances created before the partition was stored have none and are hashed below
+            List<Long> ownedPartitions = new ArrayList<>();
+            for (Integer partition : partitionManager.getOwnedPartitions()) {
+                ownedPartitions.add(partition.longValue());
+            }
+            partitionCondition = ecf.makeCondition("partitionId", EntityCondition.ComparisonOperator.IS_NULL, null);
+            if (!ownedPartitions.isEmpty()) {
+                partitionCondition = ecf.makeCondition(
+                        ecf.makeCondition("partitionId", EntityCondition.ComparisonOperator.IN, ownedPartitions),
+                        EntityCondition.JoinOperator.OR,
+                        partitionCondition
+                );
+            }
+        }
+        AtomicInteger startedCount = new AtomicInteger();
+        AtomicInteger skippedCount = new AtomicInteger();
+        AtomicInteger failedCount = new AtomicInteger();
+        int submittedCount = 0;
+        try (WorkflowBoundedExecutor executor = new WorkflowBoundedExecutor("WorkflowElapsed", parallelism);
+             EntityListIterator instances = ef.find("moqui.workflow.WorkflowInstance")
+                     .condition("statusId", EntityCondition.ComparisonOperator.IN, Arrays.asList(
+                             WorkflowInstanceStatus.WF_INST_STAT_PEND.name(),
+                             WorkflowInstanceStatus.WF_INST_STAT_ACTIVE.name(),
+                             WorkflowInstanceStatus.WF_INST_STAT_SUSPEND.name()
+                     ))
+                     .condition(ecf.makeCondition("timeoutDate", EntityCondition.ComparisonOperator.LESS_THAN, now))
+                     .condition(partitionCondition)
+                     .selectField("instanceId,partitionId")
+                     .orderBy("timeoutDate")
+                     .limit(maxInstances)
+                     .iterator()) {
+            EntityValue instance;
+            while (submittedCount < maxInstances && (instance = instances.next()) != null) {
+                String instanceId = instance.getString("instanceId");
+                if (partitionManager != null && instance.get("partitionId") == null && !partitionManager.owns(instanceId)) {
+                    continue;
+                }
+                executor.submit(() -> {
+                    ExecutionContext workerEc = ecfi.getExecutionContext();
+                    try {
+                        Map<String, Object> result = workerEc.getService().sync().name("org.moqui.workflow.WorkflowServices.start#WorkflowInstance")
+                                .parameter("instanceId", instanceId)
+                                .requireNewTransaction(true)
+                                .ignorePreviousError(true)
+                                .disableAuthz()
+                                .call();
+                        if (workerEc.getMessage().hasError()) {
+                            failedCount.incrementAndGet();
+                            logger.warn(String.format("[%s] Failed to start elapsed instance %s: %s", logId, instanceId, workerEc.getMessage().getErrorsString()));
+                        } else if (result != null && Boolean.TRUE.equals(result.get("executed"))) {
+                            startedCount.incrementAndGet();
+                        } else {
+                            skippedCount.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        failedCount.incrementAndGet();
+                        logger.error(String.format("[%s] Error starting elapsed instance %s", logId, instanceId), e);
+                    } finally {
+                        ecfi.destroyActiveExecutionContext();
+                    }
+                });
+                submittedCount++;
+            }
+            executor.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn(String.format("[%s] Interrupted after submitting %d elapsed instances", logId, submittedCount));
+        }
+
+        // log the processing time
+        stopWatch.stop();
+        long elapsedMillis = Math.max(stopWatch.getTime(), 1);
+        double throughput = submittedCount * 1000.0 / elapsedMillis;
+        logger.debug(String.format("[%s] Started %d, skipped %d and failed %d of %d elapsed workflow instances in %d milliseconds (%.1f instances per second)",
+                logId, startedCount.get(), skippedCount.get(), failedCount.get(), submittedCount, elapsedMillis, throughput));
+
+        // return the output parameters
+        HashMap<String, Object> outParams = new HashMap<>();
+        outParams.put("submittedCount", submittedCount);
+        outParams.put("startedCount", startedCount.get());
+        outParams.put("skippedCount", skippedCount.get());
+        outParams.put("failedCount", failedCount.get());
+        outParams.put("elapsedMillis", elapsedMillis);
+        outParams.put("throughput", throughput);
+        return outParams;
+    }
+
+    /**
+     * Reconciles the timer wheel with the timer table, loading the timers that came within the wheel's horizon
+     * and firing overdue timers the wheel missed.
+     *
+     * @param ec Execution context
+     * @return Output parameter map
+     */
+    public Map<String, Object> reconcileWorkflowInstanceTimers(ExecutionContext ec) {
+
+        // start the stop watch
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+
+        // shortcuts for convenience
+        ContextStack cs = ec.getContext();
+
+        // get the parameters
+        int maxTimers = (Integer) cs.getOrDefault("maxTimers", 10000);
+        int graceSeconds = (Integer) cs.getOrDefault("graceSeconds", 60);
+
+        // generate a new log ID
+        String logId = ContextUtil.getLogId(ec);
+        logger.debug(String.format("[%s] Reconciling workflow instance timers ...", logId));
+        logger.debug(String.format("[%s] Param maxTimers=%s", logId, maxTimers));
+        logger.debug(String.format("[%s] Param graceSeconds=%s", logId, graceSeconds));
+
+        // load the timers within the horizon, firing those overdue beyond the grace period
+        WorkflowTimerWheel wheel = WorkflowTimerWheel.getWheel(ec.getFactory());
+        long now = System.currentTimeMillis();
+        Timestamp until = new Timestamp(now + (wheel == null ? 0 : wheel.getHorizonMillis()));
+        Map<String, Timestamp> dueDates = WorkflowInstanceTimer.findDue(ec, WorkflowPartitionManager.getOwnedPartitions(ec.getFactory()), until, maxTimers);
+        int firedCount = 0;
+        int scheduledCount = 0;
+        for (Map.Entry<String, Timestamp> dueDate : dueDates.entrySet()) {
+            if (wheel == null || dueDate.getValue().getTime() < now - graceSeconds * 1000L) {
+                if (WorkflowInstanceTimer.fire(ec, dueDate.getKey())) {
+                    firedCount++;
+                }
+            } else {
+                wheel.schedule(dueDate.getKey(), dueDate.getValue());
+                scheduledCount++;
+            }
+        }
+
+        // log the processing time
+        stopWatch.stop();
+        logger.debug(String.format("[%s] Fired %d and scheduled %d workflow instance timers in %d milliseconds", logId, firedCount, scheduledCount, stopWatch.getTime()));
+
+        // return the output parameters
+        HashMap<String, Object> outParams = new HashMap<>();
+        outParams.put("firedCount", firedCount);
+        outParams.put("scheduledCount", scheduledCount);
+        return outParams;
+    }
+
+    /**
+     * Finds the evaluation statistics of workflow conditions on this server.
+     *
+     * @param ec Execution context
+     * @return Output parameter map
+     */
+    public Map<String, Object> findWorkflowConditionStats(ExecutionContext ec) {
+
+        // start the stop watch
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+
+        // shortcuts for convenience
+        ContextStack cs = ec.getContext();
+
+        // get the parameters
+        String workflowId = (String) cs.getOrDefault("workflowId", null);
+        boolean reset = (Boolean) cs.getOrDefault("reset", false);
+
+        // generate a new log ID
+        String logId = ContextUtil.getLogId(ec);
+        logger.debug(String.format("[%s] Finding workflow condition stats ...", logId));
+        logger.debug(String.format("[%s] Param workflowId=%s", logId, workflowId));
+        logger.debug(String.format("[%s] Param reset=%s", logId, reset));
+
+        // get the stats and clear them if requested
+        List<Map<String, Object>> statsList = WorkflowConditionStats.list(workflowId);
+        if (reset) {
+            WorkflowConditionStats.reset(workflowId);
         }
 
         // log the processing time
         stopWatch.stop();
-        logger.debug(String.format("[%s] Started %d workflow instances %d milliseconds", logId, instances.size(), stopWatch.getTime()));
+        logger.debug(String.format("[%s] Found %d workflow condition stats in %d milliseconds", logId, statsList.size(), stopWatch.getTime()));
+
+        // return the output parameters
+        HashMap<String, Object> outParams = new HashMap<>();
+        outParams.put("statsList", statsList);
+        return outParams;
+    }
+
+    /**
+     * Seeds the task counters from the existing tasks.
+     *
+     * @param ec Execution context
+     * @return Output parameter map
+     */
+    public Map<String, Object> seedWorkflowTaskCounts(ExecutionContext ec) {
+
+        // start the stop watch
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+
+        // generate a new log ID
+        String logId = ContextUtil.getLogId(ec);
+        logger.debug(String.format("[%s] Seeding workflow task counts ...", logId));
+
+        // create the missing counters
+        int createdCount = WorkflowTaskCounter.seed(ec);
+
+        // log the processing time
+        stopWatch.stop();
+        logger.debug(String.format("[%s] Seeded %d workflow task counts in %d milliseconds", logId, createdCount, stopWatch.getTime()));
+
+        // return the output parameters
+        HashMap<String, Object> outParams = new HashMap<>();
+        outParams.put("createdCount", createdCount);
+        return outParams;
+    }
+
+    /**
+     * Removes the members of a user group from the crowd cache.
+     *
+     * @param ec Execution context
+     * @return Output parameter map
+     */
+    public Map<String, Object> invalidateWorkflowCrowdGroup(ExecutionContext ec) {
+
+        // shortcuts for convenience
+        ContextStack cs = ec.getContext();
+
+        // get the parameters
+        String userGroupId = (String) cs.getOrDefault("userGroupId", null);
+
+        // generate a new log ID
+        String logId = ContextUtil.getLogId(ec);
+        logger.debug(String.format("[%s] Invalidating workflow crowd group ...", logId));
+        logger.debug(String.format("[%s] Param userGroupId=%s", logId, userGroupId));
+
+        // remove the group from the cache
+        WorkflowCrowdResolver.invalidate(ec, userGroupId);
 
         // return the output parameters
         return new HashMap<>();
@@ -2001,6 +2394,10 @@ public class WorkflowService {
         logger.debug(String.format("[%s] Suspending workflow instance ...", logId));
         logger.debug(String.format("[%s] Param instanceId=%s", logId, instanceId));
 
+        // lease the instance before reading it, so that the read reflects the previous holder's changes, and
+        // release the lease right away when giving up before changing the instance
+        WorkflowInstanceLease lease = WorkflowInstanceLease.acquire(ec, instanceId);
+
         // validate the instance
         EntityValue instance = ef.find("moqui.workflow.WorkflowInstance")
                 .condition("instanceId", instanceId)
@@ -2009,11 +2406,17 @@ public class WorkflowService {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_INSTANCE_NOT_FOUND"));
             logger.error(String.format("[%s] Instance with ID %s not found", logId, instanceId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         } else if (instance.getString("statusId").equals(WorkflowInstanceStatus.WF_INST_STAT_COMPLETE.name()) || instance.getString("statusId").equals(WorkflowInstanceStatus.WF_INST_STAT_ABORT.name())) {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_INSTANCE_NOT_OPERABLE"));
             logger.error(String.format("[%s] Instance not in operable state", logId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         }
 
@@ -2026,32 +2429,26 @@ public class WorkflowService {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_NOT_FOUND"));
             logger.error(String.format("[%s] Workflow with ID %s was not found", logId, workflowId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         } else if (workflow.getString("disabled").equals("Y")) {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_DISABLED"));
             logger.error(String.format("[%s] Workflow is disabled", logId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         }
 
-        // lock the instance
-        String serverName = ServerUtil.getServerName();
-        sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                .parameter("instanceId", instanceId)
-                .parameter("semaphore", serverName)
-                .call();
-        instance.refresh();
-
-        // proceed only if instance is locked by this server
-        String semaphore = instance.getString("semaphore");
-        if (instance.getString("semaphore").equals(serverName)) {
+        // proceed only if the instance is leased by this call
+        if (lease != null) {
+            WorkflowInstanceState state = new WorkflowInstanceState(instance, lease);
 
             // exit workflow
-            sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                    .parameter("instanceId", instanceId)
-                    .parameter("statusId", WorkflowInstanceStatus.WF_INST_STAT_SUSPEND)
-                    .parameter("lastUpdateDate", TimestampUtil.now())
-                    .call();
+            state.setStatusId(WorkflowInstanceStatus.WF_INST_STAT_SUSPEND.name());
 
             // create event
             WorkflowUtil.createWorkflowEvent(
@@ -2062,14 +2459,18 @@ public class WorkflowService {
                     false
             );
 
-            // release the instance
-            sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                    .parameter("instanceId", instanceId)
-                    .parameter("semaphore", null)
-                    .call();
-            instance.refresh();
+            // save the instance and release it
+            if (!state.flushAndRelease(ec)) {
+                stopWatch.stop();
+                mf.addError(lf.localize("WORKFLOW_INSTANCE_LEASE_LOST"));
+                logger.error(String.format("[%s] Instance lease expired and was taken over before release", logId));
+                return new HashMap<>();
+            }
         } else {
-            logger.debug(String.format("[%s] Instance locked by server %s, not executing", logId, semaphore));
+            stopWatch.stop();
+            mf.addError(lf.localize("WORKFLOW_INSTANCE_BUSY"));
+            logger.error(String.format("[%s] Instance leased by %s, not changed", logId, instance.getString("leaseOwner")));
+            return new HashMap<>();
         }
 
         // log the processing time
@@ -2111,6 +2512,10 @@ public class WorkflowService {
         logger.debug(String.format("[%s] Resuming workflow instance ...", logId));
         logger.debug(String.format("[%s] Param instanceId=%s", logId, instanceId));
 
+        // lease the instance before reading it, so that the read reflects the previous holder's changes, and
+        // release the lease right away when giving up before changing the instance
+        WorkflowInstanceLease lease = WorkflowInstanceLease.acquire(ec, instanceId);
+
         // validate the instance
         EntityValue instance = ef.find("moqui.workflow.WorkflowInstance")
                 .condition("instanceId", instanceId)
@@ -2119,11 +2524,17 @@ public class WorkflowService {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_INSTANCE_NOT_FOUND"));
             logger.error(String.format("[%s] Instance with ID %s not found", logId, instanceId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         } else if (instance.getString("statusId").equals(WorkflowInstanceStatus.WF_INST_STAT_COMPLETE.name()) || instance.getString("statusId").equals(WorkflowInstanceStatus.WF_INST_STAT_ABORT.name())) {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_INSTANCE_NOT_OPERABLE"));
             logger.error(String.format("[%s] Instance not in operable state", logId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         }
 
@@ -2136,32 +2547,26 @@ public class WorkflowService {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_NOT_FOUND"));
             logger.error(String.format("[%s] Workflow with ID %s was not found", logId, workflowId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         } else if (workflow.getString("disabled").equals("Y")) {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_DISABLED"));
             logger.error(String.format("[%s] Workflow is disabled", logId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         }
 
-        // lock the instance
-        String serverName = ServerUtil.getServerName();
-        sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                .parameter("instanceId", instanceId)
-                .parameter("semaphore", serverName)
-                .call();
-        instance.refresh();
-
-        // proceed only if instance is locked by this server
-        String semaphore = instance.getString("semaphore");
-        if (instance.getString("semaphore").equals(serverName)) {
+        // proceed only if the instance is leased by this call
+        if (lease != null) {
+            WorkflowInstanceState state = new WorkflowInstanceState(instance, lease);
 
             // exit workflow
-            sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                    .parameter("instanceId", instanceId)
-                    .parameter("statusId", WorkflowInstanceStatus.WF_INST_STAT_ACTIVE)
-                    .parameter("lastUpdateDate", TimestampUtil.now())
-                    .call();
+            state.setStatusId(WorkflowInstanceStatus.WF_INST_STAT_ACTIVE.name());
 
             // create event
             WorkflowUtil.createWorkflowEvent(
@@ -2172,14 +2577,18 @@ public class WorkflowService {
                     false
             );
 
-            // release the instance
-            sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                    .parameter("instanceId", instanceId)
-                    .parameter("semaphore", null)
-                    .call();
-            instance.refresh();
+            // save the instance and release it
+            if (!state.flushAndRelease(ec)) {
+                stopWatch.stop();
+                mf.addError(lf.localize("WORKFLOW_INSTANCE_LEASE_LOST"));
+                logger.error(String.format("[%s] Instance lease expired and was taken over before release", logId));
+                return new HashMap<>();
+            }
         } else {
-            logger.debug(String.format("[%s] Instance locked by server %s, not executing", logId, semaphore));
+            stopWatch.stop();
+            mf.addError(lf.localize("WORKFLOW_INSTANCE_BUSY"));
+            logger.error(String.format("[%s] Instance leased by %s, not changed", logId, instance.getString("leaseOwner")));
+            return new HashMap<>();
         }
 
         // log the processing time
@@ -2221,6 +2630,10 @@ public class WorkflowService {
         logger.debug(String.format("[%s] Aborting workflow instance ...", logId));
         logger.debug(String.format("[%s] Param instanceId=%s", logId, instanceId));
 
+        // lease the instance before reading it, so that the read reflects the previous holder's changes, and
+        // release the lease right away when giving up before changing the instance
+        WorkflowInstanceLease lease = WorkflowInstanceLease.acquire(ec, instanceId);
+
         // validate the instance
         EntityValue instance = ef.find("moqui.workflow.WorkflowInstance")
                 .condition("instanceId", instanceId)
@@ -2229,11 +2642,17 @@ public class WorkflowService {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_INSTANCE_NOT_FOUND"));
             logger.error(String.format("[%s] Instance with ID %s not found", logId, instanceId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         } else if (instance.getString("statusId").equals(WorkflowInstanceStatus.WF_INST_STAT_COMPLETE.name()) || instance.getString("statusId").equals(WorkflowInstanceStatus.WF_INST_STAT_ABORT.name())) {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_INSTANCE_NOT_OPERABLE"));
             logger.error(String.format("[%s] Instance not in operable state", logId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         }
 
@@ -2246,32 +2665,26 @@ public class WorkflowService {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_NOT_FOUND"));
             logger.error(String.format("[%s] Workflow with ID %s was not found", logId, workflowId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         } else if (workflow.getString("disabled").equals("Y")) {
             stopWatch.stop();
             mf.addError(lf.localize("WORKFLOW_DISABLED"));
             logger.error(String.format("[%s] Workflow is disabled", logId));
+            if (lease != null) {
+                lease.releaseNow(ec);
+            }
             return new HashMap<>();
         }
 
-        // lock the instance
-        String serverName = ServerUtil.getServerName();
-        sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                .parameter("instanceId", instanceId)
-                .parameter("semaphore", serverName)
-                .call();
-        instance.refresh();
-
-        // proceed only if instance is locked by this server
-        String semaphore = instance.getString("semaphore");
-        if (instance.getString("semaphore").equals(serverName)) {
+        // proceed only if the instance is leased by this call
+        if (lease != null) {
+            WorkflowInstanceState state = new WorkflowInstanceState(instance, lease);
 
             // exit workflow
-            sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                    .parameter("instanceId", instanceId)
-                    .parameter("statusId", WorkflowInstanceStatus.WF_INST_STAT_ABORT)
-                    .parameter("lastUpdateDate", TimestampUtil.now())
-                    .call();
+            state.setStatusId(WorkflowInstanceStatus.WF_INST_STAT_ABORT.name());
 
             // create event
             WorkflowUtil.createWorkflowEvent(
@@ -2282,14 +2695,18 @@ public class WorkflowService {
                     false
             );
 
-            // release the instance
-            sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                    .parameter("instanceId", instanceId)
-                    .parameter("semaphore", null)
-                    .call();
-            instance.refresh();
+            // save the instance and release it
+            if (!state.flushAndRelease(ec)) {
+                stopWatch.stop();
+                mf.addError(lf.localize("WORKFLOW_INSTANCE_LEASE_LOST"));
+                logger.error(String.format("[%s] Instance lease expired and was taken over before release", logId));
+                return new HashMap<>();
+            }
         } else {
-            logger.debug(String.format("[%s] Instance locked by server %s, not executing", logId, semaphore));
+            stopWatch.stop();
+            mf.addError(lf.localize("WORKFLOW_INSTANCE_BUSY"));
+            logger.error(String.format("[%s] Instance leased by %s, not changed", logId, instance.getString("leaseOwner")));
+            return new HashMap<>();
         }
 
         // log the processing time
@@ -2352,40 +2769,54 @@ public class WorkflowService {
             return new HashMap<>();
         }
 
-        // init script engine
-        ScriptEngineManager manager = new ScriptEngineManager();
-        ScriptEngine engine = manager.getEngineByName("JavaScript");
-
-        // replace properties
-        valueExpression = valueExpression.replaceAll(" ", "");
-        EntityList variables = ef.find("moqui.workflow.WorkflowInstanceVariableDetail")
-                .condition("instanceId", instanceId)
-                .list();
-        for (EntityValue variable : variables) {
-            String variableName = variable.getString("variableName");
-            Object definedValue = variable.get("definedValue");
-            String tempVariableName = RandomStringUtils.randomAlphabetic(4);
-            valueExpression = StringUtils.replace(valueExpression, String.format("{{%s}}", variableName), tempVariableName);
-            engine.put(tempVariableName, definedValue);
+        // get the variable type
+        EntityValue variable = ef.find("moqui.workflow.WorkflowVariable")
+                .condition("variableId", variableId)
+                .selectField("variableTypeEnumId")
+                .one();
+        if (variable == null) {
+            stopWatch.stop();
+            mf.addError("Variable not found.");
+            logger.error(String.format("[%s] Variable with ID %s was not found", logId, variableId));
+            return new HashMap<>();
         }
+        WorkflowVariableType variableType = EnumUtils.getEnum(WorkflowVariableType.class, variable.getString("variableTypeEnumId"));
+
+        // get the variables
+        Map<String, Object> variables = WorkflowUtil.getInstanceVariables(ec, instanceId);
 
-        // evaluate expression
-        Object definedValue;
+        // evaluate expression, falling back to the script runtime for scripts that are not workflow expressions
+        WorkflowVariableValue variableValue;
         try {
             logger.debug(String.format("[%s] Evaluating value expression: %s", logId, valueExpression));
-            definedValue = engine.eval(valueExpression);
+            WorkflowExpression expression = null;
+            try {
+                expression = WorkflowExpression.parse(valueExpression);
+            } catch (WorkflowExpressionException e) {
+                logger.debug(String.format("[%s] Value expression is not a workflow expression: %s", logId, e.getMessage()));
+            }
+            Object value = expression != null
+                    ? expression.evaluate(variables)
+                    : WorkflowScriptRuntime.getInstance().evaluate(String.format("variable:%s", variableId), valueExpression, variables);
+            variableValue = WorkflowVariableValue.of(variableType, value);
         } catch (ScriptException e) {
             stopWatch.stop();
             logger.error(String.format("[%s] An error occurred while evaluating value expression: %s", logId, e.getMessage()), e);
             mf.addError("Error evaluating value expression.");
             return new HashMap<>();
+        } catch (IllegalArgumentException e) {
+            stopWatch.stop();
+            logger.error(String.format("[%s] Value expression result is invalid: %s", logId, e.getMessage()));
+            mf.addError(e.getMessage());
+            return new HashMap<>();
         }
+        String definedValue = variableValue.getDefinedValue();
 
         // update defined value
         sf.sync().name("update#moqui.workflow.WorkflowInstanceVariable")
                 .parameter("instanceId", instanceId)
                 .parameter("variableId", variableId)
-                .parameter("definedValue", definedValue)
+                .parameters(variableValue.toFields())
                 .call();
 
         // log the processing time
@@ -2425,6 +2856,9 @@ public class WorkflowService {
         int pageSize = (Integer) cs.getOrDefault("pageSize", 10);
         String orderByField = (String) cs.getOrDefault("orderByField", "taskId");
         String filter = (String) cs.getOrDefault("filter", null);
+        String paginationMode = (String) cs.getOrDefault("paginationMode", null);
+        String cursor = (String) cs.getOrDefault("cursor", null);
+        String countMode = (String) cs.getOrDefault("countMode", null);
 
         // generate a new log ID
         String logId = ContextUtil.getLogId(ec);
@@ -2433,13 +2867,37 @@ public class WorkflowService {
         logger.debug(String.format("[%s] Param pageSize=%s", logId, pageSize));
         logger.debug(String.format("[%s] Param orderByField=%s", logId, orderByField));
         logger.debug(String.format("[%s] Param filter=%s", logId, filter));
+        logger.debug(String.format("[%s] Param paginationMode=%s", logId, paginationMode));
+        logger.debug(String.format("[%s] Param cursor=%s", logId, cursor));
+        logger.debug(String.format("[%s] Param countMode=%s", logId, countMode));
+
+        // validate the paging
+        EntityPager pager;
+        try {
+            pager = EntityPager.fromContext(ec, "taskId", "taskId");
+        } catch (IllegalArgumentException e) {
+            stopWatch.stop();
+            mf.addError("Invalid pagination parameters.");
+            logger.error(String.format("[%s] %s", logId, e.getMessage()));
+            return new HashMap<>();
+        }
 
         // prepare the conditions
         EntityConditionFactory ecf = ef.getConditionFactory();
-        EntityCondition findCondition = ecf.makeCondition("assignedUserId", EntityCondition.ComparisonOperator.EQUALS, uf.getUserId());
+        EntityCondition findCondition = getUserTaskCondition(ec);
+
+        // search a page of the filtered tasks in the index, unless the index cannot apply every condition
+        EntityFind formFind = pager.searchFormMap(ef.find("moqui.workflow.WorkflowInstanceTaskDetail"), cs);
+        String userTaskQuery = getUserTaskQuery(ec);
+        EntityDocumentPage documentPage = null;
+        if (StringUtil.isValidElasticsearchQuery(filter) && pager.getPaginationMode() == EntityPager.PaginationMode.offset
+                && userTaskQuery != null && formFind.getWhereEntityCondition() == null) {
+            String queryString = String.format("%s AND (%s)", userTaskQuery, filter);
+            documentPage = EntityDocumentPage.search(ec, "MoquiWorkflowInstanceTask", "taskId", queryString, pager.getOrderByField(), pager.getPageIndex(), pager.getPageSize());
+        }
 
         // add the filter
-        if (StringUtil.isValidElasticsearchQuery(filter)) {
+        if (documentPage == null && StringUtil.isValidElasticsearchQuery(filter)) {
             Map<String, Object> resp = sf.sync().name("org.moqui.search.SearchServices.search#DataDocuments")
                     .parameter("indexName", "workflow")
                     .parameter("documentType", "MoquiWorkflowInstanceTask")
@@ -2465,22 +2923,25 @@ public class WorkflowService {
 
         // find
         ArrayList<Map<String, Object>> taskList = new ArrayList<>();
-        EntityList tasks = ef.find("moqui.workflow.WorkflowInstanceTaskDetail")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .offset(pageIndex, pageSize)
-                .limit(pageSize)
-                .orderBy(orderByField)
-                .list();
+        EntityFind find = ef.find("moqui.workflow.WorkflowInstanceTaskDetail")
+                .condition(findCondition);
+        List<EntityValue> tasks = documentPage != null
+                ? documentPage.list(find)
+                : pager.list(pager.searchFormMap(find, cs));
         for (EntityValue task : tasks) {
             taskList.add(task.getMap());
         }
 
-        // count
-        long totalRows = ef.find("moqui.workflow.WorkflowInstanceTaskDetail")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .count();
+        // count, reading the hit count or the task counts if the inbox is not filtered and the counters are seeded
+        Long totalRows = null;
+        if (documentPage != null) {
+            totalRows = documentPage.getTotalRows();
+        } else if (pager.getCountMode() != EntityPager.CountMode.skip && !StringUtil.isValidElasticsearchQuery(filter) && formFind.getWhereEntityCondition() == null) {
+            totalRows = WorkflowTaskCounter.countInbox(ec, uf.getUserId(), uf.getUserGroupIdSet());
+        }
+        if (documentPage == null && totalRows == null) {
+            totalRows = pager.count(formFind.condition(findCondition));
+        }
 
         // log the processing time
         stopWatch.stop();
@@ -2489,6 +2950,7 @@ public class WorkflowService {
         // return the output parameters
         HashMap<String, Object> outParams = new HashMap<>();
         outParams.put("totalRows", totalRows);
+        pager.putOutParams(outParams);
         outParams.put("taskList", taskList);
         return outParams;
     }
@@ -2522,7 +2984,7 @@ public class WorkflowService {
 
         // prepare the conditions
         EntityConditionFactory ecf = ef.getConditionFactory();
-        EntityCondition findCondition = ecf.makeCondition("assignedUserId", EntityCondition.ComparisonOperator.EQUALS, uf.getUserId());
+        EntityCondition findCondition = getUserTaskCondition(ec);
 
         // add the filter
         if (StringUtil.isValidElasticsearchQuery(filter)) {
@@ -2549,11 +3011,15 @@ public class WorkflowService {
             );
         }
 
-        // count
-        long totalRows = ef.find("moqui.workflow.WorkflowInstanceTaskDetail")
-                .condition(findCondition)
-                .searchFormMap(cs, null, null, null, false)
-                .count();
+        // count, reading the task counts if the inbox is not filtered and the counters are seeded
+        EntityFind countFind = ef.find("moqui.workflow.WorkflowInstanceTaskDetail")
+                .searchFormMap(cs, null, null, null, false);
+        Long totalRows = !StringUtil.isValidElasticsearchQuery(filter) && countFind.getWhereEntityCondition() == null
+                ? WorkflowTaskCounter.countInbox(ec, uf.getUserId(), uf.getUserGroupIdSet())
+                : null;
+        if (totalRows == null) {
+            totalRows = countFind.condition(findCondition).count();
+        }
 
         // log the processing time
         stopWatch.stop();
@@ -2565,6 +3031,165 @@ public class WorkflowService {
         return outParams;
     }
 
+    /**
+     * Moves the tasks of a workflow instance activity from one set of statuses to another status. Restricted to
+     * users with the {@code WORKFLOW_ADMIN} permission.
+     *
+     * @param ec Execution context
+     * @return Output parameter map
+     */
+    public Map<String, Object> transitionWorkflowInstanceTasks(ExecutionContext ec) {
+
+        // start the stop watch
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+
+        // shortcuts for convenience
+        ContextStack cs = ec.getContext();
+        MessageFacade mf = ec.getMessage();
+        UserFacade uf = ec.getUser();
+
+        // get the parameters
+        String instanceId = (String) cs.getOrDefault("instanceId", null);
+        String activityId = (String) cs.getOrDefault("activityId", null);
+        List<?> fromStatusIds = (List<?>) cs.getOrDefault("fromStatusIds", new ArrayList<>());
+        String toStatusId = (String) cs.getOrDefault("toStatusId", null);
+
+        // generate a new log ID
+        String logId = ContextUtil.getLogId(ec);
+        logger.debug(String.format("[%s] Transitioning workflow instance tasks ...", logId));
+        logger.debug(String.format("[%s] Param instanceId=%s", logId, instanceId));
+        logger.debug(String.format("[%s] Param activityId=%s", logId, activityId));
+        logger.debug(String.format("[%s] Param fromStatusIds=%s", logId, fromStatusIds));
+        logger.debug(String.format("[%s] Param toStatusId=%s", logId, toStatusId));
+
+        // validate the permission
+        if (!uf.hasPermission(ADMIN_PERMISSION)) {
+            stopWatch.stop();
+            mf.addError("Access denied.");
+            logger.error(String.format("[%s] User %s lacks the %s permission", logId, uf.getUserId(), ADMIN_PERMISSION));
+            return new HashMap<>();
+        }
+
+        // validate the parameters
+        if (StringUtils.isBlank(instanceId) || StringUtils.isBlank(activityId)) {
+            stopWatch.stop();
+            mf.addError("Instance ID and activity ID are required.");
+            logger.error(String.format("[%s] Instance ID or activity ID is blank", logId));
+            return new HashMap<>();
+        }
+        WorkflowTaskStatus toStatus = EnumUtils.getEnum(WorkflowTaskStatus.class, toStatusId);
+        if (toStatus == null) {
+            stopWatch.stop();
+            mf.addError("Invalid target status.");
+            logger.error(String.format("[%s] Invalid target status %s", logId, toStatusId));
+            return new HashMap<>();
+        }
+        EnumSet<WorkflowTaskStatus> fromStatuses = EnumSet.noneOf(WorkflowTaskStatus.class);
+        for (Object fromStatusId : fromStatusIds) {
+            WorkflowTaskStatus fromStatus = EnumUtils.getEnum(WorkflowTaskStatus.class, String.valueOf(fromStatusId));
+            if (fromStatus == null) {
+                stopWatch.stop();
+                mf.addError("Invalid source status.");
+                logger.error(String.format("[%s] Invalid source status %s", logId, fromStatusId));
+                return new HashMap<>();
+            }
+            fromStatuses.add(fromStatus);
+        }
+
+        // transition the tasks
+        int taskCount;
+        try {
+            taskCount = WorkflowTaskWriter.transitionTasks(ec, instanceId, activityId, fromStatuses, toStatus);
+        } catch (IllegalArgumentException e) {
+            stopWatch.stop();
+            mf.addError(e.getMessage());
+            logger.error(String.format("[%s] %s", logId, e.getMessage()));
+            return new HashMap<>();
+        }
+
+        // log the processing time
+        stopWatch.stop();
+        logger.debug(String.format("[%s] Transitioned %d workflow instance tasks in %d milliseconds", logId, taskCount, stopWatch.getTime()));
+
+        // return the output parameters
+        HashMap<String, Object> outParams = new HashMap<>();
+        outParams.put("taskCount", taskCount);
+        return outParams;
+    }
+
+    /**
+     * Claims a workflow instance task assigned to one of the user's groups.
+     *
+     * @param ec Execution context
+     * @return Output parameter map
+     */
+    public Map<String, Object> claimWorkflowInstanceTask(ExecutionContext ec) {
+
+        // start the stop watch
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+
+        // shortcuts for convenience
+        ContextStack cs = ec.getContext();
+        MessageFacade mf = ec.getMessage();
+        EntityFacade ef = ec.getEntity();
+        UserFacade uf = ec.getUser();
+
+        // get the parameters
+        String taskId = (String) cs.getOrDefault("taskId", null);
+
+        // generate a new log ID
+        String logId = ContextUtil.getLogId(ec);
+        logger.debug(String.format("[%s] Claiming workflow instance task ...", logId));
+        logger.debug(String.format("[%s] Param taskId=%s", logId, taskId));
+
+        // validate the parameters
+        if (StringUtils.isBlank(taskId)) {
+            stopWatch.stop();
+            mf.addError("Task ID is required.");
+            logger.error(String.format("[%s] Task ID is blank", logId));
+            return new HashMap<>();
+        }
+
+        // get the task
+        EntityValue task = ef.find("moqui.workflow.WorkflowInstanceTask")
+                .condition("taskId", taskId)
+                .selectField("taskId,assignedUserGroupId")
+                .one();
+
+        // validate the task
+        if (task == null) {
+            stopWatch.stop();
+            mf.addError("Task not found.");
+            logger.error(String.format("[%s] Task with ID %s was not found", logId, taskId));
+            return new HashMap<>();
+        } else if (task.getString("assignedUserGroupId") == null || !uf.getUserGroupIdSet().contains(task.getString("assignedUserGroupId"))) {
+            stopWatch.stop();
+            mf.addError("Access to task denied.");
+            logger.error(String.format("[%s] Access to task denied", logId));
+            return new HashMap<>();
+        }
+
+        // claim the task
+        if (!WorkflowTaskWriter.claimTask(ec, taskId, task.getString("assignedUserGroupId"), uf.getUserId())) {
+            stopWatch.stop();
+            mf.addError("Task was already claimed.");
+            logger.error(String.format("[%s] Task %s was already claimed or is no longer pending", logId, taskId));
+            return new HashMap<>();
+        }
+
+        // log the processing time
+        stopWatch.stop();
+        logger.debug(String.format("[%s] Workflow instance task %s claimed in %d milliseconds", logId, taskId, stopWatch.getTime()));
+        mf.addMessage("Workflow instance task claimed successfully.");
+
+        // return the output parameters
+        HashMap<String, Object> outParams = new HashMap<>();
+        outParams.put("taskId", taskId);
+        return outParams;
+    }
+
     /**
      * Update a workflow instance task.
      *
@@ -2606,9 +3231,10 @@ public class WorkflowService {
             return new HashMap<>();
         }
 
-        // get the task
+        // get the task, locked so that its current status is counted once
         EntityValue task = ef.find("moqui.workflow.WorkflowInstanceTask")
                 .condition("taskId", taskId)
+                .forUpdate(true)
                 .one();
 
         // validate the task
@@ -2617,13 +3243,36 @@ public class WorkflowService {
             mf.addError("Task not found.");
             logger.error(String.format("[%s] Task with ID %s was not found", logId, taskId));
             return new HashMap<>();
-        } else if (!task.getString("assignedUserId").equals(uf.getUserId())) {
+        } else if (task.getString("assignedUserId") == null && task.getString("assignedUserGroupId") != null) {
+            stopWatch.stop();
+            mf.addError("Task must be claimed first.");
+            logger.error(String.format("[%s] Task %s has not been claimed", logId, taskId));
+            return new HashMap<>();
+        } else if (!uf.getUserId().equals(task.getString("assignedUserId"))) {
             stopWatch.stop();
             mf.addError("Access to task denied.");
             logger.error(String.format("[%s] Access to task denied", logId));
             return new HashMap<>();
         }
 
+        // validate the defined value
+        WorkflowVariableValue variableValue = null;
+        if (StringUtils.isNotBlank(definedValue)) {
+            EntityValue variable = ef.find("moqui.workflow.WorkflowVariable")
+                    .condition("variableId", task.get("variableId"))
+                    .selectField("variableTypeEnumId")
+                    .one();
+            WorkflowVariableType variableType = variable != null ? EnumUtils.getEnum(WorkflowVariableType.class, variable.getString("variableTypeEnumId")) : null;
+            try {
+                variableValue = WorkflowVariableValue.of(variableType, definedValue);
+            } catch (IllegalArgumentException e) {
+                stopWatch.stop();
+                mf.addError(e.getMessage());
+                logger.error(String.format("[%s] Invalid defined value: %s", logId, e.getMessage()));
+                return new HashMap<>();
+            }
+        }
+
         // init the completion date
         Timestamp completionDate = null;
         WorkflowTaskStatus status = EnumUtils.getEnum(WorkflowTaskStatus.class, statusId);
@@ -2639,12 +3288,25 @@ public class WorkflowService {
                 .parameter("completionDate", completionDate)
                 .call();
 
+        // update the task counts
+        if (statusId != null) {
+            new WorkflowTaskCounter()
+                    .move(task.getString("assignedUserId"), task.getString("assignedUserGroupId"), task.getString("statusId"), statusId)
+                    .apply(ec);
+        }
+
+        // update the approval tallies, only when the status actually changes
+        if (statusId != null && !statusId.equals(task.getString("statusId"))
+                && WorkflowTaskType.WF_TASK_APPROVAL.name().equals(task.getString("taskTypeEnumId"))) {
+            WorkflowApprovalTally.record(ec, task, statusId);
+        }
+
         // update instance variable
-        if (StringUtils.isNotBlank(definedValue)) {
+        if (variableValue != null) {
             sf.sync().name("update#moqui.workflow.WorkflowInstanceVariable")
                     .parameter("instanceId", task.get("instanceId"))
                     .parameter("variableId", task.get("variableId"))
-                    .parameter("definedValue", definedValue)
+                    .parameters(variableValue.toFields())
                     .call();
         }
 
@@ -13,7 +13,6 @@
  */
 package org.moqui.workflow.activity;
 
-import org.moqui.entity.EntityValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,8 +25,4 @@ public abstract class AbstractWorkflowActivity implements WorkflowActivity {
      * Class logger.
      */
     protected final Logger logger = LoggerFactory.getLogger(getClass());
-    /**
-     * Activity entity.
-     */
-    protected EntityValue activity;
 }
@@ -13,20 +13,56 @@
  */
 package org.moqui.workflow.activity;
 
+import org.json.JSONObject;
 import org.moqui.context.ExecutionContext;
-import org.moqui.entity.EntityValue;
+import org.moqui.workflow.definition.WorkflowActivityConfig;
+import org.moqui.workflow.definition.WorkflowActivityDefinition;
+import org.moqui.workflow.instance.WorkflowInstanceState;
 
 /**
  * Interface that defined required workflow activity methods.
+ * <p>
+ * Implementations are stateless singletons shared by all instances and threads, see
+ * {@link WorkflowActivityRegistry}. Custom activity types can be added by listing an implementation in
+ * {@code META-INF/services/org.moqui.workflow.activity.WorkflowActivity}.
  */
 public interface WorkflowActivity {
 
+    /**
+     * Gets the activity type handled by this implementation.
+     *
+     * @return Activity type enumeration ID
+     */
+    String getActivityTypeEnumId();
+
+    /**
+     * Gets the designer node type of the activity, used to sync workflow models. Built-in activities are
+     * mapped by {@link org.moqui.workflow.util.WorkflowActivityType#fromNodeType(String)}.
+     *
+     * @return Node type or {@code null} if the activity has no designer node of its own
+     */
+    default String getNodeType() {
+        return null;
+    }
+
+    /**
+     * Parses the node data of an activity into its typed configuration. Called once when the workflow
+     * definition is loaded, the result is shared by all executions and must therefore be immutable.
+     *
+     * @param nodeData Activity node data
+     * @return Activity configuration or {@code null} if the activity has none
+     */
+    default WorkflowActivityConfig parseConfig(JSONObject nodeData) {
+        return null;
+    }
+
     /**
      * Executes the activity.
      *
      * @param ec Execution context
+     * @param activity Activity definition
      * @param instance Workflow instance
      * @return {@code true} if the activity executed successfully and {@code false} otherwise
      */
-    boolean execute(ExecutionContext ec, EntityValue instance);
+    boolean execute(ExecutionContext ec, WorkflowActivityDefinition activity, WorkflowInstanceState instance);
 }
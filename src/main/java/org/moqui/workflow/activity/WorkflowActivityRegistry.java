@@ -0,0 +1,116 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.activity;
+
+import org.apache.commons.lang3.StringUtils;
+import org.moqui.workflow.util.WorkflowActivityType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of the stateless workflow activity handlers.
+ * <p>
+ * The built-in handlers are registered first. Handlers found with {@link ServiceLoader} are registered
+ * after them and replace a built-in handler of the same activity type.
+ */
+public class WorkflowActivityRegistry {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowActivityRegistry.class);
+    /**
+     * Handlers by activity type enumeration ID.
+     */
+    private static final Map<String, WorkflowActivity> handlers;
+    /**
+     * Activity type enumeration IDs of custom handlers by designer node type.
+     */
+    private static final Map<String, String> customNodeTypes;
+
+    static {
+        Map<String, WorkflowActivity> handlerMap = new HashMap<>();
+        Map<String, String> nodeTypeMap = new HashMap<>();
+        for (WorkflowActivity handler : Arrays.asList(
+                new WorkflowEnterActivity(),
+                new WorkflowExitActivity(),
+                new WorkflowAdjustmentActivity(),
+                new WorkflowConditionActivity(),
+                new WorkflowUserActivity(),
+                new WorkflowServiceActivity(),
+                new WorkflowNotificationActivity())) {
+            handlerMap.put(handler.getActivityTypeEnumId(), handler);
+        }
+
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        for (WorkflowActivity handler : ServiceLoader.load(WorkflowActivity.class, classLoader)) {
+            WorkflowActivity replaced = handlerMap.put(handler.getActivityTypeEnumId(), handler);
+            if (StringUtils.isNotBlank(handler.getNodeType())) {
+                nodeTypeMap.put(handler.getNodeType(), handler.getActivityTypeEnumId());
+            }
+            logger.info(String.format("Registered %s activity handler %s%s", handler.getActivityTypeEnumId(), handler.getClass().getName(),
+                    replaced != null ? String.format(" replacing %s", replaced.getClass().getName()) : ""));
+        }
+
+        handlers = Collections.unmodifiableMap(handlerMap);
+        customNodeTypes = Collections.unmodifiableMap(nodeTypeMap);
+    }
+
+    /**
+     * Gets the handler of a built-in activity type.
+     *
+     * @param activityType Activity type
+     * @return Activity handler
+     */
+    public static WorkflowActivity getHandler(WorkflowActivityType activityType) {
+        return activityType == null ? null : handlers.get(activityType.name());
+    }
+
+    /**
+     * Gets the handler of an activity type.
+     *
+     * @param activityTypeEnumId Activity type enumeration ID
+     * @return Activity handler or {@code null} if the type has no handler
+     */
+    public static WorkflowActivity getHandler(String activityTypeEnumId) {
+        return activityTypeEnumId == null ? null : handlers.get(activityTypeEnumId);
+    }
+
+    /**
+     * Checks whether an activity type has a handler.
+     *
+     * @param activityTypeEnumId Activity type enumeration ID
+     * @return {@code true} if the type has a handler
+     */
+    public static boolean hasHandler(String activityTypeEnumId) {
+        return getHandler(activityTypeEnumId) != null;
+    }
+
+    /**
+     * Gets the activity type of a designer node type.
+     *
+     * @param nodeType Node type
+     * @return Activity type enumeration ID or {@code null} if the node type is not recognized
+     */
+    public static String activityTypeEnumIdFromNodeType(String nodeType) {
+        WorkflowActivityType activityType = WorkflowActivityType.fromNodeType(nodeType);
+        return activityType != null ? activityType.name() : customNodeTypes.get(nodeType);
+    }
+}
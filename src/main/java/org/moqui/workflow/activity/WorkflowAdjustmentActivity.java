@@ -17,31 +17,40 @@ import org.moqui.util.ContextUtil;
 import org.moqui.workflow.util.WorkflowAdjustmentType;
 import org.moqui.workflow.util.WorkflowEventType;
 import org.moqui.workflow.util.WorkflowUtil;
-import org.apache.commons.lang3.EnumUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.json.JSONObject;
 import org.moqui.context.ExecutionContext;
+import org.moqui.workflow.definition.AdjustmentActivityConfig;
+import org.moqui.workflow.definition.WorkflowActivityDefinition;
+import org.moqui.workflow.util.WorkflowActivityType;
+import org.moqui.workflow.definition.WorkflowDefinition;
+import org.moqui.workflow.definition.WorkflowDefinitionCache;
+import org.moqui.workflow.expression.WorkflowExpression;
 import org.moqui.entity.EntityFacade;
-import org.moqui.entity.EntityValue;
+import org.moqui.workflow.instance.WorkflowInstanceState;
+import org.moqui.workflow.script.WorkflowScriptRuntime;
 import org.moqui.service.ServiceFacade;
 
+import java.util.Map;
+
 /**
  * Workflow activity used to adjustment payload.
  */
 public class WorkflowAdjustmentActivity extends AbstractWorkflowActivity {
 
-    /**
-     * Creates a new activity.
-     *
-     * @param activity Activity entity
-     */
-    public WorkflowAdjustmentActivity(EntityValue activity) {
-        this.activity = activity;
+    @Override
+    public String getActivityTypeEnumId() {
+        return WorkflowActivityType.WF_ACTIVITY_ADJUST.name();
+    }
+
+    @Override
+    public AdjustmentActivityConfig parseConfig(JSONObject nodeData) {
+        return new AdjustmentActivityConfig(nodeData);
     }
 
     @Override
-    public boolean execute(ExecutionContext ec, EntityValue instance) {
+    public boolean execute(ExecutionContext ec, WorkflowActivityDefinition activity, WorkflowInstanceState instance) {
 
         // start the stop watch
         StopWatch stopWatch = new StopWatch();
@@ -52,9 +61,9 @@ public class WorkflowAdjustmentActivity extends AbstractWorkflowActivity {
         ServiceFacade sf = ec.getService();
 
         // get attributes
-        String activityId = activity.getString("activityId");
-        String activityTypeEnumId = activity.getString("activityTypeEnumId");
-        String activityTypeDescription = activity.getString("activityTypeDescription");
+        String activityId = activity.getActivityId();
+        String activityTypeEnumId = activity.getActivityTypeEnumId();
+        String activityTypeDescription = activity.getActivityTypeDescription();
         String instanceId = instance.getString("instanceId");
 
         // generate a new log ID
@@ -62,23 +71,21 @@ public class WorkflowAdjustmentActivity extends AbstractWorkflowActivity {
         logger.debug(String.format("[%s] Executing %s activity (%s) ...", logId, activityTypeEnumId, activityId));
 
         // get attributes
-        JSONObject nodeData = new JSONObject(activity.getString("nodeData"));
-        WorkflowAdjustmentType adjustmentType = nodeData.has("adjustmentTypeEnumId") ? EnumUtils.getEnum(WorkflowAdjustmentType.class, nodeData.getString("adjustmentTypeEnumId")) : null;
-        String statusId = nodeData.has("statusId") ? nodeData.getString("statusId") : null;
-        String variableId = nodeData.has("variableId") ? nodeData.getString("variableId") : null;
-        String definedValue = nodeData.has("definedValue") ? nodeData.getString("definedValue") : null;
+        AdjustmentActivityConfig config = activity.getConfig(AdjustmentActivityConfig.class);
+        WorkflowAdjustmentType adjustmentType = config.getAdjustmentType();
+        String statusId = config.getStatusId();
+        String variableId = config.getVariableId();
+        String definedValue = config.getDefinedValue();
 
         // perform adjustment
         if (adjustmentType == WorkflowAdjustmentType.WF_ADJUST_STATUS && StringUtils.isNotBlank(statusId)) {
 
             // get the workflow
-            EntityValue workflow = ef.find("moqui.workflow.WorkflowDetail")
-                    .condition("workflowId", instance.getString("workflowId"))
-                    .one();
+            WorkflowDefinition workflow = WorkflowDefinitionCache.getWorkflowDefinition(ec, activity.getWorkflowId());
 
             // get the entity
-            String primaryEntityName = workflow.getString("primaryEntityName");
-            String primaryKeyField = workflow.getString("primaryKeyField");
+            String primaryEntityName = workflow.getPrimaryEntityName();
+            String primaryKeyField = workflow.getPrimaryKeyField();
             String primaryKeyValue = instance.getString("primaryKeyValue");
 
             // update the status
@@ -105,11 +112,12 @@ public class WorkflowAdjustmentActivity extends AbstractWorkflowActivity {
             // update the variable
             try {
                 logger.debug(String.format("[%s] Updating variable %s to: %s", logId, variableId, definedValue));
-                sf.sync().name("moqui.workflow.WorkflowServices.update#WorkflowInstanceVariable")
-                        .parameter("instanceId", instanceId)
-                        .parameter("variableId", variableId)
-                        .parameter("valueExpression", definedValue)
-                        .call();
+                WorkflowExpression valueExpression = config.getValueExpression();
+                Map<String, Object> variables = instance.getVariables(ec).getValues();
+                Object value = valueExpression != null
+                        ? valueExpression.evaluate(variables)
+                        : WorkflowScriptRuntime.getInstance().evaluate(String.format("%s:%s", activity.getWorkflowId(), activityId), definedValue, variables);
+                instance.setVariable(ec, variableId, value);
             } catch (Exception e) {
                 stopWatch.stop();
                 logger.error(String.format("[%s] An error occurred while updating workflow instance variable: %s", logId, e.getMessage()), e);
@@ -13,6 +13,8 @@
  */
 package org.moqui.workflow.activity;
 
+import org.moqui.entity.util.EntityConditionBuilder;
+import org.moqui.entity.util.EntityFieldCatalog;
 import org.moqui.entity.util.EntityFieldType;
 import org.moqui.workflow.condition.*;
 import org.moqui.workflow.util.WorkflowConditionType;
@@ -20,50 +22,53 @@ import org.moqui.workflow.util.WorkflowEventType;
 import org.moqui.workflow.util.WorkflowUtil;
 import org.moqui.workflow.util.WorkflowVariableType;
 import org.apache.commons.lang3.EnumUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import org.moqui.context.ExecutionContext;
+import org.moqui.workflow.definition.ConditionActivityConfig;
+import org.moqui.workflow.definition.WorkflowActivityDefinition;
+import org.moqui.workflow.definition.WorkflowConditionConfig;
+import org.moqui.workflow.util.WorkflowActivityType;
+import org.moqui.workflow.definition.WorkflowDefinition;
+import org.moqui.workflow.definition.WorkflowDefinitionCache;
 import org.moqui.entity.EntityCondition;
-import org.moqui.entity.EntityFacade;
-import org.moqui.entity.EntityList;
-import org.moqui.entity.EntityValue;
+import org.moqui.workflow.instance.WorkflowInstanceState;
+import org.moqui.workflow.instance.WorkflowVariableSnapshot;
 import org.moqui.util.*;
 
+import java.math.BigDecimal;
+import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.Map;
 
 /**
  * Workflow activity used to evaluate conditions.
  */
 public class WorkflowConditionActivity extends AbstractWorkflowActivity {
 
-    /**
-     * Creates a new activity.
-     *
-     * @param activity Activity entity
-     */
-    public WorkflowConditionActivity(EntityValue activity) {
-        this.activity = activity;
+    @Override
+    public String getActivityTypeEnumId() {
+        return WorkflowActivityType.WF_ACTIVITY_CONDITION.name();
+    }
+
+    @Override
+    public ConditionActivityConfig parseConfig(JSONObject nodeData) {
+        return new ConditionActivityConfig(nodeData);
     }
 
     @Override
-    public boolean execute(ExecutionContext ec, EntityValue instance) {
+    public boolean execute(ExecutionContext ec, WorkflowActivityDefinition activity, WorkflowInstanceState instance) {
 
         // start the stop watch
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
 
-        // shortcuts for convenience
-        EntityFacade ef = ec.getEntity();
-
         // get attributes
-        String activityId = activity.getString("activityId");
-        String activityTypeEnumId = activity.getString("activityTypeEnumId");
-        String activityTypeDescription = activity.getString("activityTypeDescription");
+        String activityId = activity.getActivityId();
+        String activityTypeEnumId = activity.getActivityTypeEnumId();
+        String activityTypeDescription = activity.getActivityTypeDescription();
         String instanceId = instance.getString("instanceId");
 
         // generate a new log ID
@@ -71,34 +76,33 @@ public class WorkflowConditionActivity extends AbstractWorkflowActivity {
         logger.debug(String.format("[%s] Executing %s activity (%s) ...", logId, activityTypeEnumId, activityId));
 
         // get attributes
-        JSONObject nodeData = new JSONObject(activity.getString("nodeData"));
-        WorkflowConditionType conditionType = nodeData.has("conditionTypeEnumId") ? EnumUtils.getEnum(WorkflowConditionType.class, nodeData.getString("conditionTypeEnumId")) : null;
-        EntityCondition.JoinOperator joinOperator = nodeData.has("joinOperator") ? EnumUtils.getEnum(EntityCondition.JoinOperator.class, nodeData.getString("joinOperator")) : null;
-        JSONArray conditions = nodeData.has("conditions") ? nodeData.getJSONArray("conditions") : new JSONArray();
+        ConditionActivityConfig config = activity.getConfig(ConditionActivityConfig.class);
+        WorkflowConditionType conditionType = config.getConditionType();
+        EntityCondition.JoinOperator joinOperator = config.getJoinOperator();
 
         // handle condition type
-        ArrayList<WorkflowCondition> workflowConditions = new ArrayList<>();
+        WorkflowConditionPlan conditionPlan = new WorkflowConditionPlan(activity.getWorkflowId(), activityId, joinOperator);
         if (conditionType == WorkflowConditionType.WF_CONDITION_FIELD) {
 
             // get the workflow
-            EntityValue workflow = ef.find("moqui.workflow.WorkflowDetail")
-                    .condition("workflowId", instance.getString("workflowId"))
-                    .one();
+            WorkflowDefinition workflow = WorkflowDefinitionCache.getWorkflowDefinition(ec, activity.getWorkflowId());
 
             // get the entity
-            String primaryViewEntityName = workflow.getString("primaryViewEntityName");
-            String primaryKeyField = workflow.getString("primaryKeyField");
+            String primaryViewEntityName = workflow.getPrimaryViewEntityName();
+            String primaryKeyField = workflow.getPrimaryKeyField();
             String primaryKeyValue = instance.getString("primaryKeyValue");
-            EntityValue entity = ef.find(primaryViewEntityName)
-                    .condition(primaryKeyField, primaryKeyValue)
-                    .one();
 
-            // convert and add conditions
-            for (int i=0; i<conditions.length(); i++) {
-                JSONObject condition = conditions.getJSONObject(i);
-                String fieldName = condition.has("fieldName") ? condition.getString("fieldName") : null;
-                String operator = condition.has("operator") ? condition.getString("operator") : null;
-                String value = condition.has("value") ? condition.getString("value") : null;
+            // get the field catalog
+            EntityFieldCatalog fieldCatalog = EntityFieldCatalog.getCatalog(ec);
+
+            // compile the conditions into a single entity condition
+            EntityConditionBuilder builder = new EntityConditionBuilder(ec, joinOperator);
+            DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+            for (WorkflowConditionConfig condition : config.getConditions()) {
+                int i = condition.getIndex();
+                String fieldName = condition.getFieldName();
+                String operator = condition.getOperator();
+                String value = condition.getValue();
 
                 // skip condition if field name or operator are not defined
                 if (fieldName == null || operator == null) {
@@ -107,26 +111,20 @@ public class WorkflowConditionActivity extends AbstractWorkflowActivity {
                 }
 
                 // get the field
-                EntityList fields = ef.find("moqui.entity.EntityField")
-                        .condition("fieldName", fieldName)
-                        .condition("entityName", primaryViewEntityName)
-                        .limit(1)
-                        .list();
-                if (fields.isEmpty()) {
+                EntityFieldCatalog.Field field = fieldCatalog.getField(primaryViewEntityName, fieldName);
+                if (field == null) {
                     logger.warn(String.format("[%s] Unknown field '%s' in condition %d, skipping", logId, fieldName, i));
                     continue;
                 }
-                EntityValue field = fields.getFirst();
 
                 // verify field type
-                String fieldTypeEnumId = field.getString("fieldTypeEnumId");
-                if (!EnumUtils.isValidEnum(EntityFieldType.class, fieldTypeEnumId)) {
-                    logger.warn(String.format("[%s] Unknown field type '%s' in condition %d, skipping", logId, fieldTypeEnumId, i));
+                EntityFieldType fieldType = field.getFieldType();
+                if (fieldType == null) {
+                    logger.warn(String.format("[%s] Unknown field type '%s' in condition %d, skipping", logId, field.getFieldTypeEnumId(), i));
                     continue;
                 }
 
                 // handle field type
-                EntityFieldType fieldType = EntityFieldType.valueOf(fieldTypeEnumId);
                 switch (fieldType) {
                     case ENTITY_FLD_BOOLEAN: {
 
@@ -136,14 +134,8 @@ public class WorkflowConditionActivity extends AbstractWorkflowActivity {
                             continue;
                         }
 
-                        // parse the value
-                        boolean fieldValue = StringUtils.equals(entity.getString(fieldName), "Y");
-
                         // add condition
-                        workflowConditions.add(new BooleanCondition(
-                                fieldValue,
-                                BooleanComparisonOperator.valueOf(operator))
-                        );
+                        builder.booleanCondition(fieldName, BooleanComparisonOperator.valueOf(operator));
                         break;
                     }
                     case ENTITY_FLD_DATE: {
@@ -155,30 +147,16 @@ public class WorkflowConditionActivity extends AbstractWorkflowActivity {
                         }
 
                         // parse the value
-                        Date conditionValue;
-                        DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+                        Timestamp conditionValue;
                         try {
-                            conditionValue = df.parse(value);
+                            conditionValue = new Timestamp(df.parse(value).getTime());
                         } catch (Exception e) {
                             logger.warn(String.format("[%s] Failed to parse date '%s' in condition %d, skipping", logId, value, i));
                             continue;
                         }
 
-                        // get the field value
-                        Date fieldValue;
-                        try {
-                            fieldValue = entity.getTimestamp(fieldName);
-                        } catch (Exception e) {
-                            logger.warn(String.format("[%s] Failed to retrieve date value from field '%s' in condition %d, skipping", logId, fieldName, i));
-                            continue;
-                        }
-
                         // add condition
-                        workflowConditions.add(new DateCondition(
-                                fieldValue,
-                                DateComparisonOperator.valueOf(operator),
-                                conditionValue)
-                        );
+                        builder.dateCondition(fieldName, DateComparisonOperator.valueOf(operator), conditionValue);
                         break;
                     }
                     case ENTITY_FLD_NUMBER: {
@@ -190,29 +168,16 @@ public class WorkflowConditionActivity extends AbstractWorkflowActivity {
                         }
 
                         // parse the value
-                        long conditionValue;
+                        double conditionValue;
                         try {
-                            conditionValue = value == null ? 0 : Long.parseLong(value);
+                            conditionValue = value == null ? 0 : Double.parseDouble(value);
                         } catch (NumberFormatException e) {
                             logger.warn(String.format("[%s] Failed to parse number '%s' in condition %d, skipping", logId, value, i));
                             continue;
                         }
 
-                        // get the field value
-                        long fieldValue;
-                        try {
-                            fieldValue = entity.getLong(fieldName);
-                        } catch (Exception e) {
-                            logger.warn(String.format("[%s] Failed to retrieve long value from field '%s' in condition %d, skipping", logId, fieldName, i));
-                            continue;
-                        }
-
                         // add condition
-                        workflowConditions.add(new NumberCondition(
-                                fieldValue,
-                                NumberComparisonOperator.valueOf(operator),
-                                conditionValue)
-                        );
+                        builder.numberCondition(fieldName, NumberComparisonOperator.valueOf(operator), conditionValue);
                         break;
                     }
                     case ENTITY_FLD_TEXT: {
@@ -224,12 +189,7 @@ public class WorkflowConditionActivity extends AbstractWorkflowActivity {
                         }
 
                         // add condition
-                        String fieldValue = entity.getString(fieldName);
-                        workflowConditions.add(new TextCondition(
-                                fieldValue,
-                                TextComparisonOperator.valueOf(operator),
-                                value)
-                        );
+                        builder.textCondition(fieldName, TextComparisonOperator.valueOf(operator), value);
                         break;
                     }
                     default: {
@@ -237,14 +197,22 @@ public class WorkflowConditionActivity extends AbstractWorkflowActivity {
                     }
                 }
             }
+
+            // add the compiled condition, evaluated with a single count on the primary view entity
+            if (builder.getCondition() != null) {
+                conditionPlan.add("fields", new FieldCondition(primaryViewEntityName, primaryKeyField, primaryKeyValue, builder.getCondition()));
+            }
         } else if (conditionType == WorkflowConditionType.WF_CONDITION_VARIABLE) {
 
+            // get the variables
+            WorkflowVariableSnapshot variables = instance.getVariables(ec);
+
             // convert and add conditions
-            for (int i=0; i<conditions.length(); i++) {
-                JSONObject condition = conditions.getJSONObject(i);
-                String variableName = condition.has("variableName") ? condition.getString("variableName") : null;
-                String operator = condition.has("operator") ? condition.getString("operator") : null;
-                String value = condition.has("value") ? condition.getString("value") : null;
+            for (WorkflowConditionConfig condition : config.getConditions()) {
+                int i = condition.getIndex();
+                String variableName = condition.getVariableName();
+                String operator = condition.getOperator();
+                String value = condition.getValue();
 
                 // skip condition if field name or operator are not defined
                 if (variableName==null || operator==null) {
@@ -253,19 +221,13 @@ public class WorkflowConditionActivity extends AbstractWorkflowActivity {
                 }
 
                 // get the variable
-                EntityList variables = ef.find("moqui.workflow.WorkflowInstanceVariableDetail")
-                        .condition("instanceId", instanceId)
-                        .condition("variableName", variableName)
-                        .limit(1)
-                        .list();
-                if (variables.isEmpty()) {
+                if (!variables.contains(variableName)) {
                     logger.warn(String.format("[%s] Unknown variable '%s' in condition %d, skipping", logId, variableName, i));
                     continue;
                 }
-                EntityValue variable = variables.getFirst();
 
                 // verify variable type
-                String variableTypeEnumId = variable.getString("variableTypeEnumId");
+                String variableTypeEnumId = variables.getTypeEnumId(variableName);
                 if (!EnumUtils.isValidEnum(WorkflowVariableType.class, variableTypeEnumId)) {
                     logger.warn(String.format("[%s] Unknown variable type '%s' in condition %d, skipping", logId, variableTypeEnumId, i));
                     continue;
@@ -292,18 +254,95 @@ public class WorkflowConditionActivity extends AbstractWorkflowActivity {
                         }
 
                         // get the defined value
-                        long definedValue;
+                        Object definedValue = variables.getValue(variableName);
+                        if (!(definedValue instanceof Long)) {
+                            logger.warn(String.format("[%s] Variable '%s' has no number value in condition %d, skipping", logId, variableName, i));
+                            continue;
+                        }
+
+                        // add condition
+                        conditionPlan.add(String.valueOf(i), new NumberCondition(
+                                (Long) definedValue,
+                                NumberComparisonOperator.valueOf(operator),
+                                conditionValue)
+                        );
+                        break;
+                    }
+                    case WF_VAR_DECIMAL: {
+
+                        // verify comparison operator
+                        if (!EnumUtils.isValidEnum(NumberComparisonOperator.class, operator)) {
+                            logger.warn(String.format("[%s] Wrong operator '%s' in condition %d, skipping", logId, operator, i));
+                            continue;
+                        }
+
+                        // parse the value
+                        BigDecimal conditionValue;
+                        try {
+                            conditionValue = value==null ? BigDecimal.ZERO : new BigDecimal(value.trim());
+                        } catch (NumberFormatException e) {
+                            logger.warn(String.format("[%s] Failed to parse number '%s' in condition %d, skipping", logId, value, i));
+                            continue;
+                        }
+
+                        // get the defined value
+                        Object definedValue = variables.getValue(variableName);
+                        if (!(definedValue instanceof BigDecimal)) {
+                            logger.warn(String.format("[%s] Variable '%s' has no decimal value in condition %d, skipping", logId, variableName, i));
+                            continue;
+                        }
+
+                        // add condition
+                        conditionPlan.add(String.valueOf(i), new DecimalCondition(
+                                (BigDecimal) definedValue,
+                                NumberComparisonOperator.valueOf(operator),
+                                conditionValue)
+                        );
+                        break;
+                    }
+                    case WF_VAR_BOOLEAN: {
+
+                        // verify comparison operator
+                        if (!EnumUtils.isValidEnum(BooleanComparisonOperator.class, operator)) {
+                            logger.warn(String.format("[%s] Wrong operator '%s' in condition %d, skipping", logId, operator, i));
+                            continue;
+                        }
+
+                        // add condition
+                        conditionPlan.add(String.valueOf(i), new BooleanCondition(
+                                Boolean.TRUE.equals(variables.getValue(variableName)),
+                                BooleanComparisonOperator.valueOf(operator))
+                        );
+                        break;
+                    }
+                    case WF_VAR_DATE: {
+
+                        // verify comparison operator
+                        if (!EnumUtils.isValidEnum(DateComparisonOperator.class, operator)) {
+                            logger.warn(String.format("[%s] Wrong operator '%s' in condition %d, skipping", logId, operator, i));
+                            continue;
+                        }
+
+                        // parse the value
+                        Date conditionValue;
                         try {
-                            definedValue = Long.parseLong(variable.getString("definedValue"));
+                            conditionValue = new SimpleDateFormat("yyyy-MM-dd").parse(value);
                         } catch (Exception e) {
-                            logger.warn(String.format("[%s] Failed to retrieve long value from variable '%s' in condition %d, skipping", logId, variableName, i));
+                            logger.warn(String.format("[%s] Failed to parse date '%s' in condition %d, skipping", logId, value, i));
+                            continue;
+                        }
+
+                        // get the defined value
+                        Object definedValue = variables.getValue(variableName);
+                        if (!(definedValue instanceof Date)) {
+                            logger.warn(String.format("[%s] Variable '%s' has no date value in condition %d, skipping", logId, variableName, i));
                             continue;
                         }
 
                         // add condition
-                        workflowConditions.add(new NumberCondition(
-                                definedValue,
-                                NumberComparisonOperator.valueOf(operator),
+                        conditionPlan.add(String.valueOf(i), new DateCondition(
+                                (Date) definedValue,
+                                DateComparisonOperator.valueOf(operator),
                                 conditionValue)
                         );
                         break;
@@ -317,8 +356,8 @@ public class WorkflowConditionActivity extends AbstractWorkflowActivity {
                         }
 
                         // add condition
-                        String definedValue = variable.getString("definedValue");
-                        workflowConditions.add(new TextCondition(
+                        String definedValue = variables.getText(variableName);
+                        conditionPlan.add(String.valueOf(i), new TextCondition(
                                 definedValue,
                                 TextComparisonOperator.valueOf(operator),
                                 value)
@@ -329,40 +368,20 @@ public class WorkflowConditionActivity extends AbstractWorkflowActivity {
             }
         } else if (conditionType == WorkflowConditionType.WF_CONDITION_SCRIPT) {
 
+            // get the variables
+            Map<String, Object> variables = instance.getVariables(ec).getValues();
+
             // convert and add conditions
-            for (int i=0; i<conditions.length(); i++) {
-                JSONObject condition = conditions.getJSONObject(i);
-                String script = condition.has("script") ? condition.getString("script") : null;
+            for (WorkflowConditionConfig condition : config.getConditions()) {
 
                 // add condition
-                workflowConditions.add(new ScriptCondition(script));
+                String cacheKey = String.format("%s:%s:%d", activity.getWorkflowId(), activityId, condition.getIndex());
+                conditionPlan.add(String.valueOf(condition.getIndex()), new ScriptCondition(cacheKey, condition.getScript(), condition.getExpression(), variables));
             }
         }
 
-        // evaluate conditions
-        boolean conditionsMet = joinOperator == EntityCondition.JoinOperator.AND;
-        for (WorkflowCondition condition : workflowConditions) {
-
-            // evaluate
-            logger.debug(String.format("[%s] Evaluating condition: %s", logId, condition.toString()));
-            boolean success;
-            try {
-                success = condition.evaluate(ec, instance);
-            } catch (Exception e) {
-                logger.error(String.format("[%s] An error occurred while evaluating condition: %s", logId, e.getMessage()), e);
-                continue;
-            }
-
-            // join the result
-            logger.debug(String.format("[%s] Condition evaluates to %s", logId, success));
-            if (joinOperator == EntityCondition.JoinOperator.OR && success) {
-                conditionsMet = true;
-                break;
-            } else if (joinOperator == EntityCondition.JoinOperator.AND && !success) {
-                conditionsMet = false;
-                break;
-            }
-        }
+        // evaluate conditions, cheapest first
+        boolean conditionsMet = conditionPlan.evaluate(ec, instance.getInstance(), logId);
 
         // create event
         WorkflowUtil.createWorkflowEvent(
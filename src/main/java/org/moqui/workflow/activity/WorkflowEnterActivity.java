@@ -18,33 +18,31 @@ import org.moqui.workflow.util.WorkflowEventType;
 import org.moqui.workflow.util.WorkflowUtil;
 import org.apache.commons.lang3.time.StopWatch;
 import org.moqui.context.ExecutionContext;
-import org.moqui.entity.EntityValue;
+import org.moqui.workflow.definition.WorkflowActivityDefinition;
+import org.moqui.workflow.util.WorkflowActivityType;
+import org.moqui.workflow.instance.WorkflowInstanceState;
 
 /**
  * Workflow activity used as an entry point for any workflow instance.
  */
 public class WorkflowEnterActivity extends AbstractWorkflowActivity {
 
-    /**
-     * Creates a new activity.
-     *
-     * @param activity Activity entity
-     */
-    public WorkflowEnterActivity(EntityValue activity) {
-        this.activity = activity;
+    @Override
+    public String getActivityTypeEnumId() {
+        return WorkflowActivityType.WF_ACTIVITY_ENTER.name();
     }
 
     @Override
-    public boolean execute(ExecutionContext ec, EntityValue instance) {
+    public boolean execute(ExecutionContext ec, WorkflowActivityDefinition activity, WorkflowInstanceState instance) {
 
         // start the stop watch
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
 
         // get attributes
-        String activityId = activity.getString("activityId");
-        String activityTypeEnumId = activity.getString("activityTypeEnumId");
-        String activityTypeDescription = activity.getString("activityTypeDescription");
+        String activityId = activity.getActivityId();
+        String activityTypeEnumId = activity.getActivityTypeEnumId();
+        String activityTypeDescription = activity.getActivityTypeDescription();
         String instanceId = instance.getString("instanceId");
 
         // generate a new log ID
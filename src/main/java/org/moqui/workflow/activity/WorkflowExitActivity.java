@@ -14,44 +14,43 @@
 package org.moqui.workflow.activity;
 
 import org.moqui.util.ContextUtil;
-import org.moqui.util.TimestampUtil;
 import org.moqui.workflow.util.WorkflowEventType;
 import org.moqui.workflow.util.WorkflowInstanceStatus;
 import org.moqui.workflow.util.WorkflowUtil;
 import org.apache.commons.lang3.time.StopWatch;
 import org.json.JSONObject;
 import org.moqui.context.ExecutionContext;
-import org.moqui.entity.EntityValue;
-import org.moqui.service.ServiceFacade;
+import org.moqui.workflow.definition.ExitActivityConfig;
+import org.moqui.workflow.definition.WorkflowActivityDefinition;
+import org.moqui.workflow.util.WorkflowActivityType;
+import org.moqui.workflow.instance.WorkflowInstanceState;
 
 /**
  * Workflow activity used as an exit point to stop a workflow instance.
  */
 public class WorkflowExitActivity extends AbstractWorkflowActivity {
 
-    /**
-     * Creates a new activity.
-     *
-     * @param activity Activity entity
-     */
-    public WorkflowExitActivity(EntityValue activity) {
-        this.activity = activity;
+    @Override
+    public String getActivityTypeEnumId() {
+        return WorkflowActivityType.WF_ACTIVITY_EXIT.name();
     }
 
     @Override
-    public boolean execute(ExecutionContext ec, EntityValue instance) {
+    public ExitActivityConfig parseConfig(JSONObject nodeData) {
+        return new ExitActivityConfig(nodeData);
+    }
+
+    @Override
+    public boolean execute(ExecutionContext ec, WorkflowActivityDefinition activity, WorkflowInstanceState instance) {
 
         // start the stop watch
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
 
-        // shortcuts for convenience
-        ServiceFacade sf = ec.getService();
-
         // get attributes
-        String activityId = activity.getString("activityId");
-        String activityTypeEnumId = activity.getString("activityTypeEnumId");
-        String activityTypeDescription = activity.getString("activityTypeDescription");
+        String activityId = activity.getActivityId();
+        String activityTypeEnumId = activity.getActivityTypeEnumId();
+        String activityTypeDescription = activity.getActivityTypeDescription();
         String instanceId = instance.getString("instanceId");
 
         // generate a new log ID
@@ -59,17 +58,13 @@ public class WorkflowExitActivity extends AbstractWorkflowActivity {
         logger.debug(String.format("[%s] Executing %s activity (%s) ...", logId, activityTypeEnumId, activityId));
 
         // get attributes
-        JSONObject nodeData = new JSONObject(activity.getString("nodeData"));
-        Integer resultCode = nodeData.has("resultCode") ? nodeData.getInt("resultCode") : null;
+        ExitActivityConfig config = activity.getConfig(ExitActivityConfig.class);
+        Integer resultCode = config.getResultCode();
 
         // update workflow instance
         logger.debug(String.format("[%s] Exiting instance %s with result code %s", logId, instanceId, resultCode));
-        sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                .parameter("instanceId", instanceId)
-                .parameter("statusId", WorkflowInstanceStatus.WF_INST_STAT_COMPLETE)
-                .parameter("resultCode", resultCode)
-                .parameter("lastUpdateDate", TimestampUtil.now())
-                .call();
+        instance.setStatusId(WorkflowInstanceStatus.WF_INST_STAT_COMPLETE.name());
+        instance.setResultCode(resultCode);
 
         // create event
         WorkflowUtil.createWorkflowEvent(
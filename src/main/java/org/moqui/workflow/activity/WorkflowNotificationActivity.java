@@ -14,22 +14,19 @@
 package org.moqui.workflow.activity;
 
 import org.moqui.util.ContextUtil;
-import org.moqui.util.TimestampUtil;
-import org.moqui.workflow.util.WorkflowCrowdType;
+import org.moqui.workflow.util.WorkflowCrowdResolver;
 import org.moqui.workflow.util.WorkflowEventType;
 import org.moqui.workflow.util.WorkflowNotificationType;
 import org.moqui.workflow.util.WorkflowUtil;
-import org.apache.commons.lang3.EnumUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.json.JSONObject;
 import org.moqui.context.ExecutionContext;
-import org.moqui.entity.EntityFacade;
-import org.moqui.entity.EntityList;
-import org.moqui.entity.EntityValue;
+import org.moqui.workflow.definition.NotificationActivityConfig;
+import org.moqui.workflow.definition.WorkflowActivityDefinition;
+import org.moqui.workflow.util.WorkflowActivityType;
+import org.moqui.workflow.instance.WorkflowInstanceState;
 import org.moqui.service.ServiceFacade;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -38,30 +35,30 @@ import java.util.Map;
  */
 public class WorkflowNotificationActivity extends AbstractWorkflowActivity {
 
-    /**
-     * Creates a new activity.
-     *
-     * @param activity Activity entity
-     */
-    public WorkflowNotificationActivity(EntityValue activity) {
-        this.activity = activity;
+    @Override
+    public String getActivityTypeEnumId() {
+        return WorkflowActivityType.WF_ACTIVITY_NOTIFY.name();
+    }
+
+    @Override
+    public NotificationActivityConfig parseConfig(JSONObject nodeData) {
+        return new NotificationActivityConfig(nodeData);
     }
 
     @Override
-    public boolean execute(ExecutionContext ec, EntityValue instance) {
+    public boolean execute(ExecutionContext ec, WorkflowActivityDefinition activity, WorkflowInstanceState instance) {
 
         // start the stop watch
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
 
         // shortcuts for convenience
-        EntityFacade ef = ec.getEntity();
         ServiceFacade sf = ec.getService();
 
         // get attributes
-        String activityId = activity.getString("activityId");
-        String activityTypeEnumId = activity.getString("activityTypeEnumId");
-        String activityTypeDescription = activity.getString("activityTypeDescription");
+        String activityId = activity.getActivityId();
+        String activityTypeEnumId = activity.getActivityTypeEnumId();
+        String activityTypeDescription = activity.getActivityTypeDescription();
         String instanceId = instance.getString("instanceId");
         String inputUserId = instance.getString("inputUserId");
 
@@ -70,54 +67,23 @@ public class WorkflowNotificationActivity extends AbstractWorkflowActivity {
         logger.debug(String.format("[%s] Executing %s activity (%s) ...", logId, activityTypeEnumId, activityId));
 
         // get attributes
-        JSONObject nodeData = new JSONObject(activity.getString("nodeData"));
-        WorkflowNotificationType notificationType = nodeData.has("notificationTypeEnumId") ? EnumUtils.getEnum(WorkflowNotificationType.class, nodeData.getString("notificationTypeEnumId")) : null;
-        WorkflowCrowdType crowdType = nodeData.has("crowdTypeEnumId") ? EnumUtils.getEnum(WorkflowCrowdType.class, nodeData.getString("crowdTypeEnumId")) : null;
-        String userId = nodeData.has("userId") ? nodeData.getString("userId") : null;
-        String userGroupId = nodeData.has("userGroupId") ? nodeData.getString("userGroupId") : null;
-        String message = nodeData.has("message") ? nodeData.getString("message") : null;
+        NotificationActivityConfig config = activity.getConfig(NotificationActivityConfig.class);
+        WorkflowNotificationType notificationType = config.getNotificationType();
+        String message = config.getMessage();
 
         // init body parameters
         Map<String, String> bodyParameters = new HashMap<>();
         bodyParameters.put("message", message);
 
-        // get the user accounts
-        ArrayList<EntityValue> userAccounts = new ArrayList<>();
-        if (crowdType == WorkflowCrowdType.WF_CROWD_USER && StringUtils.isNotBlank(userId)) {
-            EntityValue userAccount = ef.find("moqui.security.UserAccount")
-                    .condition("userId", userId)
-                    .one();
-            if (userAccount!=null) {
-                userAccounts.add(userAccount);
-            }
-        } else if (crowdType == WorkflowCrowdType.WF_CROWD_USER_GROUP && StringUtils.isNotBlank(userGroupId)) {
-            EntityList groupMembers = ef.find("moqui.security.UserGroupMember")
-                    .condition("userGroupId", userGroupId)
-                    .conditionDate("fromDate", "thruDate", TimestampUtil.now())
-                    .list();
-            for (EntityValue groupMember : groupMembers) {
-                EntityValue userAccount = ef.find("moqui.security.UserAccount")
-                        .condition("userId", groupMember.getString("userId"))
-                        .one();
-                if (userAccount != null) {
-                    userAccounts.add(userAccount);
-                }
-            }
-        } else if (crowdType == WorkflowCrowdType.WF_CROWD_INITIATOR) {
-            EntityValue userAccount = ef.find("moqui.security.UserAccount")
-                    .condition("userId", inputUserId)
-                    .one();
-            if (userAccount != null) {
-                userAccounts.add(userAccount);
-            }
-        }
+        // get the users
+        Map<String, String> users = WorkflowCrowdResolver.resolve(ec, config.getCrowd(), inputUserId);
 
         // send notification
         if (notificationType == WorkflowNotificationType.WF_NOTIFY_EMAIL) {
-            for(EntityValue userAccount : userAccounts) {
+            for(String emailAddress : users.values()) {
                 sf.async().name("org.moqui.impl.EmailServices.send#EmailTemplate")
                         .parameter("emailTemplateId", "PF_WF_EMAIL")
-                        .parameter("toAddresses", userAccount.getString("emailAddress"))
+                        .parameter("toAddresses", emailAddress)
                         .parameter("bodyParameters", bodyParameters)
                         .call();
             }
@@ -20,7 +20,10 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.json.JSONObject;
 import org.moqui.context.ExecutionContext;
-import org.moqui.entity.EntityValue;
+import org.moqui.workflow.definition.ServiceActivityConfig;
+import org.moqui.workflow.definition.WorkflowActivityDefinition;
+import org.moqui.workflow.util.WorkflowActivityType;
+import org.moqui.workflow.instance.WorkflowInstanceState;
 import org.moqui.service.ServiceException;
 import org.moqui.service.ServiceFacade;
 
@@ -31,17 +34,18 @@ import java.util.Map;
  */
 public class WorkflowServiceActivity extends AbstractWorkflowActivity {
 
-    /**
-     * Creates a new activity.
-     *
-     * @param activity Activity entity
-     */
-    public WorkflowServiceActivity(EntityValue activity) {
-        this.activity = activity;
+    @Override
+    public String getActivityTypeEnumId() {
+        return WorkflowActivityType.WF_ACTIVITY_SERVICE.name();
+    }
+
+    @Override
+    public ServiceActivityConfig parseConfig(JSONObject nodeData) {
+        return new ServiceActivityConfig(nodeData);
     }
 
     @Override
-    public boolean execute(ExecutionContext ec, EntityValue instance) {
+    public boolean execute(ExecutionContext ec, WorkflowActivityDefinition activity, WorkflowInstanceState instance) {
 
         // start the stop watch
         StopWatch stopWatch = new StopWatch();
@@ -51,9 +55,9 @@ public class WorkflowServiceActivity extends AbstractWorkflowActivity {
         ServiceFacade sf = ec.getService();
 
         // get attributes
-        String activityId = activity.getString("activityId");
-        String activityTypeEnumId = activity.getString("activityTypeEnumId");
-        String activityTypeDescription = activity.getString("activityTypeDescription");
+        String activityId = activity.getActivityId();
+        String activityTypeEnumId = activity.getActivityTypeEnumId();
+        String activityTypeDescription = activity.getActivityTypeDescription();
         String instanceId = instance.getString("instanceId");
 
         // generate a new log ID
@@ -61,9 +65,9 @@ public class WorkflowServiceActivity extends AbstractWorkflowActivity {
         logger.debug(String.format("[%s] Executing %s activity (%s) ...", logId, activityTypeEnumId, activityId));
 
         // get service name
-        JSONObject nodeData = new JSONObject(activity.getString("nodeData"));
-        String serviceName = nodeData.has("serviceName") ? nodeData.getString("serviceName").trim() : null;
-        String parameters = nodeData.has("parameters") ? nodeData.getString("parameters") : null;
+        ServiceActivityConfig config = activity.getConfig(ServiceActivityConfig.class);
+        String serviceName = config.getServiceName();
+        String parameters = config.getParameters();
 
         // execute service
         if(StringUtils.isNotBlank(serviceName)) {
@@ -71,7 +75,7 @@ public class WorkflowServiceActivity extends AbstractWorkflowActivity {
             try {
                 Map<String, Object> response = sf.sync()
                         .name(serviceName)
-                        .parameter("instance", instance)
+                        .parameter("instance", instance.getInstance())
                         .parameter("parameters", parameters)
                         .call();
                 logger.debug(String.format("[%s] Service executed successfully", logId));
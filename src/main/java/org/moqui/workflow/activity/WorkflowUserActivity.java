@@ -13,26 +13,27 @@
  */
 package org.moqui.workflow.activity;
 
-import org.apache.commons.lang3.EnumUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.lang3.time.StopWatch;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import org.moqui.context.ExecutionContext;
-import org.moqui.entity.EntityFacade;
-import org.moqui.entity.EntityList;
-import org.moqui.entity.EntityValue;
+import org.moqui.workflow.definition.UserActivityConfig;
+import org.moqui.workflow.definition.WorkflowActivityDefinition;
+import org.moqui.workflow.definition.WorkflowCrowdConfig;
+import org.moqui.workflow.instance.WorkflowApprovalTally;
+import org.moqui.workflow.instance.WorkflowInstanceState;
+import org.moqui.workflow.instance.WorkflowTaskWriter;
 import org.moqui.service.ServiceFacade;
 import org.moqui.util.ContextUtil;
 import org.moqui.util.TimeFrequency;
-import org.moqui.util.TimestampUtil;
 import org.moqui.workflow.util.*;
 
 import java.math.BigDecimal;
 import java.sql.Timestamp;
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -40,30 +41,30 @@ import java.util.Map;
  */
 public class WorkflowUserActivity extends AbstractWorkflowActivity {
 
-    /**
-     * Creates a new activity.
-     *
-     * @param  activity Activity entity
-     */
-    public WorkflowUserActivity(EntityValue  activity) {
-        this. activity =  activity;
+    @Override
+    public String getActivityTypeEnumId() {
+        return WorkflowActivityType.WF_ACTIVITY_USER.name();
+    }
+
+    @Override
+    public UserActivityConfig parseConfig(JSONObject nodeData) {
+        return new UserActivityConfig(nodeData);
     }
 
     @Override
-    public boolean execute(ExecutionContext ec, EntityValue instance) {
+    public boolean execute(ExecutionContext ec, WorkflowActivityDefinition activity, WorkflowInstanceState instance) {
 
         // start the stop watch
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
 
         // shortcuts for convenience
-        EntityFacade ef = ec.getEntity();
         ServiceFacade sf = ec.getService();
 
         // get attributes
-        String activityId = activity.getString("activityId");
-        String activityTypeEnumId = activity.getString("activityTypeEnumId");
-        String activityTypeDescription = activity.getString("activityTypeDescription");
+        String activityId = activity.getActivityId();
+        String activityTypeEnumId = activity.getActivityTypeEnumId();
+        String activityTypeDescription = activity.getActivityTypeDescription();
         String instanceId = instance.getString("instanceId");
         String inputUserId = instance.getString("inputUserId");
 
@@ -72,68 +73,33 @@ public class WorkflowUserActivity extends AbstractWorkflowActivity {
         logger.debug(String.format("[%s] Executing %s activity (%s) ...", logId, activityTypeEnumId, activityId));
 
         // get attributes
-        JSONObject nodeData = new JSONObject(activity.getString("nodeData"));
-        WorkflowTaskType taskType = nodeData.has("taskTypeEnumId") ? EnumUtils.getEnum(WorkflowTaskType.class, nodeData.getString("taskTypeEnumId")) : null;
-        JSONArray crowds = nodeData.has("crowds") ? nodeData.getJSONArray("crowds") : new JSONArray();
-        String variableId = nodeData.has("variableId") ? nodeData.getString("variableId") : null;
-        String summary = nodeData.has("summary") ? nodeData.getString("summary") : null;
-        String description = nodeData.has("description") ? nodeData.getString("description") : null;
-        int timeoutInterval = nodeData.has("timeoutInterval") ? nodeData.getInt("timeoutInterval") : 0;
-        String timeoutUomId = nodeData.has("timeoutUomId") ? nodeData.getString("timeoutUomId") : null;
-
-        // get the user accounts
-        ArrayList<EntityValue> userAccounts = new ArrayList<>();
-        for (int i=0; i<crowds.length(); i++) {
-            JSONObject crowd = crowds.getJSONObject(i);
-            WorkflowCrowdType crowdType = crowd.has("crowdTypeEnumId") ? EnumUtils.getEnum(WorkflowCrowdType.class, crowd.getString("crowdTypeEnumId")) : null;
-            String userId = crowd.has("userId") ? crowd.getString("userId") : null;
-            String userGroupId = crowd.has("userGroupId") ? crowd.getString("userGroupId") : null;
-
-            if (crowdType == WorkflowCrowdType.WF_CROWD_USER && StringUtils.isNotBlank(userId)) {
-                EntityValue userAccount = ef.find("moqui.security.UserAccount")
-                        .condition("userId", userId)
-                        .one();
-                if (userAccount!=null) {
-                    userAccounts.add(userAccount);
-                }
-            } else if (crowdType == WorkflowCrowdType.WF_CROWD_USER_GROUP && StringUtils.isNotBlank(userGroupId)) {
-                EntityList groupMembers = ef.find("moqui.security.UserGroupMember")
-                        .condition("userGroupId", userGroupId)
-                        .conditionDate("fromDate", "thruDate", TimestampUtil.now())
-                        .list();
-                for (EntityValue groupMember : groupMembers) {
-                    EntityValue userAccount = ef.find("moqui.security.UserAccount")
-                            .condition("userId", groupMember.getString("userId"))
-                            .one();
-                    if (userAccount != null) {
-                        userAccounts.add(userAccount);
-                    }
-                }
-            } else if (crowdType == WorkflowCrowdType.WF_CROWD_INITIATOR) {
-                EntityValue userAccount = ef.find("moqui.security.UserAccount")
-                        .condition("userId", inputUserId)
-                        .one();
-                if (userAccount != null) {
-                    userAccounts.add(userAccount);
-                }
+        UserActivityConfig config = activity.getConfig(UserActivityConfig.class);
+        WorkflowTaskType taskType = config.getTaskType();
+        String variableId = config.getVariableId();
+        String summary = config.getSummary();
+        String description = config.getDescription();
+        int timeoutInterval = config.getTimeoutInterval();
+        String timeoutUomId = config.getTimeoutUomId();
+
+        // get the users and claimable groups, each user gets a single task even if in several crowds
+        LinkedHashSet<String> userIds = new LinkedHashSet<>();
+        LinkedHashSet<String> userGroupIds = new LinkedHashSet<>();
+        for (WorkflowCrowdConfig crowd : config.getCrowds()) {
+            if (crowd.isClaimable()) {
+                userGroupIds.add(crowd.getUserGroupId());
+            } else {
+                userIds.addAll(WorkflowCrowdResolver.resolve(ec, crowd, inputUserId).keySet());
             }
         }
 
         // create tasks
-        for(EntityValue userAccount : userAccounts) {
-            String userId = userAccount.getString("userId");
-            Map<String, Object> resp = sf.sync().name("create#moqui.workflow.WorkflowInstanceTask")
-                    .parameter("instanceId", instanceId)
-                    .parameter("activityId", activityId)
-                    .parameter("assignedUserId", userId)
-                    .parameter("taskTypeEnumId", taskType)
-                    .parameter("variableId", variableId)
-                    .parameter("statusId", WorkflowTaskStatus.WF_TASK_STAT_PEND)
-                    .parameter("summary", summary)
-                    .parameter("description", description)
-                    .call();
-            String taskId = (String) resp.get("taskId");
-            logger.debug(String.format("[%s] Added task %s for user %s", logId, taskId, userId));
+        List<String> taskIds = WorkflowTaskWriter.createTasks(ec, instanceId, activityId, taskType, variableId, summary, description, userIds);
+        List<String> groupTaskIds = WorkflowTaskWriter.createGroupTasks(ec, instanceId, activityId, taskType, variableId, summary, description, userGroupIds);
+        logger.debug(String.format("[%s] Added %d user tasks and %d group tasks", logId, taskIds.size(), groupTaskIds.size()));
+
+        // create the approval tallies
+        if (taskType == WorkflowTaskType.WF_TASK_APPROVAL) {
+            WorkflowApprovalTally.initialize(ec, instanceId, activityId, config.getCrowds().size());
         }
 
         // set the instance timeout
@@ -147,11 +113,7 @@ public class WorkflowUserActivity extends AbstractWorkflowActivity {
 
             Date timeoutDate = DateUtils.addMinutes(new Date(), timeoutIntervalMins);
             Timestamp timeoutDateTs = new Timestamp(timeoutDate.getTime());
-            sf.sync().name("update#moqui.workflow.WorkflowInstance")
-                    .parameter("instanceId", instanceId)
-                    .parameter("timeoutDate", timeoutDateTs)
-                    .parameter("lastUpdateDate", TimestampUtil.now())
-                    .call();
+            instance.setTimeoutDate(timeoutDateTs);
         }
 
         // create event
@@ -0,0 +1,76 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.condition;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityValue;
+
+/**
+ * Field condition evaluated by the database. The condition is met when the primary entity row matches the
+ * entity condition, so the row itself is never loaded.
+ */
+public class FieldCondition implements WorkflowCondition {
+
+    /**
+     * Entity the condition applies to.
+     */
+    private final String entityName;
+    /**
+     * Primary key field name.
+     */
+    private final String primaryKeyField;
+    /**
+     * Primary key value.
+     */
+    private final String primaryKeyValue;
+    /**
+     * Entity condition.
+     */
+    private final EntityCondition condition;
+
+    /**
+     * Creates a new condition.
+     *
+     * @param entityName Entity the condition applies to
+     * @param primaryKeyField Primary key field name
+     * @param primaryKeyValue Primary key value
+     * @param condition Entity condition
+     */
+    public FieldCondition(String entityName, String primaryKeyField, String primaryKeyValue, EntityCondition condition) {
+        this.entityName = entityName;
+        this.primaryKeyField = primaryKeyField;
+        this.primaryKeyValue = primaryKeyValue;
+        this.condition = condition;
+    }
+
+    @Override
+    public boolean evaluate(ExecutionContext ec, EntityValue instance) throws Exception {
+        return ec.getEntity().find(entityName)
+                .condition(primaryKeyField, primaryKeyValue)
+                .condition(condition)
+                .useCache(false)
+                .count() > 0;
+    }
+
+    @Override
+    public int getCost() {
+        return COST_QUERY;
+    }
+
+    @Override
+    public String toString() {
+        return condition.toString();
+    }
+}
@@ -13,60 +13,61 @@
  */
 package org.moqui.workflow.condition;
 
-import org.apache.commons.lang3.RandomStringUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.moqui.context.ExecutionContext;
-import org.moqui.entity.EntityFacade;
-import org.moqui.entity.EntityList;
 import org.moqui.entity.EntityValue;
+import org.moqui.workflow.expression.WorkflowExpression;
+import org.moqui.workflow.script.WorkflowScriptRuntime;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
+import java.util.Map;
 
 /**
- * Script condition.
+ * Script condition. Scripts written as workflow expressions are evaluated natively, other scripts are
+ * evaluated by the script runtime.
  */
 public class ScriptCondition implements WorkflowCondition {
 
+    /**
+     * Key identifying the script in the script runtime.
+     */
+    private final String cacheKey;
     /**
      * Script code.
      */
-    private String script;
+    private final String script;
+    /**
+     * Parsed script, {@code null} if the script is not a workflow expression.
+     */
+    private final WorkflowExpression expression;
+    /**
+     * Instance variable values by name.
+     */
+    private final Map<String, Object> variables;
 
     /**
      * Creates a new condition.
      *
+     * @param cacheKey Key identifying the script, unique per workflow, activity and condition
      * @param script Script code
+     * @param expression Parsed script or {@code null} if the script is not a workflow expression
+     * @param variables Instance variable values by name
      */
-    public ScriptCondition(String script) {
+    public ScriptCondition(String cacheKey, String script, WorkflowExpression expression, Map<String, Object> variables) {
+        this.cacheKey = cacheKey;
         this.script = script;
+        this.expression = expression;
+        this.variables = variables;
     }
 
     @Override
     public boolean evaluate(ExecutionContext ec, EntityValue instance) throws Exception {
 
-        // shortcuts for convenience
-        EntityFacade ef = ec.getEntity();
-
-        // init script engine
-        ScriptEngineManager manager = new ScriptEngineManager();
-        ScriptEngine engine = manager.getEngineByName("JavaScript");
-
-        // replace properties
-        script = script.replaceAll(" ", "");
-        EntityList variables = ef.find("moqui.workflow.WorkflowInstanceVariableDetail")
-                .condition("instanceId", instance.get("instanceId"))
-                .list();
-        for (EntityValue variable : variables) {
-            String variableName = variable.getString("variableName");
-            Object definedValue = variable.get("definedValue");
-            String tempVariableName = RandomStringUtils.randomAlphabetic(4);
-            script = StringUtils.replace(script, String.format("{{%s}}", variableName), tempVariableName);
-            engine.put(tempVariableName, definedValue);
+        // evaluate expression
+        if (expression != null) {
+            return expression.evaluateCondition(variables);
         }
 
         // evaluate script
-        Object result = engine.eval(script);
+        Object result = WorkflowScriptRuntime.getInstance().evaluate(cacheKey, script, variables);
 
         // process result
         if (result instanceof Boolean) {
@@ -78,6 +79,11 @@ public class ScriptCondition implements WorkflowCondition {
         }
     }
 
+    @Override
+    public int getCost() {
+        return expression != null ? COST_EXPRESSION : COST_SCRIPT;
+    }
+
     @Override
     public String toString() {
         return script;
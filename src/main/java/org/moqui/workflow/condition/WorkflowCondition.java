@@ -21,6 +21,23 @@ import org.moqui.entity.EntityValue;
  */
 public interface WorkflowCondition {
 
+    /**
+     * Cost of conditions comparing values already in memory.
+     */
+    int COST_MEMORY = 1;
+    /**
+     * Cost of conditions evaluating a parsed expression.
+     */
+    int COST_EXPRESSION = 2;
+    /**
+     * Cost of conditions running a query.
+     */
+    int COST_QUERY = 50;
+    /**
+     * Cost of conditions running a script.
+     */
+    int COST_SCRIPT = 100;
+
     /**
      * Evaluates the condition.
      *
@@ -30,4 +47,13 @@ public interface WorkflowCondition {
      * @throws Exception if an error occurs while evaluating condition
      */
     boolean evaluate(ExecutionContext ec, EntityValue instance) throws Exception;
+
+    /**
+     * Gets the estimated evaluation cost, cheaper conditions are evaluated first.
+     *
+     * @return Relative cost
+     */
+    default int getCost() {
+        return COST_MEMORY;
+    }
 }
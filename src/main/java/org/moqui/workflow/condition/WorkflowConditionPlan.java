@@ -0,0 +1,147 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.condition;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Evaluation plan of the conditions of a condition activity.
+ * <p>
+ * Conditions are evaluated cheapest first, see {@link WorkflowCondition#getCost()}, and evaluation stops as
+ * soon as the join result is decided. Conditions have no side effects and failing conditions are ignored,
+ * so the order does not change the result. Every evaluation is recorded in {@link WorkflowConditionStats}.
+ */
+public class WorkflowConditionPlan {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowConditionPlan.class);
+
+    /**
+     * Workflow ID.
+     */
+    private final String workflowId;
+    /**
+     * Activity ID.
+     */
+    private final String activityId;
+    /**
+     * Operator joining the conditions.
+     */
+    private final EntityCondition.JoinOperator joinOperator;
+    /**
+     * Planned conditions.
+     */
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * Creates a new plan.
+     *
+     * @param workflowId Workflow ID
+     * @param activityId Activity ID
+     * @param joinOperator Operator joining the conditions
+     */
+    public WorkflowConditionPlan(String workflowId, String activityId, EntityCondition.JoinOperator joinOperator) {
+        this.workflowId = workflowId;
+        this.activityId = activityId;
+        this.joinOperator = joinOperator;
+    }
+
+    /**
+     * Adds a condition to the plan.
+     *
+     * @param conditionId Condition ID within the activity, e.g. its position
+     * @param condition Condition
+     */
+    public void add(String conditionId, WorkflowCondition condition) {
+        steps.add(new Step(condition, WorkflowConditionStats.get(workflowId, activityId, conditionId, condition)));
+    }
+
+    /**
+     * Evaluates the conditions. Without conditions an AND join is met and an OR join is not.
+     *
+     * @param ec Execution context
+     * @param instance Workflow instance
+     * @param logId Log ID
+     * @return {@code true} if the conditions are met
+     */
+    public boolean evaluate(ExecutionContext ec, EntityValue instance, String logId) {
+        List<Step> orderedSteps = new ArrayList<>(steps);
+        orderedSteps.sort(Comparator.comparingInt(step -> step.condition.getCost()));
+
+        boolean conditionsMet = joinOperator == EntityCondition.JoinOperator.AND;
+        for (int i = 0; i < orderedSteps.size(); i++) {
+            Step step = orderedSteps.get(i);
+
+            // evaluate
+            logger.debug(String.format("[%s] Evaluating condition: %s", logId, step.condition.toString()));
+            long startNanos = System.nanoTime();
+            boolean success;
+            try {
+                success = step.condition.evaluate(ec, instance);
+            } catch (Exception e) {
+                step.stats.recordEvaluation(System.nanoTime() - startNanos, null);
+                logger.error(String.format("[%s] An error occurred while evaluating condition: %s", logId, e.getMessage()), e);
+                continue;
+            }
+            step.stats.recordEvaluation(System.nanoTime() - startNanos, success);
+
+            // join the result
+            logger.debug(String.format("[%s] Condition evaluates to %s", logId, success));
+            if (joinOperator == EntityCondition.JoinOperator.OR && success) {
+                conditionsMet = true;
+            } else if (joinOperator == EntityCondition.JoinOperator.AND && !success) {
+                conditionsMet = false;
+            } else {
+                continue;
+            }
+
+            // the result is decided, skip the remaining conditions
+            for (int j = i + 1; j < orderedSteps.size(); j++) {
+                orderedSteps.get(j).stats.recordSkip();
+            }
+            break;
+        }
+        return conditionsMet;
+    }
+
+    /**
+     * Planned condition and its statistics.
+     */
+    private static final class Step {
+
+        /**
+         * Condition.
+         */
+        private final WorkflowCondition condition;
+        /**
+         * Condition statistics.
+         */
+        private final WorkflowConditionStats stats;
+
+        private Step(WorkflowCondition condition, WorkflowConditionStats stats) {
+            this.condition = condition;
+            this.stats = stats;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.condition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluation statistics of workflow conditions on this server, kept in memory since startup or the last reset.
+ */
+public final class WorkflowConditionStats {
+
+    /**
+     * Statistics by condition key.
+     */
+    private static final Map<String, WorkflowConditionStats> statsByKey = new ConcurrentHashMap<>();
+
+    /**
+     * Workflow ID.
+     */
+    private final String workflowId;
+    /**
+     * Activity ID.
+     */
+    private final String activityId;
+    /**
+     * Condition ID within the activity.
+     */
+    private final String conditionId;
+    /**
+     * Condition class name.
+     */
+    private final String conditionType;
+    /**
+     * Estimated cost.
+     */
+    private final int cost;
+    /**
+     * Number of evaluations.
+     */
+    private final LongAdder evaluationCount = new LongAdder();
+    /**
+     * Number of evaluations that were true.
+     */
+    private final LongAdder trueCount = new LongAdder();
+    /**
+     * Number of evaluations that failed.
+     */
+    private final LongAdder errorCount = new LongAdder();
+    /**
+     * Number of times the condition was not evaluated because the result was already decided.
+     */
+    private final LongAdder skippedCount = new LongAdder();
+    /**
+     * Total evaluation time in nanoseconds.
+     */
+    private final LongAdder totalNanos = new LongAdder();
+    /**
+     * Longest evaluation time in nanoseconds.
+     */
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Creates new statistics.
+     */
+    private WorkflowConditionStats(String workflowId, String activityId, String conditionId, String conditionType, int cost) {
+        this.workflowId = workflowId;
+        this.activityId = activityId;
+        this.conditionId = conditionId;
+        this.conditionType = conditionType;
+        this.cost = cost;
+    }
+
+    /**
+     * Gets the statistics of a condition, creating them on first use.
+     *
+     * @param workflowId Workflow ID
+     * @param activityId Activity ID
+     * @param conditionId Condition ID within the activity
+     * @param condition Condition
+     * @return Condition statistics
+     */
+    static WorkflowConditionStats get(String workflowId, String activityId, String conditionId, WorkflowCondition condition) {
+        String key = String.format("%s:%s:%s", workflowId, activityId, conditionId);
+        return statsByKey.computeIfAbsent(key, k -> new WorkflowConditionStats(workflowId, activityId, conditionId, condition.getClass().getSimpleName(), condition.getCost()));
+    }
+
+    /**
+     * Records an evaluation.
+     *
+     * @param nanos Evaluation time in nanoseconds
+     * @param result Evaluation result, {@code null} if the evaluation failed
+     */
+    void recordEvaluation(long nanos, Boolean result) {
+        evaluationCount.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+        if (result == null) {
+            errorCount.increment();
+        } else if (result) {
+            trueCount.increment();
+        }
+    }
+
+    /**
+     * Records that the condition was skipped.
+     */
+    void recordSkip() {
+        skippedCount.increment();
+    }
+
+    /**
+     * Lists the statistics, most expensive conditions first.
+     *
+     * @param workflowId Workflow ID to filter by, {@code null} for all workflows
+     * @return Statistics as maps
+     */
+    public static List<Map<String, Object>> list(String workflowId) {
+        List<WorkflowConditionStats> statsList = new ArrayList<>();
+        for (WorkflowConditionStats stats : statsByKey.values()) {
+            if (workflowId == null || workflowId.equals(stats.workflowId)) {
+                statsList.add(stats);
+            }
+        }
+        statsList.sort((a, b) -> Long.compare(b.totalNanos.sum(), a.totalNanos.sum()));
+
+        List<Map<String, Object>> resultList = new ArrayList<>(statsList.size());
+        for (WorkflowConditionStats stats : statsList) {
+            long evaluations = stats.evaluationCount.sum();
+            long nanos = stats.totalNanos.sum();
+            Map<String, Object> result = new HashMap<>();
+            result.put("workflowId", stats.workflowId);
+            result.put("activityId", stats.activityId);
+            result.put("conditionId", stats.conditionId);
+            result.put("conditionType", stats.conditionType);
+            result.put("cost", stats.cost);
+            result.put("evaluationCount", evaluations);
+            result.put("trueCount", stats.trueCount.sum());
+            result.put("errorCount", stats.errorCount.sum());
+            result.put("skippedCount", stats.skippedCount.sum());
+            result.put("totalMillis", nanos / 1000000L);
+            result.put("averageMicros", evaluations == 0 ? 0L : nanos / evaluations / 1000L);
+            result.put("maxMicros", stats.maxNanos.get() / 1000L);
+            resultList.add(result);
+        }
+        return resultList;
+    }
+
+    /**
+     * Clears the statistics.
+     *
+     * @param workflowId Workflow ID to clear, {@code null} for all workflows
+     */
+    public static void reset(String workflowId) {
+        statsByKey.values().removeIf(stats -> workflowId == null || workflowId.equals(stats.workflowId));
+    }
+}
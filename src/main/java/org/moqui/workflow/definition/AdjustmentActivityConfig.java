@@ -0,0 +1,79 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.json.JSONObject;
+import org.moqui.workflow.expression.WorkflowExpression;
+import org.moqui.workflow.util.WorkflowAdjustmentType;
+
+/**
+ * Immutable configuration of adjustment activities.
+ */
+public final class AdjustmentActivityConfig implements WorkflowActivityConfig {
+
+    /**
+     * Adjustment type.
+     */
+    private final WorkflowAdjustmentType adjustmentType;
+    /**
+     * Status set by status adjustments.
+     */
+    private final String statusId;
+    /**
+     * Variable set by variable adjustments.
+     */
+    private final String variableId;
+    /**
+     * Value expression of variable adjustments.
+     */
+    private final String definedValue;
+    /**
+     * Parsed value expression, {@code null} if the value is not a workflow expression.
+     */
+    private final WorkflowExpression valueExpression;
+
+    /**
+     * Parses an adjustment activity configuration.
+     *
+     * @param nodeData Activity node data
+     */
+    public AdjustmentActivityConfig(JSONObject nodeData) {
+        adjustmentType = nodeData.has("adjustmentTypeEnumId") ? EnumUtils.getEnum(WorkflowAdjustmentType.class, nodeData.getString("adjustmentTypeEnumId")) : null;
+        statusId = nodeData.has("statusId") ? nodeData.getString("statusId") : null;
+        variableId = nodeData.has("variableId") ? nodeData.getString("variableId") : null;
+        definedValue = nodeData.has("definedValue") ? nodeData.getString("definedValue") : null;
+        valueExpression = WorkflowConditionConfig.parseExpression(definedValue);
+    }
+
+    public WorkflowAdjustmentType getAdjustmentType() {
+        return adjustmentType;
+    }
+
+    public String getStatusId() {
+        return statusId;
+    }
+
+    public String getVariableId() {
+        return variableId;
+    }
+
+    public String getDefinedValue() {
+        return definedValue;
+    }
+
+    public WorkflowExpression getValueExpression() {
+        return valueExpression;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.moqui.entity.EntityCondition;
+import org.moqui.workflow.util.WorkflowConditionType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable configuration of condition activities.
+ */
+public final class ConditionActivityConfig implements WorkflowActivityConfig {
+
+    /**
+     * Condition type.
+     */
+    private final WorkflowConditionType conditionType;
+    /**
+     * Join operator used to combine the conditions.
+     */
+    private final EntityCondition.JoinOperator joinOperator;
+    /**
+     * Conditions in authoring order.
+     */
+    private final List<WorkflowConditionConfig> conditions;
+
+    /**
+     * Parses a condition activity configuration.
+     *
+     * @param nodeData Activity node data
+     */
+    public ConditionActivityConfig(JSONObject nodeData) {
+        conditionType = nodeData.has("conditionTypeEnumId") ? EnumUtils.getEnum(WorkflowConditionType.class, nodeData.getString("conditionTypeEnumId")) : null;
+        joinOperator = nodeData.has("joinOperator") ? EnumUtils.getEnum(EntityCondition.JoinOperator.class, nodeData.getString("joinOperator")) : null;
+        JSONArray conditionArray = nodeData.has("conditions") ? nodeData.getJSONArray("conditions") : new JSONArray();
+        List<WorkflowConditionConfig> conditionList = new ArrayList<>(conditionArray.length());
+        for (int i=0; i<conditionArray.length(); i++) {
+            conditionList.add(new WorkflowConditionConfig(i, conditionArray.getJSONObject(i)));
+        }
+        conditions = Collections.unmodifiableList(conditionList);
+    }
+
+    public WorkflowConditionType getConditionType() {
+        return conditionType;
+    }
+
+    public EntityCondition.JoinOperator getJoinOperator() {
+        return joinOperator;
+    }
+
+    public List<WorkflowConditionConfig> getConditions() {
+        return conditions;
+    }
+}
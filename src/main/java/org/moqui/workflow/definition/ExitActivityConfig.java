@@ -0,0 +1,40 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import org.json.JSONObject;
+
+/**
+ * Immutable configuration of exit activities.
+ */
+public final class ExitActivityConfig implements WorkflowActivityConfig {
+
+    /**
+     * Result code set on the instance.
+     */
+    private final Integer resultCode;
+
+    /**
+     * Parses an exit activity configuration.
+     *
+     * @param nodeData Activity node data
+     */
+    public ExitActivityConfig(JSONObject nodeData) {
+        resultCode = nodeData.has("resultCode") ? nodeData.getInt("resultCode") : null;
+    }
+
+    public Integer getResultCode() {
+        return resultCode;
+    }
+}
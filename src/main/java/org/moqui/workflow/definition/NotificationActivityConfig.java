@@ -0,0 +1,60 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.json.JSONObject;
+import org.moqui.workflow.util.WorkflowNotificationType;
+
+/**
+ * Immutable configuration of notification activities.
+ */
+public final class NotificationActivityConfig implements WorkflowActivityConfig {
+
+    /**
+     * Notification type.
+     */
+    private final WorkflowNotificationType notificationType;
+    /**
+     * Crowd to notify.
+     */
+    private final WorkflowCrowdConfig crowd;
+    /**
+     * Notification message.
+     */
+    private final String message;
+
+    /**
+     * Parses a notification activity configuration.
+     *
+     * @param nodeData Activity node data
+     */
+    public NotificationActivityConfig(JSONObject nodeData) {
+        notificationType = nodeData.has("notificationTypeEnumId") ? EnumUtils.getEnum(WorkflowNotificationType.class, nodeData.getString("notificationTypeEnumId")) : null;
+        crowd = WorkflowCrowdConfig.fromJson(nodeData);
+        message = nodeData.has("message") ? nodeData.getString("message") : null;
+    }
+
+    public WorkflowNotificationType getNotificationType() {
+        return notificationType;
+    }
+
+    public WorkflowCrowdConfig getCrowd() {
+        return crowd;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
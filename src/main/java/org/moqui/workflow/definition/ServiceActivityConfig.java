@@ -0,0 +1,49 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import org.json.JSONObject;
+
+/**
+ * Immutable configuration of service activities.
+ */
+public final class ServiceActivityConfig implements WorkflowActivityConfig {
+
+    /**
+     * Name of the service to call.
+     */
+    private final String serviceName;
+    /**
+     * Parameters passed to the service.
+     */
+    private final String parameters;
+
+    /**
+     * Parses a service activity configuration.
+     *
+     * @param nodeData Activity node data
+     */
+    public ServiceActivityConfig(JSONObject nodeData) {
+        serviceName = nodeData.has("serviceName") ? nodeData.getString("serviceName").trim() : null;
+        parameters = nodeData.has("parameters") ? nodeData.getString("parameters") : null;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public String getParameters() {
+        return parameters;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.moqui.entity.EntityCondition;
+import org.moqui.workflow.util.WorkflowTaskType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable configuration of user activities.
+ */
+public final class UserActivityConfig implements WorkflowActivityConfig {
+
+    /**
+     * Task type.
+     */
+    private final WorkflowTaskType taskType;
+    /**
+     * Join operator used to combine the crowd decisions of approval tasks.
+     */
+    private final EntityCondition.JoinOperator joinOperator;
+    /**
+     * Crowds the tasks are assigned to.
+     */
+    private final List<WorkflowCrowdConfig> crowds;
+    /**
+     * Variable set by variable tasks.
+     */
+    private final String variableId;
+    /**
+     * Task summary.
+     */
+    private final String summary;
+    /**
+     * Task description.
+     */
+    private final String description;
+    /**
+     * Timeout interval.
+     */
+    private final int timeoutInterval;
+    /**
+     * Timeout interval unit of measure.
+     */
+    private final String timeoutUomId;
+
+    /**
+     * Parses a user activity configuration.
+     *
+     * @param nodeData Activity node data
+     */
+    public UserActivityConfig(JSONObject nodeData) {
+        taskType = nodeData.has("taskTypeEnumId") ? EnumUtils.getEnum(WorkflowTaskType.class, nodeData.getString("taskTypeEnumId")) : null;
+        joinOperator = nodeData.has("joinOperator") ? EnumUtils.getEnum(EntityCondition.JoinOperator.class, nodeData.getString("joinOperator")) : null;
+        JSONArray crowdArray = nodeData.has("crowds") ? nodeData.getJSONArray("crowds") : new JSONArray();
+        List<WorkflowCrowdConfig> crowdList = new ArrayList<>(crowdArray.length());
+        for (int i=0; i<crowdArray.length(); i++) {
+            crowdList.add(WorkflowCrowdConfig.fromJson(crowdArray.getJSONObject(i)));
+        }
+        crowds = Collections.unmodifiableList(crowdList);
+        variableId = nodeData.has("variableId") ? nodeData.getString("variableId") : null;
+        summary = nodeData.has("summary") ? nodeData.getString("summary") : null;
+        description = nodeData.has("description") ? nodeData.getString("description") : null;
+        timeoutInterval = nodeData.has("timeoutInterval") ? nodeData.getInt("timeoutInterval") : 0;
+        timeoutUomId = nodeData.has("timeoutUomId") ? nodeData.getString("timeoutUomId") : null;
+    }
+
+    public WorkflowTaskType getTaskType() {
+        return taskType;
+    }
+
+    public EntityCondition.JoinOperator getJoinOperator() {
+        return joinOperator;
+    }
+
+    public List<WorkflowCrowdConfig> getCrowds() {
+        return crowds;
+    }
+
+    public String getVariableId() {
+        return variableId;
+    }
+
+    public String getSummary() {
+        return summary;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public int getTimeoutInterval() {
+        return timeoutInterval;
+    }
+
+    public String getTimeoutUomId() {
+        return timeoutUomId;
+    }
+}
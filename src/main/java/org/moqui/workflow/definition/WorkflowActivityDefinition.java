@@ -0,0 +1,139 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.moqui.workflow.util.WorkflowActivityType;
+import org.moqui.workflow.util.WorkflowPortType;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Immutable definition of a workflow activity and its outgoing transitions.
+ */
+public final class WorkflowActivityDefinition {
+
+    /**
+     * Workflow ID.
+     */
+    private final String workflowId;
+    /**
+     * Activity ID.
+     */
+    private final String activityId;
+    /**
+     * Activity type enumeration ID.
+     */
+    private final String activityTypeEnumId;
+    /**
+     * Built-in activity type, {@code null} for custom activity types.
+     */
+    private final WorkflowActivityType activityType;
+    /**
+     * Activity type description.
+     */
+    private final String activityTypeDescription;
+    /**
+     * Typed configuration parsed from the node data by the activity handler.
+     */
+    private final WorkflowActivityConfig config;
+    /**
+     * Outgoing transitions by port type.
+     */
+    private final Map<WorkflowPortType, WorkflowTransitionDefinition> transitions = new EnumMap<>(WorkflowPortType.class);
+    /**
+     * Read-only view of the outgoing transitions.
+     */
+    private final Map<WorkflowPortType, WorkflowTransitionDefinition> transitionsView = Collections.unmodifiableMap(transitions);
+
+    /**
+     * Creates a new activity definition.
+     *
+     * @param workflowId Workflow ID
+     * @param activityId Activity ID
+     * @param activityTypeEnumId Activity type enumeration ID
+     * @param activityTypeDescription Activity type description
+     * @param config Typed configuration
+     */
+    WorkflowActivityDefinition(String workflowId, String activityId, String activityTypeEnumId, String activityTypeDescription, WorkflowActivityConfig config) {
+        this.workflowId = workflowId;
+        this.activityId = activityId;
+        this.activityTypeEnumId = activityTypeEnumId;
+        this.activityType = EnumUtils.getEnum(WorkflowActivityType.class, activityTypeEnumId);
+        this.activityTypeDescription = activityTypeDescription;
+        this.config = config;
+    }
+
+    /**
+     * Adds an outgoing transition while the definition is being built. The first transition of a port wins.
+     *
+     * @param transition Outgoing transition
+     */
+    void addTransition(WorkflowTransitionDefinition transition) {
+        transitions.putIfAbsent(transition.getFromPortType(), transition);
+    }
+
+    public String getWorkflowId() {
+        return workflowId;
+    }
+
+    public String getActivityId() {
+        return activityId;
+    }
+
+    /**
+     * Gets the built-in activity type.
+     *
+     * @return Activity type or {@code null} for custom activity types
+     */
+    public WorkflowActivityType getActivityType() {
+        return activityType;
+    }
+
+    public String getActivityTypeEnumId() {
+        return activityTypeEnumId;
+    }
+
+    public String getActivityTypeDescription() {
+        return activityTypeDescription;
+    }
+
+    /**
+     * Gets the typed configuration of the activity.
+     *
+     * @param configType Configuration class
+     * @param <T> Configuration type
+     * @return Configuration or {@code null} if the activity has none
+     * @throws ClassCastException if the configuration is not of the specified type
+     */
+    public <T extends WorkflowActivityConfig> T getConfig(Class<T> configType) {
+        return configType.cast(config);
+    }
+
+    /**
+     * Gets the outgoing transition of the specified port.
+     *
+     * @param portType Port type
+     * @return Transition or {@code null} if the port is not connected
+     */
+    public WorkflowTransitionDefinition getTransition(WorkflowPortType portType) {
+        return portType == null ? null : transitions.get(portType);
+    }
+
+    public Map<WorkflowPortType, WorkflowTransitionDefinition> getTransitions() {
+        return transitionsView;
+    }
+}
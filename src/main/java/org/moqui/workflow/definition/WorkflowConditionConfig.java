@@ -0,0 +1,114 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import org.json.JSONObject;
+import org.moqui.workflow.expression.WorkflowExpression;
+import org.moqui.workflow.expression.WorkflowExpressionException;
+
+/**
+ * Immutable configuration of a single condition of a condition activity.
+ */
+public final class WorkflowConditionConfig {
+
+    /**
+     * Position of the condition in the activity.
+     */
+    private final int index;
+    /**
+     * Field name of field conditions.
+     */
+    private final String fieldName;
+    /**
+     * Variable name of variable conditions.
+     */
+    private final String variableName;
+    /**
+     * Comparison operator of field and variable conditions.
+     */
+    private final String operator;
+    /**
+     * Comparison value of field and variable conditions.
+     */
+    private final String value;
+    /**
+     * Script of script conditions.
+     */
+    private final String script;
+    /**
+     * Parsed script of script conditions, {@code null} if the script is not a workflow expression.
+     */
+    private final WorkflowExpression expression;
+
+    /**
+     * Parses a condition configuration.
+     *
+     * @param index Position of the condition in the activity
+     * @param condition Condition node data
+     */
+    public WorkflowConditionConfig(int index, JSONObject condition) {
+        this.index = index;
+        fieldName = condition.has("fieldName") ? condition.getString("fieldName") : null;
+        variableName = condition.has("variableName") ? condition.getString("variableName") : null;
+        operator = condition.has("operator") ? condition.getString("operator") : null;
+        value = condition.has("value") ? condition.getString("value") : null;
+        script = condition.has("script") ? condition.getString("script") : null;
+        expression = parseExpression(script);
+    }
+
+    /**
+     * Parses a script as a workflow expression.
+     *
+     * @param script Script
+     * @return Expression or {@code null} if the script is blank or not a workflow expression
+     */
+    static WorkflowExpression parseExpression(String script) {
+        if (script == null || script.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return WorkflowExpression.parse(script);
+        } catch (WorkflowExpressionException e) {
+            return null;
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public String getVariableName() {
+        return variableName;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public String getScript() {
+        return script;
+    }
+
+    public WorkflowExpression getExpression() {
+        return expression;
+    }
+}
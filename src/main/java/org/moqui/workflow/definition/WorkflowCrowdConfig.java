@@ -0,0 +1,115 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.json.JSONObject;
+import org.moqui.workflow.util.WorkflowCrowdType;
+
+/**
+ * Immutable crowd configuration of user and notification activities.
+ */
+public final class WorkflowCrowdConfig {
+
+    /**
+     * Crowd type.
+     */
+    private final WorkflowCrowdType crowdType;
+    /**
+     * User ID of single user crowds.
+     */
+    private final String userId;
+    /**
+     * User group ID of group crowds.
+     */
+    private final String userGroupId;
+    /**
+     * Approvals needed to approve.
+     */
+    private final long minApprovals;
+    /**
+     * Rejections needed to reject.
+     */
+    private final long minRejections;
+    /**
+     * Whether group crowds get a single task claimed by one of the members.
+     */
+    private final boolean claimable;
+
+    /**
+     * Creates a new crowd configuration. The quorums of a claimable crowd are capped at 1, as its single task can
+     * only ever bring one decision.
+     *
+     * @param crowdType Crowd type
+     * @param userId User ID
+     * @param userGroupId User group ID
+     * @param minApprovals Approvals needed to approve
+     * @param minRejections Rejections needed to reject
+     * @param claimable Whether group crowds get a single claimable task
+     */
+    public WorkflowCrowdConfig(WorkflowCrowdType crowdType, String userId, String userGroupId, long minApprovals, long minRejections, boolean claimable) {
+        this.crowdType = crowdType;
+        this.userId = userId;
+        this.userGroupId = userGroupId;
+        this.claimable = claimable;
+        this.minApprovals = isClaimable() ? Math.min(minApprovals, 1) : minApprovals;
+        this.minRejections = isClaimable() ? Math.min(minRejections, 1) : minRejections;
+    }
+
+    /**
+     * Parses a crowd configuration.
+     *
+     * @param crowd Crowd node data
+     * @return Crowd configuration
+     */
+    public static WorkflowCrowdConfig fromJson(JSONObject crowd) {
+        return new WorkflowCrowdConfig(
+                crowd.has("crowdTypeEnumId") ? EnumUtils.getEnum(WorkflowCrowdType.class, crowd.getString("crowdTypeEnumId")) : null,
+                crowd.has("userId") ? crowd.getString("userId") : null,
+                crowd.has("userGroupId") ? crowd.getString("userGroupId") : null,
+                crowd.has("minApprovals") ? crowd.getLong("minApprovals") : 0,
+                crowd.has("minRejections") ? crowd.getLong("minRejections") : 0,
+                crowd.has("claimable") && crowd.getBoolean("claimable")
+        );
+    }
+
+    public WorkflowCrowdType getCrowdType() {
+        return crowdType;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getUserGroupId() {
+        return userGroupId;
+    }
+
+    public long getMinApprovals() {
+        return minApprovals;
+    }
+
+    public long getMinRejections() {
+        return minRejections;
+    }
+
+    /**
+     * Checks if the crowd is a user group getting a single task that one of its members claims.
+     *
+     * @return {@code true} if the crowd gets a claimable group task
+     */
+    public boolean isClaimable() {
+        return claimable && crowdType == WorkflowCrowdType.WF_CROWD_USER_GROUP && userGroupId != null;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable, compiled definition of a workflow used by the advance loop.
+ */
+public final class WorkflowDefinition {
+
+    /**
+     * Workflow ID.
+     */
+    private final String workflowId;
+    /**
+     * Flag indicating whether the workflow is disabled.
+     */
+    private final boolean disabled;
+    /**
+     * Primary entity name.
+     */
+    private final String primaryEntityName;
+    /**
+     * Primary view entity name.
+     */
+    private final String primaryViewEntityName;
+    /**
+     * Primary key field.
+     */
+    private final String primaryKeyField;
+    /**
+     * Entry activity.
+     */
+    private final WorkflowActivityDefinition entryActivity;
+    /**
+     * Activities by activity ID.
+     */
+    private final Map<String, WorkflowActivityDefinition> activities;
+
+    /**
+     * Creates a new workflow definition.
+     *
+     * @param workflowId Workflow ID
+     * @param disabled Flag indicating whether the workflow is disabled
+     * @param primaryEntityName Primary entity name
+     * @param primaryViewEntityName Primary view entity name
+     * @param primaryKeyField Primary key field
+     * @param entryActivity Entry activity
+     * @param activities Activities by activity ID
+     */
+    WorkflowDefinition(String workflowId, boolean disabled, String primaryEntityName, String primaryViewEntityName, String primaryKeyField, WorkflowActivityDefinition entryActivity, Map<String, WorkflowActivityDefinition> activities) {
+        this.workflowId = workflowId;
+        this.disabled = disabled;
+        this.primaryEntityName = primaryEntityName;
+        this.primaryViewEntityName = primaryViewEntityName;
+        this.primaryKeyField = primaryKeyField;
+        this.entryActivity = entryActivity;
+        this.activities = Collections.unmodifiableMap(activities);
+    }
+
+    public String getWorkflowId() {
+        return workflowId;
+    }
+
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    public String getPrimaryEntityName() {
+        return primaryEntityName;
+    }
+
+    public String getPrimaryViewEntityName() {
+        return primaryViewEntityName;
+    }
+
+    public String getPrimaryKeyField() {
+        return primaryKeyField;
+    }
+
+    public WorkflowActivityDefinition getEntryActivity() {
+        return entryActivity;
+    }
+
+    /**
+     * Gets an activity of the workflow.
+     *
+     * @param activityId Activity ID
+     * @return Activity or {@code null} if the workflow has no such activity
+     */
+    public WorkflowActivityDefinition getActivity(String activityId) {
+        return activityId == null ? null : activities.get(activityId);
+    }
+
+    public Map<String, WorkflowActivityDefinition> getActivities() {
+        return activities;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityFacade;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.moqui.workflow.activity.WorkflowActivityRegistry;
+import org.moqui.workflow.util.WorkflowActivityType;
+import org.moqui.workflow.util.WorkflowPortType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.cache.Cache;
+import javax.transaction.Synchronization;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of compiled workflow definitions. Each workflow is loaded with a fixed number of queries the
+ * first time it is needed and then served from memory until it is redesigned, updated or disabled.
+ */
+public class WorkflowDefinitionCache {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowDefinitionCache.class);
+    /**
+     * Cache name, configured in MoquiConf.xml.
+     */
+    public static final String CACHE_NAME = "workflow.definition";
+
+    /**
+     * Gets the compiled definition of a workflow, loading it if not cached yet.
+     *
+     * @param ec Execution context
+     * @param workflowId Workflow ID
+     * @return Workflow definition or {@code null} if the workflow does not exist
+     * @throws IllegalStateException if an activity handler parsed a configuration the advance loop cannot use
+     */
+    public static WorkflowDefinition getWorkflowDefinition(ExecutionContext ec, String workflowId) {
+        if (StringUtils.isBlank(workflowId)) {
+            return null;
+        }
+
+        Cache<String, WorkflowDefinition> cache = getCache(ec);
+        WorkflowDefinition definition = cache.get(workflowId);
+        if (definition == null) {
+            definition = loadWorkflowDefinition(ec, workflowId);
+            if (definition != null) {
+                cache.put(workflowId, definition);
+            }
+        }
+        return definition;
+    }
+
+    /**
+     * Removes a workflow from the cache. When called inside a transaction the entry is removed again after
+     * the transaction completes, so that a concurrent reader cannot cache the definition being replaced.
+     *
+     * @param ec Execution context
+     * @param workflowId Workflow ID
+     */
+    public static void invalidate(ExecutionContext ec, String workflowId) {
+        if (StringUtils.isBlank(workflowId)) {
+            return;
+        }
+
+        Cache<String, WorkflowDefinition> cache = getCache(ec);
+        cache.remove(workflowId);
+        if (ec.getTransaction().isTransactionInPlace()) {
+            ec.getTransaction().registerSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    cache.remove(workflowId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets the definition cache.
+     *
+     * @param ec Execution context
+     * @return Definition cache
+     */
+    @SuppressWarnings("unchecked")
+    private static Cache<String, WorkflowDefinition> getCache(ExecutionContext ec) {
+        return (Cache<String, WorkflowDefinition>) ec.getCache().getCache(CACHE_NAME);
+    }
+
+    /**
+     * Loads and compiles a workflow definition.
+     *
+     * @param ec Execution context
+     * @param workflowId Workflow ID
+     * @return Workflow definition or {@code null} if the workflow does not exist
+     * @throws IllegalStateException if an activity handler parsed a configuration the advance loop cannot use
+     */
+    private static WorkflowDefinition loadWorkflowDefinition(ExecutionContext ec, String workflowId) {
+
+        // shortcuts for convenience
+        EntityFacade ef = ec.getEntity();
+
+        // get the workflow
+        EntityValue workflow = ef.find("moqui.workflow.WorkflowDetail")
+                .condition("workflowId", workflowId)
+                .one();
+        if (workflow == null) {
+            return null;
+        }
+
+        // get the activities
+        EntityList activityList = ef.find("moqui.workflow.WorkflowActivityDetail")
+                .condition("workflowId", workflowId)
+                .list();
+        Map<String, WorkflowActivityDefinition> activities = new HashMap<>();
+        WorkflowActivityDefinition entryActivity = null;
+        for (EntityValue activity : activityList) {
+            String activityId = activity.getString("activityId");
+            String activityTypeEnumId = activity.getString("activityTypeEnumId");
+            if (!WorkflowActivityRegistry.hasHandler(activityTypeEnumId)) {
+                logger.warn(String.format("Activity %s of workflow %s has unknown type %s, skipping", activityId, workflowId, activityTypeEnumId));
+                continue;
+            }
+
+            String nodeData = activity.getString("nodeData");
+            WorkflowActivityConfig config;
+            try {
+                config = WorkflowActivityRegistry.getHandler(activityTypeEnumId)
+                        .parseConfig(StringUtils.isNotBlank(nodeData) ? new JSONObject(nodeData) : new JSONObject());
+            } catch (JSONException e) {
+                logger.warn(String.format("Activity %s of workflow %s has invalid node data, skipping", activityId, workflowId), e);
+                continue;
+            }
+
+            WorkflowActivityDefinition definition = new WorkflowActivityDefinition(
+                    workflowId,
+                    activityId,
+                    activityTypeEnumId,
+                    activity.getString("activityTypeDescription"),
+                    config
+            );
+
+            // the advance loop and the approval tallies read the crowds of user activities
+            if (definition.getActivityType() == WorkflowActivityType.WF_ACTIVITY_USER && !(config instanceof UserActivityConfig)) {
+                throw new IllegalStateException(String.format("Activity %s of workflow %s is a user activity but its handler %s parsed no %s",
+                        activityId, workflowId, WorkflowActivityRegistry.getHandler(activityTypeEnumId).getClass().getName(), UserActivityConfig.class.getSimpleName()));
+            }
+            activities.put(activityId, definition);
+            if (definition.getActivityType() == WorkflowActivityType.WF_ACTIVITY_ENTER && entryActivity == null) {
+                entryActivity = definition;
+            }
+        }
+
+        // link the activities
+        EntityList transitionList = ef.find("moqui.workflow.WorkflowTransition")
+                .condition("workflowId", workflowId)
+                .list();
+        for (EntityValue transition : transitionList) {
+            WorkflowActivityDefinition fromActivity = activities.get(transition.getString("fromActivityId"));
+            WorkflowActivityDefinition toActivity = activities.get(transition.getString("toActivityId"));
+            WorkflowPortType fromPortType = EnumUtils.getEnum(WorkflowPortType.class, transition.getString("fromPortTypeEnumId"));
+            if (fromActivity == null || toActivity == null || fromPortType == null) {
+                logger.warn(String.format("Transition %s of workflow %s is not fully connected, skipping", transition.getString("transitionId"), workflowId));
+                continue;
+            }
+            fromActivity.addTransition(new WorkflowTransitionDefinition(
+                    transition.getString("transitionId"),
+                    fromActivity,
+                    fromPortType,
+                    toActivity
+            ));
+        }
+
+        logger.debug(String.format("Loaded workflow %s with %d activities and %d transitions", workflowId, activities.size(), transitionList.size()));
+        return new WorkflowDefinition(
+                workflowId,
+                StringUtils.equals(workflow.getString("disabled"), "Y"),
+                workflow.getString("primaryEntityName"),
+                workflow.getString("primaryViewEntityName"),
+                workflow.getString("primaryKeyField"),
+                entryActivity,
+                activities
+        );
+    }
+}
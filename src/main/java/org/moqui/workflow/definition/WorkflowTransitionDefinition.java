@@ -0,0 +1,70 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.definition;
+
+import org.moqui.workflow.util.WorkflowPortType;
+
+/**
+ * Immutable definition of a workflow transition.
+ */
+public final class WorkflowTransitionDefinition {
+
+    /**
+     * Transition ID.
+     */
+    private final String transitionId;
+    /**
+     * Source activity.
+     */
+    private final WorkflowActivityDefinition fromActivity;
+    /**
+     * Source port type.
+     */
+    private final WorkflowPortType fromPortType;
+    /**
+     * Target activity.
+     */
+    private final WorkflowActivityDefinition toActivity;
+
+    /**
+     * Creates a new transition definition.
+     *
+     * @param transitionId Transition ID
+     * @param fromActivity Source activity
+     * @param fromPortType Source port type
+     * @param toActivity Target activity
+     */
+    WorkflowTransitionDefinition(String transitionId, WorkflowActivityDefinition fromActivity, WorkflowPortType fromPortType, WorkflowActivityDefinition toActivity) {
+        this.transitionId = transitionId;
+        this.fromActivity = fromActivity;
+        this.fromPortType = fromPortType;
+        this.toActivity = toActivity;
+    }
+
+    public String getTransitionId() {
+        return transitionId;
+    }
+
+    public WorkflowActivityDefinition getFromActivity() {
+        return fromActivity;
+    }
+
+    public WorkflowPortType getFromPortType() {
+        return fromPortType;
+    }
+
+    public WorkflowActivityDefinition getToActivity() {
+        return toActivity;
+    }
+}
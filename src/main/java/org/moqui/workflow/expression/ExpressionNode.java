@@ -0,0 +1,557 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.expression;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Map;
+
+/**
+ * Node of a parsed workflow expression.
+ * <p>
+ * Nodes know the static type of their result where it can be inferred, so that numeric and boolean sub-trees
+ * are evaluated on primitives and only values crossing an untyped boundary, such as a variable, are boxed.
+ * Arithmetic evaluated to a value, i.e. a value that may be stored in a variable, is exact and uses decimals.
+ */
+abstract class ExpressionNode {
+
+    /**
+     * Static result type of a node.
+     */
+    enum Type {
+        NUMBER, BOOLEAN, TEXT, ANY
+    }
+
+    /**
+     * Gets the static result type.
+     *
+     * @return Result type
+     */
+    abstract Type getType();
+
+    /**
+     * Evaluates the node to a value.
+     *
+     * @param variables Variable values by name
+     * @return Number, boolean, text or {@code null}; arithmetic results are {@code BigDecimal} unless not finite
+     */
+    abstract Object evaluate(Map<String, Object> variables);
+
+    /**
+     * Evaluates the node to a number.
+     *
+     * @param variables Variable values by name
+     * @return Number, {@code NaN} if the value is not numeric
+     */
+    double evaluateNumber(Map<String, Object> variables) {
+        return toNumber(evaluate(variables));
+    }
+
+    /**
+     * Evaluates the node to a boolean.
+     *
+     * @param variables Variable values by name
+     * @return Truth value
+     */
+    boolean evaluateBoolean(Map<String, Object> variables) {
+        return toBoolean(evaluate(variables));
+    }
+
+    /**
+     * Converts a value to a number. Text holding a number, as variables are stored, counts as that number.
+     *
+     * @param value Value
+     * @return Number, {@code NaN} if the value is not numeric
+     */
+    static double toNumber(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        } else if (value instanceof String && NumberUtils.isParsable(((String) value).trim())) {
+            return Double.parseDouble(((String) value).trim());
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Converts a value to an exact decimal. Doubles convert through their shortest text without trailing zeros,
+     * so that the literal {@code 0.1} is exactly one tenth and {@code 2.0} is {@code 2}.
+     *
+     * @param value Value
+     * @return Decimal, {@code null} if the value is not numeric or not finite
+     */
+    static BigDecimal toDecimal(Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        } else if (value instanceof String && isNumeric(value)) {
+            try {
+                return new BigDecimal(((String) value).trim());
+            } catch (NumberFormatException e) {
+                // parsable as a double only, e.g. with a trailing type suffix
+            }
+        }
+        double number = toNumber(value);
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            return null;
+        }
+        BigDecimal decimal = BigDecimal.valueOf(number).stripTrailingZeros();
+        return decimal.scale() < 0 ? decimal.setScale(0) : decimal;
+    }
+
+    /**
+     * Checks whether a value is a number or text holding a number.
+     *
+     * @param value Value
+     * @return {@code true} if the value is numeric
+     */
+    static boolean isNumeric(Object value) {
+        return value instanceof Number || (value instanceof String && NumberUtils.isParsable(((String) value).trim()));
+    }
+
+    /**
+     * Converts a value to a boolean. Text holding {@code true}, {@code false}, {@code Y} or {@code N} counts as
+     * that boolean and text holding a number as that number, other text is true unless empty.
+     *
+     * @param value Value
+     * @return Truth value
+     */
+    static boolean toBoolean(Object value) {
+        if (value == null) {
+            return false;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            return number != 0 && !Double.isNaN(number);
+        }
+        String text = value.toString().trim();
+        if ("true".equalsIgnoreCase(text) || "Y".equals(text)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(text) || "N".equals(text)) {
+            return false;
+        } else if (NumberUtils.isParsable(text)) {
+            return Double.parseDouble(text) != 0;
+        }
+        return !text.isEmpty();
+    }
+
+    /**
+     * Checks whether a value is a boolean or text holding one.
+     *
+     * @param value Value
+     * @return {@code true} if the value is boolean
+     */
+    static boolean isBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return true;
+        } else if (value instanceof String) {
+            String text = ((String) value).trim();
+            return "true".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text);
+        }
+        return false;
+    }
+
+    /**
+     * Converts a value to text. Whole numbers are written without a fraction and other numbers without
+     * trailing zeros.
+     *
+     * @param value Value
+     * @return Text or {@code null}
+     */
+    static String toText(Object value) {
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).stripTrailingZeros().toPlainString();
+        } else if (value instanceof Double) {
+            double number = (Double) value;
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                return null;
+            } else if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+                return Long.toString((long) number);
+            }
+            return BigDecimal.valueOf(number).stripTrailingZeros().toPlainString();
+        }
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * Literal value.
+     */
+    static final class Literal extends ExpressionNode {
+
+        private final Object value;
+        private final Type type;
+        private final double number;
+
+        Literal(Object value) {
+            this.value = value;
+            this.type = value instanceof Number ? Type.NUMBER : value instanceof Boolean ? Type.BOOLEAN : value instanceof String ? Type.TEXT : Type.ANY;
+            this.number = toNumber(value);
+        }
+
+        @Override
+        Type getType() {
+            return type;
+        }
+
+        @Override
+        Object evaluate(Map<String, Object> variables) {
+            return value;
+        }
+
+        @Override
+        double evaluateNumber(Map<String, Object> variables) {
+            return number;
+        }
+    }
+
+    /**
+     * Instance variable reference.
+     */
+    static final class Variable extends ExpressionNode {
+
+        private final String name;
+
+        Variable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Type getType() {
+            return Type.ANY;
+        }
+
+        @Override
+        Object evaluate(Map<String, Object> variables) {
+            return variables.get(name);
+        }
+
+        String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Numeric negation.
+     */
+    static final class Negate extends ExpressionNode {
+
+        private final ExpressionNode operand;
+
+        Negate(ExpressionNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Type getType() {
+            return Type.NUMBER;
+        }
+
+        @Override
+        Object evaluate(Map<String, Object> variables) {
+            Object value = operand.evaluate(variables);
+            return value instanceof BigDecimal ? ((BigDecimal) value).negate() : (Object) (-toNumber(value));
+        }
+
+        @Override
+        double evaluateNumber(Map<String, Object> variables) {
+            return -operand.evaluateNumber(variables);
+        }
+    }
+
+    /**
+     * Logical negation.
+     */
+    static final class Not extends ExpressionNode {
+
+        private final ExpressionNode operand;
+
+        Not(ExpressionNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Type getType() {
+            return Type.BOOLEAN;
+        }
+
+        @Override
+        Object evaluate(Map<String, Object> variables) {
+            return evaluateBoolean(variables);
+        }
+
+        @Override
+        boolean evaluateBoolean(Map<String, Object> variables) {
+            return !operand.evaluateBoolean(variables);
+        }
+    }
+
+    /**
+     * Arithmetic operation. Addition concatenates when either operand is text that does not hold a number.
+     * <p>
+     * Evaluated to a value, the operation is exact: operands are converted to decimals, and division is rounded
+     * to 34 significant digits. Division by zero and operands that are not finite numbers fall back to doubles,
+     * giving {@code Infinity} or {@code NaN}. Evaluated to a number, as within comparisons, the operation uses
+     * doubles.
+     */
+    static final class Arithmetic extends ExpressionNode {
+
+        private final char operator;
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+        private final Type type;
+
+        Arithmetic(char operator, ExpressionNode left, ExpressionNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+            if (operator != '+' || (left.getType() == Type.NUMBER && right.getType() == Type.NUMBER)) {
+                this.type = Type.NUMBER;
+            } else if (left.getType() == Type.TEXT || right.getType() == Type.TEXT) {
+                this.type = Type.TEXT;
+            } else {
+                this.type = Type.ANY;
+            }
+        }
+
+        @Override
+        Type getType() {
+            return type;
+        }
+
+        @Override
+        Object evaluate(Map<String, Object> variables) {
+            Object leftValue = left.evaluate(variables);
+            Object rightValue = right.evaluate(variables);
+            if (type == Type.NUMBER || (type == Type.ANY && isNumeric(leftValue) && isNumeric(rightValue))) {
+                BigDecimal result = calculate(toDecimal(leftValue), toDecimal(rightValue));
+                return result != null ? result : (Object) calculate(toNumber(leftValue), toNumber(rightValue));
+            }
+            return toText(leftValue) + toText(rightValue);
+        }
+
+        @Override
+        double evaluateNumber(Map<String, Object> variables) {
+            if (type != Type.NUMBER) {
+                return toNumber(evaluate(variables));
+            }
+            return calculate(left.evaluateNumber(variables), right.evaluateNumber(variables));
+        }
+
+        /**
+         * Applies the operator to two decimals.
+         *
+         * @return Result, {@code null} if either operand is {@code null} or the divisor is zero
+         */
+        private BigDecimal calculate(BigDecimal leftNumber, BigDecimal rightNumber) {
+            if (leftNumber == null || rightNumber == null) {
+                return null;
+            }
+            switch (operator) {
+                case '+':
+                    return leftNumber.add(rightNumber);
+                case '-':
+                    return leftNumber.subtract(rightNumber);
+                case '*':
+                    return leftNumber.multiply(rightNumber);
+                case '/':
+                    return rightNumber.signum() != 0 ? leftNumber.divide(rightNumber, MathContext.DECIMAL128) : null;
+                default:
+                    return rightNumber.signum() != 0 ? leftNumber.remainder(rightNumber) : null;
+            }
+        }
+
+        /**
+         * Applies the operator to two doubles.
+         */
+        private double calculate(double leftNumber, double rightNumber) {
+            switch (operator) {
+                case '+':
+                    return leftNumber + rightNumber;
+                case '-':
+                    return leftNumber - rightNumber;
+                case '*':
+                    return leftNumber * rightNumber;
+                case '/':
+                    return leftNumber / rightNumber;
+                default:
+                    return leftNumber % rightNumber;
+            }
+        }
+    }
+
+    /**
+     * Comparison. Operands are compared as numbers when both are numeric, as booleans when both are boolean
+     * and as text otherwise; {@code null} only equals {@code null} and is not ordered.
+     */
+    static final class Comparison extends ExpressionNode {
+
+        private final String operator;
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+        private final boolean numeric;
+
+        Comparison(String operator, ExpressionNode left, ExpressionNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+            this.numeric = (left.getType() == Type.NUMBER && right.getType() != Type.TEXT)
+                    || (right.getType() == Type.NUMBER && left.getType() != Type.TEXT);
+        }
+
+        @Override
+        Type getType() {
+            return Type.BOOLEAN;
+        }
+
+        @Override
+        Object evaluate(Map<String, Object> variables) {
+            return evaluateBoolean(variables);
+        }
+
+        @Override
+        boolean evaluateBoolean(Map<String, Object> variables) {
+            if (numeric) {
+                return compareNumbers(left.evaluateNumber(variables), right.evaluateNumber(variables));
+            }
+
+            Object leftValue = left.evaluate(variables);
+            Object rightValue = right.evaluate(variables);
+            if (leftValue == null || rightValue == null) {
+                boolean equal = leftValue == rightValue;
+                return "==".equals(operator) ? equal : "!=".equals(operator) && !equal;
+            } else if (isNumeric(leftValue) && isNumeric(rightValue)) {
+                return compareNumbers(toNumber(leftValue), toNumber(rightValue));
+            } else if (isBoolean(leftValue) && isBoolean(rightValue)) {
+                return compare(Boolean.compare(toBoolean(leftValue), toBoolean(rightValue)));
+            }
+            return compare(leftValue.toString().compareTo(rightValue.toString()));
+        }
+
+        /**
+         * Compares two numbers, any comparison involving {@code NaN} is false except inequality.
+         */
+        private boolean compareNumbers(double leftNumber, double rightNumber) {
+            switch (operator) {
+                case "==":
+                    return leftNumber == rightNumber;
+                case "!=":
+                    return leftNumber != rightNumber;
+                case "<":
+                    return leftNumber < rightNumber;
+                case "<=":
+                    return leftNumber <= rightNumber;
+                case ">":
+                    return leftNumber > rightNumber;
+                default:
+                    return leftNumber >= rightNumber;
+            }
+        }
+
+        /**
+         * Applies the operator to a comparison result.
+         */
+        private boolean compare(int result) {
+            switch (operator) {
+                case "==":
+                    return result == 0;
+                case "!=":
+                    return result != 0;
+                case "<":
+                    return result < 0;
+                case "<=":
+                    return result <= 0;
+                case ">":
+                    return result > 0;
+                default:
+                    return result >= 0;
+            }
+        }
+    }
+
+    /**
+     * Short-circuit conjunction or disjunction.
+     */
+    static final class Logical extends ExpressionNode {
+
+        private final boolean and;
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        Logical(boolean and, ExpressionNode left, ExpressionNode right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Type getType() {
+            return Type.BOOLEAN;
+        }
+
+        @Override
+        Object evaluate(Map<String, Object> variables) {
+            return evaluateBoolean(variables);
+        }
+
+        @Override
+        boolean evaluateBoolean(Map<String, Object> variables) {
+            return and
+                    ? left.evaluateBoolean(variables) && right.evaluateBoolean(variables)
+                    : left.evaluateBoolean(variables) || right.evaluateBoolean(variables);
+        }
+    }
+
+    /**
+     * Conditional {@code condition ? whenTrue : whenFalse}.
+     */
+    static final class Conditional extends ExpressionNode {
+
+        private final ExpressionNode condition;
+        private final ExpressionNode whenTrue;
+        private final ExpressionNode whenFalse;
+        private final Type type;
+
+        Conditional(ExpressionNode condition, ExpressionNode whenTrue, ExpressionNode whenFalse) {
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+            this.type = whenTrue.getType() == whenFalse.getType() ? whenTrue.getType() : Type.ANY;
+        }
+
+        @Override
+        Type getType() {
+            return type;
+        }
+
+        @Override
+        Object evaluate(Map<String, Object> variables) {
+            return condition.evaluateBoolean(variables) ? whenTrue.evaluate(variables) : whenFalse.evaluate(variables);
+        }
+
+        @Override
+        double evaluateNumber(Map<String, Object> variables) {
+            return condition.evaluateBoolean(variables) ? whenTrue.evaluateNumber(variables) : whenFalse.evaluateNumber(variables);
+        }
+
+        @Override
+        boolean evaluateBoolean(Map<String, Object> variables) {
+            return condition.evaluateBoolean(variables) ? whenTrue.evaluateBoolean(variables) : whenFalse.evaluateBoolean(variables);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.expression;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Expression over workflow instance variables, parsed once into an immutable tree and evaluated directly.
+ * <p>
+ * Expressions support arithmetic, comparisons, boolean logic and the conditional operator over numbers,
+ * text, booleans and {@code {{variable}}} references. Variable values stored as text take part as numbers or
+ * booleans when they hold one, so {@code {{amount}} > 1000} compares numerically and {@code +} adds two
+ * variables holding numeric text instead of concatenating them as JavaScript did. Arithmetic results are exact
+ * decimals, so {@code 0.1 + 0.2} gives {@code 0.3}, while comparisons and conditions are evaluated on
+ * primitives. A parsed expression is thread-safe.
+ */
+public final class WorkflowExpression {
+
+    /**
+     * Expression source.
+     */
+    private final String source;
+    /**
+     * Root node.
+     */
+    private final ExpressionNode root;
+    /**
+     * Names of the referenced variables.
+     */
+    private final Set<String> variableNames;
+
+    /**
+     * Creates a new expression.
+     *
+     * @param source Expression source
+     * @param root Root node
+     * @param variableNames Names of the referenced variables
+     */
+    private WorkflowExpression(String source, ExpressionNode root, Set<String> variableNames) {
+        this.source = source;
+        this.root = root;
+        this.variableNames = Collections.unmodifiableSet(variableNames);
+    }
+
+    /**
+     * Parses an expression.
+     *
+     * @param source Expression source
+     * @return Parsed expression
+     * @throws WorkflowExpressionException If the source is not a valid expression
+     */
+    public static WorkflowExpression parse(String source) throws WorkflowExpressionException {
+        if (source == null || source.trim().isEmpty()) {
+            throw new WorkflowExpressionException("Empty expression", 0);
+        }
+        Set<String> variableNames = new LinkedHashSet<>();
+        ExpressionNode root = new WorkflowExpressionParser(source, variableNames).parse();
+        return new WorkflowExpression(source, root, variableNames);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Gets the names of the variables referenced by the expression.
+     *
+     * @return Variable names
+     */
+    public Set<String> getVariableNames() {
+        return variableNames;
+    }
+
+    /**
+     * Evaluates the expression to a value.
+     *
+     * @param variables Variable values by name, missing variables are {@code null}
+     * @return {@code BigDecimal} for arithmetic, {@code Double}, {@code Boolean}, {@code String} or {@code null}
+     */
+    public Object evaluate(Map<String, Object> variables) {
+        return root.evaluate(variables);
+    }
+
+    /**
+     * Evaluates the expression as a condition. A boolean result is used as is and a numeric result is true
+     * when greater than zero, any other result is false.
+     *
+     * @param variables Variable values by name, missing variables are {@code null}
+     * @return Condition result
+     */
+    public boolean evaluateCondition(Map<String, Object> variables) {
+        switch (root.getType()) {
+            case BOOLEAN:
+                return root.evaluateBoolean(variables);
+            case NUMBER:
+                return root.evaluateNumber(variables) > 0;
+            default:
+                Object result = root.evaluate(variables);
+                if (result instanceof Boolean) {
+                    return (Boolean) result;
+                } else if (result instanceof Number) {
+                    return ((Number) result).doubleValue() > 0;
+                }
+                return false;
+        }
+    }
+
+    /**
+     * Converts an evaluation result to the text stored in a variable. Whole numbers are written without a
+     * fraction and other numbers without trailing zeros.
+     *
+     * @param value Evaluation result
+     * @return Text or {@code null}
+     */
+    public static String toText(Object value) {
+        return ExpressionNode.toText(value);
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
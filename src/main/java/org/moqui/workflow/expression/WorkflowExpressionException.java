@@ -0,0 +1,40 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.expression;
+
+/**
+ * Exception thrown when a workflow expression cannot be parsed.
+ */
+public class WorkflowExpressionException extends Exception {
+
+    /**
+     * Position in the expression where the error was detected.
+     */
+    private final int position;
+
+    /**
+     * Creates a new exception.
+     *
+     * @param message Error message
+     * @param position Position in the expression
+     */
+    public WorkflowExpressionException(String message, int position) {
+        super(String.format("%s at position %d", message, position));
+        this.position = position;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+}
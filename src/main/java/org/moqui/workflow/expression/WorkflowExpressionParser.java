@@ -0,0 +1,285 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.expression;
+
+import java.util.Set;
+
+/**
+ * Recursive descent parser of workflow expressions.
+ * <p>
+ * Operators by increasing precedence: {@code ? :}, {@code ||}, {@code &&}, {@code == != === !==},
+ * {@code < <= > >=}, {@code + -}, {@code * / %} and the unary {@code ! -}. Operands are numbers, quoted text,
+ * {@code true}, {@code false}, {@code null}, {@code {{variable}}} references and parenthesized expressions.
+ */
+final class WorkflowExpressionParser {
+
+    /**
+     * Expression source.
+     */
+    private final String source;
+    /**
+     * Names of the referenced variables.
+     */
+    private final Set<String> variableNames;
+    /**
+     * Current position.
+     */
+    private int position;
+
+    /**
+     * Creates a new parser.
+     *
+     * @param source Expression source
+     * @param variableNames Set receiving the names of the referenced variables
+     */
+    WorkflowExpressionParser(String source, Set<String> variableNames) {
+        this.source = source;
+        this.variableNames = variableNames;
+    }
+
+    /**
+     * Parses the whole source.
+     *
+     * @return Root node
+     * @throws WorkflowExpressionException If the source is not a valid expression
+     */
+    ExpressionNode parse() throws WorkflowExpressionException {
+        ExpressionNode node = parseConditional();
+        skipWhitespace();
+        if (position < source.length()) {
+            throw new WorkflowExpressionException(String.format("Unexpected '%s'", source.charAt(position)), position);
+        }
+        return node;
+    }
+
+    private ExpressionNode parseConditional() throws WorkflowExpressionException {
+        ExpressionNode condition = parseOr();
+        if (accept("?")) {
+            ExpressionNode whenTrue = parseConditional();
+            expect(":");
+            ExpressionNode whenFalse = parseConditional();
+            return new ExpressionNode.Conditional(condition, whenTrue, whenFalse);
+        }
+        return condition;
+    }
+
+    private ExpressionNode parseOr() throws WorkflowExpressionException {
+        ExpressionNode node = parseAnd();
+        while (accept("||")) {
+            node = new ExpressionNode.Logical(false, node, parseAnd());
+        }
+        return node;
+    }
+
+    private ExpressionNode parseAnd() throws WorkflowExpressionException {
+        ExpressionNode node = parseEquality();
+        while (accept("&&")) {
+            node = new ExpressionNode.Logical(true, node, parseEquality());
+        }
+        return node;
+    }
+
+    private ExpressionNode parseEquality() throws WorkflowExpressionException {
+        ExpressionNode node = parseRelational();
+        while (true) {
+            if (accept("===") || accept("==")) {
+                node = new ExpressionNode.Comparison("==", node, parseRelational());
+            } else if (accept("!==") || accept("!=")) {
+                node = new ExpressionNode.Comparison("!=", node, parseRelational());
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private ExpressionNode parseRelational() throws WorkflowExpressionException {
+        ExpressionNode node = parseAdditive();
+        while (true) {
+            if (accept("<=")) {
+                node = new ExpressionNode.Comparison("<=", node, parseAdditive());
+            } else if (accept(">=")) {
+                node = new ExpressionNode.Comparison(">=", node, parseAdditive());
+            } else if (accept("<")) {
+                node = new ExpressionNode.Comparison("<", node, parseAdditive());
+            } else if (accept(">")) {
+                node = new ExpressionNode.Comparison(">", node, parseAdditive());
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private ExpressionNode parseAdditive() throws WorkflowExpressionException {
+        ExpressionNode node = parseMultiplicative();
+        while (true) {
+            if (accept("+")) {
+                node = new ExpressionNode.Arithmetic('+', node, parseMultiplicative());
+            } else if (accept("-")) {
+                node = new ExpressionNode.Arithmetic('-', node, parseMultiplicative());
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private ExpressionNode parseMultiplicative() throws WorkflowExpressionException {
+        ExpressionNode node = parseUnary();
+        while (true) {
+            if (accept("*")) {
+                node = new ExpressionNode.Arithmetic('*', node, parseUnary());
+            } else if (accept("/")) {
+                node = new ExpressionNode.Arithmetic('/', node, parseUnary());
+            } else if (accept("%")) {
+                node = new ExpressionNode.Arithmetic('%', node, parseUnary());
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private ExpressionNode parseUnary() throws WorkflowExpressionException {
+        if (accept("!")) {
+            return new ExpressionNode.Not(parseUnary());
+        } else if (accept("-")) {
+            return new ExpressionNode.Negate(parseUnary());
+        } else if (accept("+")) {
+            return parseUnary();
+        }
+        return parsePrimary();
+    }
+
+    private ExpressionNode parsePrimary() throws WorkflowExpressionException {
+        skipWhitespace();
+        if (position >= source.length()) {
+            throw new WorkflowExpressionException("Unexpected end of expression", position);
+        }
+
+        char c = source.charAt(position);
+        if (accept("(")) {
+            ExpressionNode node = parseConditional();
+            expect(")");
+            return node;
+        } else if (accept("{{")) {
+            int end = source.indexOf("}}", position);
+            String name = end < 0 ? "" : source.substring(position, end).trim();
+            if (name.isEmpty()) {
+                throw new WorkflowExpressionException("Invalid variable reference", position);
+            }
+            position = end + 2;
+            variableNames.add(name);
+            return new ExpressionNode.Variable(name);
+        } else if (c == '\'' || c == '"') {
+            return new ExpressionNode.Literal(parseText(c));
+        } else if (Character.isDigit(c) || c == '.') {
+            return new ExpressionNode.Literal(parseNumber());
+        } else if (Character.isLetter(c)) {
+            int start = position;
+            while (position < source.length() && Character.isLetterOrDigit(source.charAt(position))) {
+                position++;
+            }
+            String word = source.substring(start, position);
+            switch (word) {
+                case "true":
+                    return new ExpressionNode.Literal(Boolean.TRUE);
+                case "false":
+                    return new ExpressionNode.Literal(Boolean.FALSE);
+                case "null":
+                    return new ExpressionNode.Literal(null);
+                default:
+                    throw new WorkflowExpressionException(String.format("Unknown identifier '%s'", word), start);
+            }
+        }
+        throw new WorkflowExpressionException(String.format("Unexpected '%s'", c), position);
+    }
+
+    /**
+     * Parses a quoted text literal starting at the current position.
+     */
+    private String parseText(char quote) throws WorkflowExpressionException {
+        int start = position++;
+        StringBuilder text = new StringBuilder();
+        while (position < source.length()) {
+            char c = source.charAt(position++);
+            if (c == quote) {
+                return text.toString();
+            } else if (c == '\\' && position < source.length()) {
+                char escaped = source.charAt(position++);
+                switch (escaped) {
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    default:
+                        text.append(escaped);
+                }
+            } else {
+                text.append(c);
+            }
+        }
+        throw new WorkflowExpressionException("Unterminated text", start);
+    }
+
+    /**
+     * Parses a decimal number literal starting at the current position.
+     */
+    private Double parseNumber() throws WorkflowExpressionException {
+        int start = position;
+        while (position < source.length() && (Character.isDigit(source.charAt(position)) || source.charAt(position) == '.')) {
+            position++;
+        }
+        if (position < source.length() && (source.charAt(position) == 'e' || source.charAt(position) == 'E')) {
+            position++;
+            if (position < source.length() && (source.charAt(position) == '+' || source.charAt(position) == '-')) {
+                position++;
+            }
+            while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                position++;
+            }
+        }
+        try {
+            return Double.valueOf(source.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw new WorkflowExpressionException("Invalid number", start);
+        }
+    }
+
+    /**
+     * Consumes a token if it comes next.
+     */
+    private boolean accept(String token) {
+        skipWhitespace();
+        if (source.startsWith(token, position)) {
+            position += token.length();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Consumes a token that must come next.
+     */
+    private void expect(String token) throws WorkflowExpressionException {
+        if (!accept(token)) {
+            throw new WorkflowExpressionException(String.format("Expected '%s'", token), position);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+    }
+}
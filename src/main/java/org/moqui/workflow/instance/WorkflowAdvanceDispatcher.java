@@ -0,0 +1,183 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.instance;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.context.ToolFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded worker pool advancing queued workflow instances.
+ * <p>
+ * An instance is advanced by at most one worker of a node at a time. Submitting an instance that is already
+ * being advanced marks it for another pass instead of queuing a second task, so advances of one instance run
+ * in submission order. Submissions that do not fit the pool are dropped and left to the queue sweep.
+ */
+public class WorkflowAdvanceDispatcher implements ToolFactory<WorkflowAdvanceDispatcher> {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowAdvanceDispatcher.class);
+    /**
+     * Tool name.
+     */
+    public static final String TOOL_NAME = "WorkflowAdvanceDispatcher";
+    /**
+     * Property holding the number of worker threads.
+     */
+    private static final String THREADS_PROPERTY = "workflow_advance_threads";
+    /**
+     * Default number of worker threads.
+     */
+    private static final int DEFAULT_THREADS = 4;
+    /**
+     * Property holding the capacity of the pending submission queue.
+     */
+    private static final String QUEUE_CAPACITY_PROPERTY = "workflow_advance_queue_capacity";
+    /**
+     * Default capacity of the pending submission queue.
+     */
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    /**
+     * Execution context factory.
+     */
+    private ExecutionContextFactory ecf;
+    /**
+     * Worker pool.
+     */
+    private ThreadPoolExecutor executor;
+    /**
+     * Instances submitted or being advanced, mapped to whether another pass was requested.
+     */
+    private final ConcurrentHashMap<String, Boolean> inFlight = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return TOOL_NAME;
+    }
+
+    @Override
+    public void init(ExecutionContextFactory ecf) {
+        this.ecf = ecf;
+        int threads = Math.max(1, NumberUtils.toInt(System.getProperty(THREADS_PROPERTY), DEFAULT_THREADS));
+        int queueCapacity = Math.max(1, NumberUtils.toInt(System.getProperty(QUEUE_CAPACITY_PROPERTY), DEFAULT_QUEUE_CAPACITY));
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "WorkflowAdvance-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        logger.info(String.format("Workflow advance dispatcher started with %d threads and a queue of %d", threads, queueCapacity));
+    }
+
+    @Override
+    public WorkflowAdvanceDispatcher getInstance(Object... parameters) {
+        return this;
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gets the dispatcher of the execution context factory.
+     *
+     * @param ecf Execution context factory
+     * @return Dispatcher or {@code null} if the tool is not configured
+     */
+    public static WorkflowAdvanceDispatcher getDispatcher(ExecutionContextFactory ecf) {
+        try {
+            return ecf.getTool(TOOL_NAME, WorkflowAdvanceDispatcher.class);
+        } catch (IllegalArgumentException e) {
+            logger.warn(String.format("Tool %s not configured, queued instances will only be advanced by the queue sweep", TOOL_NAME));
+            return null;
+        }
+    }
+
+    /**
+     * Submits a queued instance to be advanced.
+     *
+     * @param instanceId Instance ID
+     * @return {@code true} if the instance was accepted or is already being advanced, {@code false} if the pool is full
+     */
+    public boolean submit(String instanceId) {
+        if (inFlight.compute(instanceId, (key, rerun) -> rerun != null)) {
+            return true;
+        }
+        try {
+            executor.execute(() -> advance(instanceId));
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(instanceId);
+            logger.debug(String.format("Dispatcher is full, instance %s left to the queue sweep", instanceId));
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of instances submitted or being advanced.
+     *
+     * @return Instance count
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Advances an instance, with another pass for every submission received meanwhile.
+     *
+     * @param instanceId Instance ID
+     */
+    private void advance(String instanceId) {
+        ExecutionContext ec = ecf.getExecutionContext();
+        try {
+            do {
+                try {
+                    WorkflowAdvanceQueue.process(ec, instanceId);
+                } catch (Exception e) {
+                    logger.error(String.format("Error advancing queued instance %s, left to the queue sweep", instanceId), e);
+                }
+            } while (inFlight.compute(instanceId, (key, rerun) -> Boolean.TRUE.equals(rerun) ? Boolean.FALSE : null) != null);
+        } finally {
+            ecf.destroyActiveExecutionContext();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.instance;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.MessageFacade;
+import org.moqui.context.TransactionFacade;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityFacade;
+import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.moqui.entity.util.EntityJdbcUtil;
+import org.moqui.util.TimestampUtil;
+import org.moqui.workflow.util.WorkflowInstanceStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Durable queue of workflow instances waiting to be advanced.
+ * <p>
+ * Each instance has at most one queue entry. Enqueuing increments the entry's request count and the entry is
+ * only removed with a request count guard, so that a request made while the instance is being advanced is
+ * never lost. Entries are handed to the {@link WorkflowAdvanceDispatcher} once the enqueuing transaction
+ * commits, failed advances are retried with an exponential backoff by the queue sweep. Entries of instances that
+ * were completed or aborted in the meantime are dropped instead of retried.
+ */
+public final class WorkflowAdvanceQueue {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowAdvanceQueue.class);
+    /**
+     * Queue entity name.
+     */
+    private static final String ENTITY_NAME = "moqui.workflow.WorkflowAdvanceQueue";
+    /**
+     * Queue table name.
+     */
+    private static final String TABLE_NAME = EntityJdbcUtil.getTableName(ENTITY_NAME);
+    /**
+     * Instance entity name.
+     */
+    private static final String INSTANCE_ENTITY_NAME = "moqui.workflow.WorkflowInstance";
+    /**
+     * Service advancing a workflow instance.
+     */
+    private static final String START_SERVICE_NAME = "org.moqui.workflow.WorkflowServices.start#WorkflowInstance";
+    /**
+     * Property holding the number of attempts after which an entry is parked.
+     */
+    private static final String MAX_ATTEMPTS_PROPERTY = "workflow_advance_max_attempts";
+    /**
+     * Default number of attempts after which an entry is parked.
+     */
+    private static final int DEFAULT_MAX_ATTEMPTS = 10;
+    /**
+     * Delay before retrying an instance that is leased by someone else.
+     */
+    private static final long LEASED_RETRY_MILLIS = 5000L;
+    /**
+     * Base delay of the failure backoff.
+     */
+    private static final long BACKOFF_BASE_MILLIS = 5000L;
+    /**
+     * Maximum delay of the failure backoff.
+     */
+    private static final long BACKOFF_MAX_MILLIS = 3600000L;
+
+    /**
+     * Utility class, not to be instantiated.
+     */
+    private WorkflowAdvanceQueue() {
+    }
+
+    /**
+     * Enqueues a workflow instance as part of the current transaction. The instance is handed to the dispatcher
+     * once the transaction commits, or immediately if no transaction is in place.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     */
+    public static void enqueue(ExecutionContext ec, String instanceId) {
+        Timestamp now = TimestampUtil.now();
+        String updateSql = "UPDATE " + TABLE_NAME + " SET REQUEST_COUNT = REQUEST_COUNT + 1, ATTEMPT_COUNT = 0, NEXT_ATTEMPT_DATE = ?, LAST_UPDATED_STAMP = ?" +
+                " WHERE INSTANCE_ID = ?";
+        int updated = EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME, updateSql, now, now, instanceId);
+        if (updated == 0) {
+            boolean inserted = EntityJdbcUtil.executeInsertIfAbsent(ec, ENTITY_NAME,
+                    "INSERT INTO " + TABLE_NAME + " (INSTANCE_ID, PARTITION_ID, REQUEST_COUNT, ATTEMPT_COUNT, ENQUEUE_DATE, NEXT_ATTEMPT_DATE, LAST_UPDATED_STAMP)" +
+                            " VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    instanceId, (long) WorkflowPartitionManager.partitionOfInstance(instanceId), 1L, 0L, now, now, now);
+
+            // another transaction created the entry in the meantime
+            if (!inserted) {
+                EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME, updateSql, now, now, instanceId);
+            }
+        }
+        logger.debug(String.format("Enqueued instance %s", instanceId));
+
+        // hand over to the dispatcher once the entry is visible to other transactions
+        TransactionFacade tf = ec.getTransaction();
+        WorkflowAdvanceDispatcher dispatcher = WorkflowAdvanceDispatcher.getDispatcher(ec.getFactory());
+        if (dispatcher == null) {
+            return;
+        } else if (!tf.isTransactionInPlace()) {
+            dispatcher.submit(instanceId);
+            return;
+        }
+        tf.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    dispatcher.submit(instanceId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds the instances whose queue entries are due.
+     *
+     * @param ec Execution context
+     * @param partitions Partitions to search or {@code null} to search all
+     * @param limit Maximum number of instances
+     * @return Instance IDs, oldest due first
+     */
+    public static List<String> findDue(ExecutionContext ec, Set<Integer> partitions, int limit) {
+        if (partitions != null && partitions.isEmpty()) {
+            return new ArrayList<>();
+        }
+        EntityFind find = ec.getEntity().find(ENTITY_NAME)
+                .condition("nextAttemptDate", EntityCondition.ComparisonOperator.LESS_THAN_EQUAL_TO, TimestampUtil.now());
+        if (partitions != null) {
+            find.condition("partitionId", EntityCondition.ComparisonOperator.IN, toLongs(partitions));
+        }
+        EntityList entries = find
+                .selectField("instanceId")
+                .orderBy("nextAttemptDate")
+                .limit(limit)
+                .list();
+        List<String> instanceIds = new ArrayList<>(entries.size());
+        for (EntityValue entry : entries) {
+            instanceIds.add(entry.getString("instanceId"));
+        }
+        return instanceIds;
+    }
+
+    /**
+     * Advances a queued workflow instance until its queue entry is served. Must be called outside of a transaction,
+     * each advance and each queue update runs in its own transaction.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @return {@code true} if the entry was served and removed, {@code false} if it was left for a later attempt
+     */
+    public static boolean process(ExecutionContext ec, String instanceId) {
+        EntityFacade ef = ec.getEntity();
+        MessageFacade mf = ec.getMessage();
+
+        while (true) {
+
+            // read the entry
+            EntityValue entry = WorkflowInstanceLease.runInNewTransaction(ec, () -> ef.find(ENTITY_NAME)
+                    .condition("instanceId", instanceId)
+                    .one());
+            if (entry == null) {
+                return true;
+            }
+            Timestamp nextAttemptDate = entry.getTimestamp("nextAttemptDate");
+            if (nextAttemptDate == null || nextAttemptDate.after(TimestampUtil.now())) {
+                return false;
+            }
+            long requestCount = entry.getLong("requestCount");
+            long attemptCount = entry.getLong("attemptCount");
+
+            // advance the instance
+            String errorText = null;
+            boolean executed = false;
+            try {
+                Map<String, Object> result = ec.getService().sync().name(START_SERVICE_NAME)
+                        .parameter("instanceId", instanceId)
+                        .requireNewTransaction(true)
+                        .ignorePreviousError(true)
+                        .disableAuthz()
+                        .call();
+                if (mf.hasError()) {
+                    errorText = mf.getErrorsString();
+                } else {
+                    executed = result != null && Boolean.TRUE.equals(result.get("executed"));
+                }
+            } catch (Exception e) {
+                errorText = StringUtils.defaultIfBlank(e.getMessage(), e.getClass().getName());
+            } finally {
+                mf.clearErrors();
+            }
+
+            // drop the entry if the instance can no longer be advanced, there is nothing left to serve
+            if (errorText != null && !isOperable(ec, instanceId)) {
+                WorkflowInstanceLease.runInNewTransaction(ec, () -> EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                        "DELETE FROM " + TABLE_NAME + " WHERE INSTANCE_ID = ?",
+                        instanceId));
+                logger.debug(String.format("Instance %s is no longer operable, removed queue entry", instanceId));
+                return true;
+            }
+
+            // reschedule the entry if the advance failed or the instance was leased by someone else
+            if (errorText != null) {
+                reschedule(ec, instanceId, attemptCount + 1, errorText);
+                return false;
+            } else if (!executed) {
+                Timestamp retryDate = new Timestamp(System.currentTimeMillis() + LEASED_RETRY_MILLIS);
+                WorkflowInstanceLease.runInNewTransaction(ec, () -> EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                        "UPDATE " + TABLE_NAME + " SET NEXT_ATTEMPT_DATE = ?, LAST_UPDATED_STAMP = ? WHERE INSTANCE_ID = ?",
+                        retryDate, TimestampUtil.now(), instanceId));
+                logger.debug(String.format("Instance %s is leased, retrying at %s", instanceId, retryDate));
+                return false;
+            }
+
+            // remove the entry unless it was enqueued again in the meantime
+            int deleted = WorkflowInstanceLease.runInNewTransaction(ec, () -> EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                    "DELETE FROM " + TABLE_NAME + " WHERE INSTANCE_ID = ? AND REQUEST_COUNT = ?",
+                    instanceId, requestCount));
+            if (deleted > 0) {
+                logger.debug(String.format("Advanced queued instance %s", instanceId));
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Checks if an instance still exists and is neither completed nor aborted.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @return {@code true} if the instance can be advanced
+     */
+    private static boolean isOperable(ExecutionContext ec, String instanceId) {
+        EntityValue instance = WorkflowInstanceLease.runInNewTransaction(ec, () -> ec.getEntity().find(INSTANCE_ENTITY_NAME)
+                .condition("instanceId", instanceId)
+                .selectField("statusId")
+                .one());
+        if (instance == null) {
+            return false;
+        }
+        String statusId = instance.getString("statusId");
+        return !WorkflowInstanceStatus.WF_INST_STAT_COMPLETE.name().equals(statusId) && !WorkflowInstanceStatus.WF_INST_STAT_ABORT.name().equals(statusId);
+    }
+
+    /**
+     * Reschedules a failed entry with an exponential backoff, or parks it once the maximum attempts are reached.
+     * Parked entries are revived by the next enqueue of the instance.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @param attemptCount Failed attempts so far
+     * @param errorText Error of the last attempt
+     */
+    private static void reschedule(ExecutionContext ec, String instanceId, long attemptCount, String errorText) {
+        Timestamp retryDate = null;
+        if (attemptCount < getMaxAttempts()) {
+            long delay = BACKOFF_BASE_MILLIS << Math.min(attemptCount - 1, 20);
+            retryDate = new Timestamp(System.currentTimeMillis() + Math.min(delay, BACKOFF_MAX_MILLIS));
+            logger.warn(String.format("Failed to advance instance %s (attempt %d), retrying at %s: %s", instanceId, attemptCount, retryDate, errorText));
+        } else {
+            logger.error(String.format("Failed to advance instance %s after %d attempts, parking queue entry: %s", instanceId, attemptCount, errorText));
+        }
+
+        Timestamp nextAttemptDate = retryDate;
+        WorkflowInstanceLease.runInNewTransaction(ec, () -> EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                "UPDATE " + TABLE_NAME + " SET ATTEMPT_COUNT = ?, NEXT_ATTEMPT_DATE = ?, LAST_ERROR_TEXT = ?, LAST_UPDATED_STAMP = ? WHERE INSTANCE_ID = ?",
+                attemptCount, nextAttemptDate, errorText, TimestampUtil.now(), instanceId));
+    }
+
+    /**
+     * Converts partition IDs to the type of the partition fields.
+     *
+     * @param partitions Partition IDs
+     * @return Partition IDs as longs
+     */
+    static List<Long> toLongs(Set<Integer> partitions) {
+        List<Long> values = new ArrayList<>(partitions.size());
+        for (Integer partition : partitions) {
+            values.add(partition.longValue());
+        }
+        return values;
+    }
+
+    /**
+     * Gets the configured number of attempts after which an entry is parked.
+     *
+     * @return Maximum attempts
+     */
+    private static int getMaxAttempts() {
+        return NumberUtils.toInt(System.getProperty(MAX_ATTEMPTS_PROPERTY), DEFAULT_MAX_ATTEMPTS);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.instance;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityFacade;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.moqui.entity.util.EntityJdbcUtil;
+import org.moqui.util.TimestampUtil;
+import org.moqui.workflow.definition.UserActivityConfig;
+import org.moqui.workflow.definition.WorkflowActivityDefinition;
+import org.moqui.workflow.definition.WorkflowCrowdConfig;
+import org.moqui.workflow.definition.WorkflowDefinition;
+import org.moqui.workflow.definition.WorkflowDefinitionCache;
+import org.moqui.workflow.util.WorkflowActivityType;
+import org.moqui.workflow.util.WorkflowCrowdResolver;
+import org.moqui.workflow.util.WorkflowTaskStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approval and rejection counters of the crowds of approval activities.
+ * <p>
+ * A tally is created for each crowd when an approval activity is executed and is incremented by a single
+ * atomic UPDATE when a task of a crowd member is approved or rejected, so that concurrent decisions are all
+ * counted and the quorum is decided without counting tasks. Activities executed before tallies existed have
+ * none and are still decided by counting tasks.
+ */
+public final class WorkflowApprovalTally {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowApprovalTally.class);
+    /**
+     * Tally entity name.
+     */
+    private static final String ENTITY_NAME = "moqui.workflow.WorkflowApprovalTally";
+    /**
+     * Tally table name.
+     */
+    private static final String TABLE_NAME = EntityJdbcUtil.getTableName(ENTITY_NAME);
+
+    /**
+     * Utility class, not to be instantiated.
+     */
+    private WorkflowApprovalTally() {
+    }
+
+    /**
+     * Gets the tally ID of a crowd.
+     *
+     * @param crowdIndex Crowd position in the activity
+     * @return Crowd sequence ID
+     */
+    public static String getCrowdSeqId(int crowdIndex) {
+        return String.valueOf(crowdIndex);
+    }
+
+    /**
+     * Creates the missing tallies of an approval activity. Tallies left from an earlier execution of the
+     * activity are kept, as the tasks they counted still count.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @param activityId Activity ID
+     * @param crowdCount Number of crowds
+     */
+    public static void initialize(ExecutionContext ec, String instanceId, String activityId, int crowdCount) {
+        Map<String, EntityValue> tallies = find(ec, instanceId, activityId);
+        for (int i = 0; i < crowdCount; i++) {
+            String crowdSeqId = getCrowdSeqId(i);
+            if (!tallies.containsKey(crowdSeqId)) {
+                ec.getEntity().makeValue(ENTITY_NAME)
+                        .set("instanceId", instanceId)
+                        .set("activityId", activityId)
+                        .set("crowdSeqId", crowdSeqId)
+                        .set("approvalCount", 0L)
+                        .set("rejectionCount", 0L)
+                        .create();
+            }
+        }
+    }
+
+    /**
+     * Finds the tallies of an activity.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @param activityId Activity ID
+     * @return Tallies by crowd sequence ID
+     */
+    public static Map<String, EntityValue> find(ExecutionContext ec, String instanceId, String activityId) {
+        EntityList tallyList = ec.getEntity().find(ENTITY_NAME)
+                .condition("instanceId", instanceId)
+                .condition("activityId", activityId)
+                .list();
+        Map<String, EntityValue> tallies = new HashMap<>();
+        for (EntityValue tally : tallyList) {
+            tallies.put(tally.getString("crowdSeqId"), tally);
+        }
+        return tallies;
+    }
+
+    /**
+     * Records a task status change in the tallies of the crowds the assigned user belongs to. The task must be
+     * locked by the caller so that its previous status is not counted twice.
+     *
+     * @param ec Execution context
+     * @param task Task with its previous status
+     * @param statusId New status ID
+     */
+    public static void record(ExecutionContext ec, EntityValue task, String statusId) {
+        long approvalDelta = delta(task.getString("statusId"), statusId, WorkflowTaskStatus.WF_TASK_STAT_APPROVE);
+        long rejectionDelta = delta(task.getString("statusId"), statusId, WorkflowTaskStatus.WF_TASK_STAT_REJECT);
+        if (approvalDelta == 0 && rejectionDelta == 0) {
+            return;
+        }
+
+        // get the crowds of the activity
+        EntityFacade ef = ec.getEntity();
+        String instanceId = task.getString("instanceId");
+        String activityId = task.getString("activityId");
+        EntityValue instance = ef.find("moqui.workflow.WorkflowInstance")
+                .condition("instanceId", instanceId)
+                .selectField("workflowId,inputUserId")
+                .one();
+        WorkflowDefinition workflow = instance != null ? WorkflowDefinitionCache.getWorkflowDefinition(ec, instance.getString("workflowId")) : null;
+        WorkflowActivityDefinition activity = workflow != null ? workflow.getActivity(activityId) : null;
+        if (activity == null || !WorkflowActivityType.WF_ACTIVITY_USER.name().equals(activity.getActivityTypeEnumId())) {
+            return;
+        }
+        List<WorkflowCrowdConfig> crowds = activity.getConfig(UserActivityConfig.class).getCrowds();
+
+        // update the tallies of the crowds the user belongs to
+        String userId = task.getString("assignedUserId");
+        for (int i = 0; i < crowds.size(); i++) {
+            if (!WorkflowCrowdResolver.resolve(ec, crowds.get(i), instance.getString("inputUserId")).containsKey(userId)) {
+                continue;
+            }
+            int updated = EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                    "UPDATE " + TABLE_NAME + " SET APPROVAL_COUNT = APPROVAL_COUNT + ?, REJECTION_COUNT = REJECTION_COUNT + ?, LAST_UPDATED_STAMP = ?" +
+                            " WHERE INSTANCE_ID = ? AND ACTIVITY_ID = ? AND CROWD_SEQ_ID = ?",
+                    approvalDelta, rejectionDelta, TimestampUtil.now(), instanceId, activityId, getCrowdSeqId(i));
+            if (updated == 0) {
+                logger.debug(String.format("Activity %s of instance %s has no tally for crowd %d", activityId, instanceId, i));
+            }
+        }
+    }
+
+    /**
+     * Gets the change of a counter caused by a status change.
+     *
+     * @param fromStatusId Previous status ID
+     * @param toStatusId New status ID
+     * @param countedStatus Counted status
+     * @return Counter change
+     */
+    private static long delta(String fromStatusId, String toStatusId, WorkflowTaskStatus countedStatus) {
+        boolean wasCounted = EnumUtils.getEnum(WorkflowTaskStatus.class, fromStatusId) == countedStatus;
+        boolean isCounted = EnumUtils.getEnum(WorkflowTaskStatus.class, toStatusId) == countedStatus;
+        return (isCounted ? 1 : 0) - (wasCounted ? 1 : 0);
+    }
+}
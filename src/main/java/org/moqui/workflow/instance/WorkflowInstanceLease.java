@@ -0,0 +1,257 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.instance;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.context.TransactionFacade;
+import org.moqui.entity.EntityValue;
+import org.moqui.entity.util.EntityJdbcUtil;
+import org.moqui.util.ServerUtil;
+import org.moqui.util.TimestampUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Exclusive, time-limited lease on a workflow instance.
+ * <p>
+ * A lease is acquired with a single conditional UPDATE that only matches when the instance is free or its
+ * lease has expired, committed in its own transaction so that losing the race returns immediately. Every
+ * acquisition increments the instance's lease token, and the holder's writes are guarded by that token so
+ * that a holder whose lease expired and was taken over cannot overwrite the new holder's work.
+ */
+public final class WorkflowInstanceLease {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowInstanceLease.class);
+    /**
+     * Instance entity name.
+     */
+    static final String ENTITY_NAME = "moqui.workflow.WorkflowInstance";
+    /**
+     * Instance table name.
+     */
+    static final String TABLE_NAME = EntityJdbcUtil.getTableName(ENTITY_NAME);
+    /**
+     * Property holding the lease duration in seconds.
+     */
+    private static final String LEASE_SECONDS_PROPERTY = "workflow_instance_lease_seconds";
+    /**
+     * Default lease duration in seconds.
+     */
+    private static final int DEFAULT_LEASE_SECONDS = 300;
+
+    /**
+     * Instance ID.
+     */
+    private final String instanceId;
+    /**
+     * Lease owner.
+     */
+    private final String owner;
+    /**
+     * Fencing token of this acquisition.
+     */
+    private final long token;
+    /**
+     * Lease expiry date.
+     */
+    private final Timestamp expireDate;
+
+    /**
+     * Creates a new lease.
+     *
+     * @param instanceId Instance ID
+     * @param owner Lease owner
+     * @param token Fencing token
+     * @param expireDate Lease expiry date
+     */
+    private WorkflowInstanceLease(String instanceId, String owner, long token, Timestamp expireDate) {
+        this.instanceId = instanceId;
+        this.owner = owner;
+        this.token = token;
+        this.expireDate = expireDate;
+    }
+
+    /**
+     * Tries to acquire the lease of a workflow instance without blocking. If the calling transaction rolls
+     * back, the lease is released in the background so that the instance does not stay blocked until expiry.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @return Lease or {@code null} if the instance does not exist or is leased by someone else
+     */
+    public static WorkflowInstanceLease acquire(ExecutionContext ec, String instanceId) {
+        String owner = String.format("%s:%s", ServerUtil.getServerName(), UUID.randomUUID().toString());
+        Timestamp now = TimestampUtil.now();
+        Timestamp expireDate = new Timestamp(now.getTime() + getLeaseSeconds() * 1000L);
+
+        Long token = runInNewTransaction(ec, () -> {
+            int updated = EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                    "UPDATE " + TABLE_NAME + " SET LEASE_OWNER = ?, LEASE_EXPIRE_DATE = ?, LEASE_TOKEN = COALESCE(LEASE_TOKEN, 0) + 1, LAST_UPDATED_STAMP = ?" +
+                            " WHERE INSTANCE_ID = ? AND (LEASE_OWNER IS NULL OR LEASE_EXPIRE_DATE IS NULL OR LEASE_EXPIRE_DATE < ?)",
+                    owner, expireDate, now, instanceId, now);
+            if (updated == 0) {
+                return null;
+            }
+            EntityValue instance = ec.getEntity().find(ENTITY_NAME)
+                    .condition("instanceId", instanceId)
+                    .selectField("leaseToken")
+                    .one();
+            return instance.getLong("leaseToken");
+        });
+        if (token == null) {
+            return null;
+        }
+
+        WorkflowInstanceLease lease = new WorkflowInstanceLease(instanceId, owner, token, expireDate);
+        lease.releaseOnRollback(ec);
+        logger.debug(String.format("Acquired lease %d of instance %s until %s", token, instanceId, expireDate));
+        return lease;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    public Timestamp getExpireDate() {
+        return expireDate;
+    }
+
+    /**
+     * Releases the lease as part of the current transaction.
+     *
+     * @param ec Execution context
+     * @return {@code true} if the lease was still held, {@code false} if it expired and was taken over
+     */
+    public boolean release(ExecutionContext ec) {
+        int updated = EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                "UPDATE " + TABLE_NAME + " SET LEASE_OWNER = NULL, LEASE_EXPIRE_DATE = NULL, LAST_UPDATED_STAMP = ?" +
+                        " WHERE INSTANCE_ID = ? AND LEASE_OWNER = ? AND LEASE_TOKEN = ?",
+                TimestampUtil.now(), instanceId, owner, token);
+        return updated > 0;
+    }
+
+    /**
+     * Releases the lease right away in a new transaction, for callers giving up before changing the instance.
+     *
+     * @param ec Execution context
+     * @return {@code true} if the lease was still held, {@code false} if it expired and was taken over
+     */
+    public boolean releaseNow(ExecutionContext ec) {
+        boolean released = runInNewTransaction(ec, () -> release(ec));
+        logger.debug(String.format("Released lease %d of instance %s", token, instanceId));
+        return released;
+    }
+
+    /**
+     * Registers a synchronization that releases the lease in a new transaction if the current one does not commit.
+     *
+     * @param ec Execution context
+     */
+    private void releaseOnRollback(ExecutionContext ec) {
+        TransactionFacade tf = ec.getTransaction();
+        if (!tf.isTransactionInPlace()) {
+            return;
+        }
+
+        ExecutionContextFactory ecf = ec.getFactory();
+        tf.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    return;
+                }
+                ecf.getWorkerPool().submit(() -> {
+                    ExecutionContext workerEc = ecf.getExecutionContext();
+                    try {
+                        runInNewTransaction(workerEc, () -> release(workerEc));
+                        logger.debug(String.format("Released lease %d of instance %s after rollback", token, instanceId));
+                    } catch (Exception e) {
+                        logger.warn(String.format("Failed to release lease %d of instance %s after rollback, it will expire at %s", token, instanceId, expireDate), e);
+                    } finally {
+                        ecf.destroyActiveExecutionContext();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Gets the configured lease duration.
+     *
+     * @return Lease duration in seconds
+     */
+    private static int getLeaseSeconds() {
+        return NumberUtils.toInt(System.getProperty(LEASE_SECONDS_PROPERTY), DEFAULT_LEASE_SECONDS);
+    }
+
+    /**
+     * Runs work in a new transaction, suspending the current one if any.
+     *
+     * @param ec Execution context
+     * @param work Work to run
+     * @param <T> Result type
+     * @return Result of the work
+     */
+    static <T> T runInNewTransaction(ExecutionContext ec, TransactionalWork<T> work) {
+        TransactionFacade tf = ec.getTransaction();
+        boolean suspended = tf.isTransactionInPlace() && tf.suspend();
+        try {
+            boolean beganTransaction = tf.begin(null);
+            try {
+                T result = work.run();
+                tf.commit(beganTransaction);
+                return result;
+            } catch (RuntimeException e) {
+                tf.rollback(beganTransaction, "Error in workflow instance lease transaction", e);
+                throw e;
+            }
+        } finally {
+            if (suspended) {
+                tf.resume();
+            }
+        }
+    }
+
+    /**
+     * Unit of work run in its own transaction.
+     *
+     * @param <T> Result type
+     */
+    @FunctionalInterface
+    interface TransactionalWork<T> {
+        T run();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.instance;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityValue;
+import org.moqui.entity.util.EntityJdbcUtil;
+import org.moqui.util.TimestampUtil;
+import org.moqui.workflow.util.WorkflowInstanceStatus;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-behind state of a leased workflow instance.
+ * <p>
+ * Changes made while the instance is advanced are applied to the in-memory instance right away and
+ * tracked as dirty fields, then written with a single UPDATE when the lease is released. The UPDATE
+ * is guarded by the lease token, so nothing is written if the lease expired and was taken over.
+ */
+public final class WorkflowInstanceState {
+
+    /**
+     * Instance entity.
+     */
+    private final EntityValue instance;
+    /**
+     * Instance lease.
+     */
+    private final WorkflowInstanceLease lease;
+    /**
+     * Changed fields and their new values, in order of change.
+     */
+    private final Map<String, Object> dirtyFields = new LinkedHashMap<>();
+    /**
+     * Instance variables, loaded when first needed.
+     */
+    private WorkflowVariableSnapshot variables;
+
+    /**
+     * Creates a new instance state.
+     *
+     * @param instance Instance entity, read after the lease was acquired
+     * @param lease Instance lease
+     */
+    public WorkflowInstanceState(EntityValue instance, WorkflowInstanceLease lease) {
+        this.instance = instance;
+        this.lease = lease;
+    }
+
+    /**
+     * Gets the in-memory instance entity, including pending changes. The entity must not be updated directly.
+     *
+     * @return Instance entity
+     */
+    public EntityValue getInstance() {
+        return instance;
+    }
+
+    public WorkflowInstanceLease getLease() {
+        return lease;
+    }
+
+    public String getInstanceId() {
+        return instance.getString("instanceId");
+    }
+
+    public String getWorkflowId() {
+        return instance.getString("workflowId");
+    }
+
+    public String getStatusId() {
+        return instance.getString("statusId");
+    }
+
+    public String getActivityId() {
+        return instance.getString("activityId");
+    }
+
+    public boolean isActivityExecuted() {
+        return "Y".equals(instance.getString("activityExecuted"));
+    }
+
+    public Timestamp getTimeoutDate() {
+        return instance.getTimestamp("timeoutDate");
+    }
+
+    public String getString(String fieldName) {
+        return instance.getString(fieldName);
+    }
+
+    public Timestamp getTimestamp(String fieldName) {
+        return instance.getTimestamp(fieldName);
+    }
+
+    public void setStatusId(String statusId) {
+        set("statusId", statusId);
+    }
+
+    public void setActivityId(String activityId) {
+        set("activityId", activityId);
+    }
+
+    public void setActivityExecuted(boolean activityExecuted) {
+        set("activityExecuted", activityExecuted ? "Y" : "N");
+    }
+
+    public void setTimeoutDate(Timestamp timeoutDate) {
+        set("timeoutDate", timeoutDate);
+    }
+
+    public void setResultCode(Integer resultCode) {
+        set("resultCode", resultCode);
+    }
+
+    /**
+     * Gets the instance variables, loading them on first use. The snapshot is shared by all activities
+     * executed while the instance is leased.
+     *
+     * @param ec Execution context
+     * @return Variable snapshot
+     */
+    public WorkflowVariableSnapshot getVariables(ExecutionContext ec) {
+        if (variables == null) {
+            variables = new WorkflowVariableSnapshot(ec, getInstanceId());
+        }
+        return variables;
+    }
+
+    /**
+     * Changes the value of an instance variable, converting it to the variable type and writing it to the
+     * database right away and to the variable snapshot.
+     *
+     * @param ec Execution context
+     * @param variableId Variable ID
+     * @param value New value
+     * @throws IllegalArgumentException If the value cannot be converted to the variable type
+     */
+    public void setVariable(ExecutionContext ec, String variableId, Object value) {
+        getVariables(ec).update(ec, getInstanceId(), variableId, value);
+    }
+
+    /**
+     * Changes a field in memory and marks the instance as updated.
+     *
+     * @param fieldName Field name
+     * @param value New value
+     */
+    private void set(String fieldName, Object value) {
+        Timestamp now = TimestampUtil.now();
+        instance.set(fieldName, value);
+        instance.set("lastUpdateDate", now);
+        dirtyFields.put(fieldName, value);
+        dirtyFields.put("lastUpdateDate", now);
+    }
+
+    /**
+     * Checks whether there are changes not written yet.
+     *
+     * @return {@code true} if there are pending changes
+     */
+    public boolean isDirty() {
+        return !dirtyFields.isEmpty();
+    }
+
+    /**
+     * Writes pending changes and releases the lease with a single UPDATE in the current transaction.
+     *
+     * @param ec Execution context
+     * @return {@code true} if the lease was still held, {@code false} if it expired and was taken over
+     */
+    public boolean flushAndRelease(ExecutionContext ec) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(WorkflowInstanceLease.TABLE_NAME).append(" SET ");
+        List<Object> parameters = new ArrayList<>(dirtyFields.size() + 4);
+        for (Map.Entry<String, Object> dirtyField : dirtyFields.entrySet()) {
+            sql.append(EntityJdbcUtil.getColumnName(dirtyField.getKey())).append(" = ?, ");
+            parameters.add(dirtyField.getValue());
+        }
+        sql.append("LEASE_OWNER = NULL, LEASE_EXPIRE_DATE = NULL, LAST_UPDATED_STAMP = ?")
+                .append(" WHERE INSTANCE_ID = ? AND LEASE_OWNER = ? AND LEASE_TOKEN = ?");
+        parameters.add(TimestampUtil.now());
+        parameters.add(lease.getInstanceId());
+        parameters.add(lease.getOwner());
+        parameters.add(lease.getToken());
+
+        int updated = EntityJdbcUtil.executeUpdate(ec, WorkflowInstanceLease.ENTITY_NAME, sql.toString(), parameters.toArray());
+
+        // keep the timer in line with the timeout, finished instances never time out
+        if (updated > 0 && (dirtyFields.containsKey("timeoutDate") || isFinished())) {
+            WorkflowInstanceTimer.store(ec, getInstanceId(), isFinished() ? null : getTimeoutDate());
+        }
+        dirtyFields.clear();
+        return updated > 0;
+    }
+
+    /**
+     * Checks whether the instance completed or was aborted.
+     *
+     * @return {@code true} if the instance is finished
+     */
+    private boolean isFinished() {
+        String statusId = getStatusId();
+        return WorkflowInstanceStatus.WF_INST_STAT_COMPLETE.name().equals(statusId) || WorkflowInstanceStatus.WF_INST_STAT_ABORT.name().equals(statusId);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.instance;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.TransactionFacade;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.moqui.entity.util.EntityJdbcUtil;
+import org.moqui.util.TimestampUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Activity timeouts of workflow instances, kept in a narrow table indexed by due date.
+ * <p>
+ * The table is the durable source of the {@link WorkflowTimerWheel}, which fires the timers in memory. Firing a
+ * timer deletes its row and enqueues the instance in the {@link WorkflowAdvanceQueue} in one transaction.
+ */
+public final class WorkflowInstanceTimer {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowInstanceTimer.class);
+    /**
+     * Timer entity name.
+     */
+    private static final String ENTITY_NAME = "moqui.workflow.WorkflowInstanceTimer";
+    /**
+     * Timer table name.
+     */
+    private static final String TABLE_NAME = EntityJdbcUtil.getTableName(ENTITY_NAME);
+
+    /**
+     * Utility class, not to be instantiated.
+     */
+    private WorkflowInstanceTimer() {
+    }
+
+    /**
+     * Sets or clears the timer of an instance as part of the current transaction. The timer wheel is updated once
+     * the transaction commits, or immediately if no transaction is in place.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @param dueDate Due date or {@code null} to clear the timer
+     */
+    public static void store(ExecutionContext ec, String instanceId, Timestamp dueDate) {
+        Timestamp now = TimestampUtil.now();
+        if (dueDate == null) {
+            EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                    "DELETE FROM " + TABLE_NAME + " WHERE INSTANCE_ID = ?",
+                    instanceId);
+        } else {
+            int updated = EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                    "UPDATE " + TABLE_NAME + " SET DUE_DATE = ?, LAST_UPDATED_STAMP = ? WHERE INSTANCE_ID = ?",
+                    dueDate, now, instanceId);
+            if (updated == 0) {
+                ec.getEntity().makeValue(ENTITY_NAME)
+                        .set("instanceId", instanceId)
+                        .set("partitionId", (long) WorkflowPartitionManager.partitionOfInstance(instanceId))
+                        .set("dueDate", dueDate)
+                        .create();
+            }
+        }
+
+        // update the wheel once the change is visible to other transactions
+        WorkflowTimerWheel wheel = WorkflowTimerWheel.getWheel(ec.getFactory());
+        if (wheel == null) {
+            return;
+        }
+        TransactionFacade tf = ec.getTransaction();
+        if (!tf.isTransactionInPlace()) {
+            wheel.schedule(instanceId, dueDate);
+            return;
+        }
+        tf.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    wheel.schedule(instanceId, dueDate);
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds the timers due up to a date.
+     *
+     * @param ec Execution context
+     * @param partitions Partitions to search or {@code null} to search all
+     * @param until Latest due date
+     * @param limit Maximum number of timers
+     * @return Due dates by instance ID, earliest first
+     */
+    public static Map<String, Timestamp> findDue(ExecutionContext ec, Set<Integer> partitions, Timestamp until, int limit) {
+        Map<String, Timestamp> dueDates = new LinkedHashMap<>();
+        if (partitions != null && partitions.isEmpty()) {
+            return dueDates;
+        }
+        EntityFind find = ec.getEntity().find(ENTITY_NAME)
+                .condition("dueDate", EntityCondition.ComparisonOperator.LESS_THAN_EQUAL_TO, until);
+        if (partitions != null) {
+            find.condition("partitionId", EntityCondition.ComparisonOperator.IN, WorkflowAdvanceQueue.toLongs(partitions));
+        }
+        EntityList timers = find
+                .orderBy("dueDate")
+                .limit(limit)
+                .list();
+        for (EntityValue timer : timers) {
+            dueDates.put(timer.getString("instanceId"), timer.getTimestamp("dueDate"));
+        }
+        return dueDates;
+    }
+
+    /**
+     * Fires the timer of an instance in a new transaction if it is still due, enqueuing the instance to be advanced.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @return {@code true} if the timer fired, {@code false} if it was cleared, moved or fired by someone else
+     */
+    public static boolean fire(ExecutionContext ec, String instanceId) {
+        boolean fired = WorkflowInstanceLease.runInNewTransaction(ec, () -> {
+            int deleted = EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                    "DELETE FROM " + TABLE_NAME + " WHERE INSTANCE_ID = ? AND DUE_DATE <= ?",
+                    instanceId, TimestampUtil.now());
+            if (deleted == 0) {
+                return false;
+            }
+            WorkflowAdvanceQueue.enqueue(ec, instanceId);
+            return true;
+        });
+        logger.debug(String.format("Timer of instance %s %s", instanceId, fired ? "fired" : "no longer due"));
+        return fired;
+    }
+}
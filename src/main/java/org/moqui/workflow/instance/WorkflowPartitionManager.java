@@ -0,0 +1,403 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.instance;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.context.ToolFactory;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityFacade;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.moqui.entity.util.EntityJdbcUtil;
+import org.moqui.util.ServerUtil;
+import org.moqui.util.TimestampUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits scheduling work across cluster nodes by hashing instance IDs into a fixed number of partitions.
+ * <p>
+ * Each node heartbeats into the scheduler node table and holds time-limited leases on its fair share of the
+ * partitions, releasing extra partitions when nodes join and claiming free or expired ones when nodes leave.
+ * The queue sweep, the timer reconciliation and the elapsed-instance fallback only touch the partitions of
+ * their node. The partition count must be the same on all nodes.
+ */
+public class WorkflowPartitionManager implements ToolFactory<WorkflowPartitionManager> {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowPartitionManager.class);
+    /**
+     * Tool name.
+     */
+    public static final String TOOL_NAME = "WorkflowPartitionManager";
+    /**
+     * Partition lease entity name.
+     */
+    private static final String LEASE_ENTITY_NAME = "moqui.workflow.WorkflowPartitionLease";
+    /**
+     * Partition lease table name.
+     */
+    private static final String LEASE_TABLE_NAME = EntityJdbcUtil.getTableName(LEASE_ENTITY_NAME);
+    /**
+     * Scheduler node entity name.
+     */
+    private static final String NODE_ENTITY_NAME = "moqui.workflow.WorkflowSchedulerNode";
+    /**
+     * Scheduler node table name.
+     */
+    private static final String NODE_TABLE_NAME = EntityJdbcUtil.getTableName(NODE_ENTITY_NAME);
+    /**
+     * Property holding the number of partitions.
+     */
+    private static final String PARTITION_COUNT_PROPERTY = "workflow_partition_count";
+    /**
+     * Default number of partitions.
+     */
+    private static final int DEFAULT_PARTITION_COUNT = 16;
+    /**
+     * Property holding the heartbeat interval in seconds.
+     */
+    private static final String HEARTBEAT_SECONDS_PROPERTY = "workflow_partition_heartbeat_seconds";
+    /**
+     * Default heartbeat interval in seconds.
+     */
+    private static final int DEFAULT_HEARTBEAT_SECONDS = 10;
+    /**
+     * Number of heartbeat intervals after which a node or a partition lease is considered dead.
+     */
+    private static final int EXPIRE_HEARTBEATS = 3;
+
+    /**
+     * Execution context factory.
+     */
+    private ExecutionContextFactory ecf;
+    /**
+     * Heartbeat thread.
+     */
+    private ScheduledExecutorService heartbeat;
+    /**
+     * Node ID of this node.
+     */
+    private String nodeId;
+    /**
+     * Number of partitions.
+     */
+    private int partitionCount;
+    /**
+     * Heartbeat interval in milliseconds.
+     */
+    private long heartbeatMillis;
+    /**
+     * Partitions owned by this node.
+     */
+    private volatile Set<Integer> ownedPartitions = Collections.emptySet();
+    /**
+     * Time until which the owned partitions are valid, in milliseconds.
+     */
+    private volatile long ownedUntil;
+
+    @Override
+    public String getName() {
+        return TOOL_NAME;
+    }
+
+    @Override
+    public void init(ExecutionContextFactory ecf) {
+        this.ecf = ecf;
+        this.nodeId = String.format("%s:%s", ServerUtil.getServerName(), UUID.randomUUID().toString());
+        this.partitionCount = Math.max(1, NumberUtils.toInt(System.getProperty(PARTITION_COUNT_PROPERTY), DEFAULT_PARTITION_COUNT));
+        this.heartbeatMillis = Math.max(1, NumberUtils.toInt(System.getProperty(HEARTBEAT_SECONDS_PROPERTY), DEFAULT_HEARTBEAT_SECONDS)) * 1000L;
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WorkflowPartitionManager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        logger.info(String.format("Workflow partition manager started as node %s with %d partitions", nodeId, partitionCount));
+    }
+
+    @Override
+    public WorkflowPartitionManager getInstance(Object... parameters) {
+        return this;
+    }
+
+    @Override
+    public void destroy() {
+        if (heartbeat == null) {
+            return;
+        }
+        heartbeat.shutdownNow();
+        ExecutionContext ec = ecf.getExecutionContext();
+        try {
+            WorkflowInstanceLease.runInNewTransaction(ec, () -> {
+                EntityJdbcUtil.executeUpdate(ec, LEASE_ENTITY_NAME,
+                        "UPDATE " + LEASE_TABLE_NAME + " SET OWNER_NODE_ID = NULL, LEASE_EXPIRE_DATE = NULL, LAST_UPDATED_STAMP = ? WHERE OWNER_NODE_ID = ?",
+                        TimestampUtil.now(), nodeId);
+                return EntityJdbcUtil.executeUpdate(ec, NODE_ENTITY_NAME,
+                        "DELETE FROM " + NODE_TABLE_NAME + " WHERE NODE_ID = ?",
+                        nodeId);
+            });
+            ownedPartitions = Collections.emptySet();
+            logger.info(String.format("Node %s released its workflow partitions", nodeId));
+        } catch (Exception e) {
+            logger.warn(String.format("Failed to release the workflow partitions of node %s, they will expire", nodeId), e);
+        } finally {
+            ecf.destroyActiveExecutionContext();
+        }
+    }
+
+    /**
+     * Gets the partition manager of the execution context factory.
+     *
+     * @param ecf Execution context factory
+     * @return Partition manager or {@code null} if the tool is not configured
+     */
+    public static WorkflowPartitionManager getManager(ExecutionContextFactory ecf) {
+        try {
+            return ecf.getTool(TOOL_NAME, WorkflowPartitionManager.class);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the partitions owned by this node in a cluster where partitioning may not be configured.
+     *
+     * @param ecf Execution context factory
+     * @return Owned partitions or {@code null} if partitioning is not configured and the node owns everything
+     */
+    public static Set<Integer> getOwnedPartitions(ExecutionContextFactory ecf) {
+        WorkflowPartitionManager manager = getManager(ecf);
+        return manager == null ? null : manager.getOwnedPartitions();
+    }
+
+    /**
+     * Gets the partition of an instance.
+     *
+     * @param instanceId Instance ID
+     * @return Partition ID
+     */
+    public int partitionOf(String instanceId) {
+        return partitionOf(instanceId, partitionCount);
+    }
+
+    /**
+     * Gets the partition of an instance for the configured partition count.
+     *
+     * @param instanceId Instance ID
+     * @return Partition ID
+     */
+    public static int partitionOfInstance(String instanceId) {
+        return partitionOf(instanceId, Math.max(1, NumberUtils.toInt(System.getProperty(PARTITION_COUNT_PROPERTY), DEFAULT_PARTITION_COUNT)));
+    }
+
+    /**
+     * Hashes an instance ID into a partition.
+     *
+     * @param instanceId Instance ID
+     * @param partitionCount Number of partitions
+     * @return Partition ID
+     */
+    private static int partitionOf(String instanceId, int partitionCount) {
+        return (instanceId.hashCode() & Integer.MAX_VALUE) % partitionCount;
+    }
+
+    /**
+     * Gets the partitions currently owned by this node. Ownership lapses if the node fails to renew its leases.
+     *
+     * @return Owned partitions
+     */
+    public Set<Integer> getOwnedPartitions() {
+        return System.currentTimeMillis() < ownedUntil ? ownedPartitions : Collections.emptySet();
+    }
+
+    /**
+     * Checks whether this node owns the partition of an instance.
+     *
+     * @param instanceId Instance ID
+     * @return {@code true} if the partition is owned
+     */
+    public boolean owns(String instanceId) {
+        return getOwnedPartitions().contains(partitionOf(instanceId));
+    }
+
+    /**
+     * Gets the ID of this node, recorded as owner of its partition leases.
+     *
+     * @return Node ID
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Gets the number of partitions the instances are hashed into.
+     *
+     * @return Partition count
+     */
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * Renews the node heartbeat and the partition leases, then rebalances towards the fair share.
+     */
+    private void heartbeat() {
+        ExecutionContext ec = ecf.getExecutionContext();
+        try {
+            ensurePartitions(ec);
+            long renewedAt = System.currentTimeMillis();
+            Set<Integer> owned = WorkflowInstanceLease.runInNewTransaction(ec, () -> rebalance(ec));
+            Set<Integer> previous = getOwnedPartitions();
+            ownedPartitions = Collections.unmodifiableSet(owned);
+            ownedUntil = renewedAt + heartbeatMillis * EXPIRE_HEARTBEATS - heartbeatMillis;
+            if (!owned.equals(previous)) {
+                logger.info(String.format("Node %s now owns workflow partitions %s", nodeId, owned));
+
+                // load the timers of the partitions gained
+                Set<Integer> gained = new TreeSet<>(owned);
+                gained.removeAll(previous);
+                WorkflowTimerWheel wheel = WorkflowTimerWheel.getWheel(ecf);
+                if (wheel != null && !gained.isEmpty()) {
+                    wheel.load(ec, gained);
+                }
+            }
+        } catch (Exception e) {
+            logger.error(String.format("Workflow partition heartbeat of node %s failed", nodeId), e);
+        } finally {
+            ecf.destroyActiveExecutionContext();
+        }
+    }
+
+    /**
+     * Creates the partition lease rows missing for the configured partition count.
+     *
+     * @param ec Execution context
+     */
+    private void ensurePartitions(ExecutionContext ec) {
+        EntityFacade ef = ec.getEntity();
+        long existing = WorkflowInstanceLease.runInNewTransaction(ec, () -> ef.find(LEASE_ENTITY_NAME).count());
+        if (existing >= partitionCount) {
+            return;
+        }
+        for (int partitionId = 0; partitionId < partitionCount; partitionId++) {
+            int id = partitionId;
+            try {
+                WorkflowInstanceLease.runInNewTransaction(ec, () -> {
+                    if (ef.find(LEASE_ENTITY_NAME).condition("partitionId", (long) id).count() == 0) {
+                        ef.makeValue(LEASE_ENTITY_NAME)
+                                .set("partitionId", (long) id)
+                                .set("leaseToken", 0L)
+                                .create();
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                logger.debug(String.format("Partition %d was created concurrently", id), e);
+            }
+        }
+    }
+
+    /**
+     * Renews the node heartbeat and the owned leases, releases partitions above the fair share and claims free
+     * partitions below it.
+     *
+     * @param ec Execution context
+     * @return Partitions owned after rebalancing
+     */
+    private Set<Integer> rebalance(ExecutionContext ec) {
+        EntityFacade ef = ec.getEntity();
+        Timestamp now = TimestampUtil.now();
+        Timestamp expireDate = new Timestamp(now.getTime() + heartbeatMillis * EXPIRE_HEARTBEATS);
+        Timestamp liveSince = new Timestamp(now.getTime() - heartbeatMillis * EXPIRE_HEARTBEATS);
+
+        // heartbeat
+        int updated = EntityJdbcUtil.executeUpdate(ec, NODE_ENTITY_NAME,
+                "UPDATE " + NODE_TABLE_NAME + " SET HEARTBEAT_DATE = ?, LAST_UPDATED_STAMP = ? WHERE NODE_ID = ?",
+                now, now, nodeId);
+        if (updated == 0) {
+            ef.makeValue(NODE_ENTITY_NAME)
+                    .set("nodeId", nodeId)
+                    .set("heartbeatDate", now)
+                    .create();
+        }
+        EntityJdbcUtil.executeUpdate(ec, NODE_ENTITY_NAME,
+                "DELETE FROM " + NODE_TABLE_NAME + " WHERE HEARTBEAT_DATE < ?",
+                liveSince);
+        long liveNodes = Math.max(1, ef.find(NODE_ENTITY_NAME).count());
+        int fairShare = (int) ((partitionCount + liveNodes - 1) / liveNodes);
+
+        // renew the owned leases
+        EntityJdbcUtil.executeUpdate(ec, LEASE_ENTITY_NAME,
+                "UPDATE " + LEASE_TABLE_NAME + " SET LEASE_EXPIRE_DATE = ?, LAST_UPDATED_STAMP = ? WHERE OWNER_NODE_ID = ?",
+                expireDate, now, nodeId);
+        EntityList leases = ef.find(LEASE_ENTITY_NAME)
+                .condition("partitionId", EntityCondition.ComparisonOperator.LESS_THAN, (long) partitionCount)
+                .orderBy("partitionId")
+                .list();
+        Set<Integer> owned = new TreeSet<>();
+        List<Integer> claimable = new ArrayList<>();
+        for (EntityValue lease : leases) {
+            int partitionId = lease.getLong("partitionId").intValue();
+            Timestamp leaseExpireDate = lease.getTimestamp("leaseExpireDate");
+            if (nodeId.equals(lease.getString("ownerNodeId"))) {
+                owned.add(partitionId);
+            } else if (lease.getString("ownerNodeId") == null || leaseExpireDate == null || leaseExpireDate.before(now)) {
+                claimable.add(partitionId);
+            }
+        }
+
+        // release partitions above the fair share
+        List<Integer> ownedList = new ArrayList<>(owned);
+        for (int i = ownedList.size() - 1; i >= 0 && owned.size() > fairShare; i--) {
+            int partitionId = ownedList.get(i);
+            EntityJdbcUtil.executeUpdate(ec, LEASE_ENTITY_NAME,
+                    "UPDATE " + LEASE_TABLE_NAME + " SET OWNER_NODE_ID = NULL, LEASE_EXPIRE_DATE = NULL, LAST_UPDATED_STAMP = ? WHERE PARTITION_ID = ? AND OWNER_NODE_ID = ?",
+                    now, partitionId, nodeId);
+            owned.remove(partitionId);
+        }
+
+        // claim free partitions below the fair share, starting at a node specific offset to spread the claims
+        if (!claimable.isEmpty()) {
+            int offset = (nodeId.hashCode() & Integer.MAX_VALUE) % claimable.size();
+            for (int i = 0; i < claimable.size() && owned.size() < fairShare; i++) {
+                int partitionId = claimable.get((offset + i) % claimable.size());
+                int claimed = EntityJdbcUtil.executeUpdate(ec, LEASE_ENTITY_NAME,
+                        "UPDATE " + LEASE_TABLE_NAME + " SET OWNER_NODE_ID = ?, LEASE_EXPIRE_DATE = ?, LEASE_TOKEN = LEASE_TOKEN + 1, LAST_UPDATED_STAMP = ?" +
+                                " WHERE PARTITION_ID = ? AND (OWNER_NODE_ID IS NULL OR LEASE_EXPIRE_DATE IS NULL OR LEASE_EXPIRE_DATE < ?)",
+                        nodeId, expireDate, now, partitionId, now);
+                if (claimed > 0) {
+                    owned.add(partitionId);
+                }
+            }
+        }
+        return owned;
+    }
+}
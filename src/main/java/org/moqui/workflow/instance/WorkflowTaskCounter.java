@@ -0,0 +1,358 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.instance;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityConditionFactory;
+import org.moqui.entity.EntityException;
+import org.moqui.entity.EntityFacade;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.moqui.entity.util.EntityJdbcUtil;
+import org.moqui.util.TimestampUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Materialised task counts by assignee and status, backing the unfiltered inbox count.
+ * <p>
+ * Tasks assigned to a user are counted under the user, unclaimed group tasks under the group. Counts are adjusted
+ * with atomic UPDATEs as part of the transaction that writes the tasks. A missing counter is created in its own
+ * transaction from the committed tasks, so that it also covers tasks written before the counter existed, and
+ * concurrent creators of the same counter do not fail each other.
+ * <p>
+ * Counters of assignees with no task written since the upgrade do not exist, so the counts are only trusted once
+ * {@link #seed(ExecutionContext)} has created every counter from grouped task counts and written the seed marker.
+ */
+public final class WorkflowTaskCounter {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowTaskCounter.class);
+    /**
+     * Counter entity name.
+     */
+    private static final String ENTITY_NAME = "moqui.workflow.WorkflowTaskCount";
+    /**
+     * Counter table name.
+     */
+    private static final String TABLE_NAME = EntityJdbcUtil.getTableName(ENTITY_NAME);
+    /**
+     * Placeholder of the unused assignee key field.
+     */
+    public static final String NOT_APPLICABLE = "_NA_";
+    /**
+     * Status ID of the marker row written once the counters are seeded.
+     */
+    private static final String SEEDED_STATUS_ID = "_SEEDED_";
+    /**
+     * Flag indicating whether the seed marker was found, never reset once set.
+     */
+    private static volatile boolean seeded = false;
+
+    /**
+     * Counter changes waiting to be applied.
+     */
+    private final Map<Key, Long> deltas = new LinkedHashMap<>();
+
+    /**
+     * Creates an empty set of counter changes.
+     */
+    public WorkflowTaskCounter() {
+    }
+
+    /**
+     * Records the change of the count of tasks of an assignee in a status.
+     *
+     * @param assignedUserId Assigned user ID, {@code null} for unclaimed group tasks
+     * @param assignedUserGroupId Assigned user group ID
+     * @param statusId Task status ID
+     * @param delta Count change
+     * @return This counter
+     */
+    public WorkflowTaskCounter add(String assignedUserId, String assignedUserGroupId, String statusId, long delta) {
+        if (statusId == null || delta == 0 || (assignedUserId == null && assignedUserGroupId == null)) {
+            return this;
+        }
+        Key key = assignedUserId != null ? new Key(assignedUserId, NOT_APPLICABLE, statusId) : new Key(NOT_APPLICABLE, assignedUserGroupId, statusId);
+        deltas.merge(key, delta, Long::sum);
+        return this;
+    }
+
+    /**
+     * Records the move of a task from one status to another.
+     *
+     * @param assignedUserId Assigned user ID, {@code null} for unclaimed group tasks
+     * @param assignedUserGroupId Assigned user group ID
+     * @param fromStatusId Previous status ID
+     * @param toStatusId New status ID
+     * @return This counter
+     */
+    public WorkflowTaskCounter move(String assignedUserId, String assignedUserGroupId, String fromStatusId, String toStatusId) {
+        if (Objects.equals(fromStatusId, toStatusId)) {
+            return this;
+        }
+        return add(assignedUserId, assignedUserGroupId, fromStatusId, -1).add(assignedUserId, assignedUserGroupId, toStatusId, 1);
+    }
+
+    /**
+     * Applies the recorded changes as part of the current transaction with a single batch.
+     *
+     * @param ec Execution context
+     */
+    public void apply(ExecutionContext ec) {
+        deltas.values().removeIf(delta -> delta == 0);
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        // make sure the counters exist
+        createMissing(ec, deltas.keySet());
+
+        // apply the changes
+        Timestamp now = TimestampUtil.now();
+        List<Object[]> parameterRows = new ArrayList<>(deltas.size());
+        for (Map.Entry<Key, Long> entry : deltas.entrySet()) {
+            Key key = entry.getKey();
+            parameterRows.add(new Object[]{entry.getValue(), now, key.assignedUserId, key.assignedUserGroupId, key.statusId});
+        }
+        EntityJdbcUtil.executeBatch(ec, ENTITY_NAME,
+                "UPDATE " + TABLE_NAME + " SET TASK_COUNT = TASK_COUNT + ?, LAST_UPDATED_STAMP = ?" +
+                        " WHERE ASSIGNED_USER_ID = ? AND ASSIGNED_USER_GROUP_ID = ? AND STATUS_ID = ?",
+                parameterRows);
+        logger.debug(String.format("Applied %d task count changes", parameterRows.size()));
+        deltas.clear();
+    }
+
+    /**
+     * Counts the tasks in the inbox of a user, i.e. the tasks assigned to the user and the unclaimed tasks
+     * assigned to the user's groups.
+     *
+     * @param ec Execution context
+     * @param userId User ID
+     * @param userGroupIds User group IDs
+     * @return Task count, {@code null} if the counters are not seeded yet
+     */
+    public static Long countInbox(ExecutionContext ec, String userId, Collection<String> userGroupIds) {
+        if (!isSeeded(ec)) {
+            return null;
+        }
+
+        EntityFacade ef = ec.getEntity();
+        EntityConditionFactory ecf = ef.getConditionFactory();
+        EntityList counters = ef.find(ENTITY_NAME)
+                .condition(ecf.makeCondition(
+                        ecf.makeCondition(
+                                ecf.makeCondition("assignedUserId", EntityCondition.ComparisonOperator.EQUALS, userId),
+                                EntityCondition.JoinOperator.AND,
+                                ecf.makeCondition("assignedUserGroupId", EntityCondition.ComparisonOperator.EQUALS, NOT_APPLICABLE)
+                        ),
+                        EntityCondition.JoinOperator.OR,
+                        ecf.makeCondition(
+                                ecf.makeCondition("assignedUserId", EntityCondition.ComparisonOperator.EQUALS, NOT_APPLICABLE),
+                                EntityCondition.JoinOperator.AND,
+                                ecf.makeCondition("assignedUserGroupId", EntityCondition.ComparisonOperator.IN, userGroupIds)
+                        )
+                ))
+                .selectField("taskCount")
+                .list();
+        long taskCount = 0;
+        for (EntityValue counter : counters) {
+            Long count = counter.getLong("taskCount");
+            taskCount += count != null ? count : 0;
+        }
+        return taskCount;
+    }
+
+    /**
+     * Checks whether the counters are seeded.
+     *
+     * @param ec Execution context
+     * @return {@code true} if the seed marker exists
+     */
+    public static boolean isSeeded(ExecutionContext ec) {
+        if (!seeded) {
+            seeded = ec.getEntity().find(ENTITY_NAME)
+                    .condition("assignedUserId", NOT_APPLICABLE)
+                    .condition("assignedUserGroupId", NOT_APPLICABLE)
+                    .condition("statusId", SEEDED_STATUS_ID)
+                    .useCache(false)
+                    .count() > 0;
+        }
+        return seeded;
+    }
+
+    /**
+     * Creates the missing counters from grouped task counts as part of the current transaction, then writes the
+     * seed marker. Existing counters are kept, as they are maintained with the tasks. A counter created concurrently
+     * by a task write fails the seed, which is then retried on the next run.
+     *
+     * @param ec Execution context
+     * @return Number of created counters, {@code 0} if the counters were already seeded
+     */
+    public static int seed(ExecutionContext ec) {
+        if (isSeeded(ec)) {
+            return 0;
+        }
+
+        // create the counters of the tasks assigned to users
+        Timestamp now = TimestampUtil.now();
+        String taskTableName = EntityJdbcUtil.getTableName("moqui.workflow.WorkflowInstanceTask");
+        int createdCount = EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                "INSERT INTO " + TABLE_NAME + " (ASSIGNED_USER_ID, ASSIGNED_USER_GROUP_ID, STATUS_ID, TASK_COUNT, LAST_UPDATED_STAMP)" +
+                        " SELECT T.ASSIGNED_USER_ID, ?, T.STATUS_ID, COUNT(*), ? FROM " + taskTableName + " T" +
+                        " WHERE T.ASSIGNED_USER_ID IS NOT NULL AND T.STATUS_ID IS NOT NULL" +
+                        " AND NOT EXISTS (SELECT 1 FROM " + TABLE_NAME + " C WHERE C.ASSIGNED_USER_ID = T.ASSIGNED_USER_ID" +
+                        " AND C.ASSIGNED_USER_GROUP_ID = ? AND C.STATUS_ID = T.STATUS_ID)" +
+                        " GROUP BY T.ASSIGNED_USER_ID, T.STATUS_ID",
+                NOT_APPLICABLE, now, NOT_APPLICABLE);
+
+        // create the counters of the unclaimed group tasks
+        createdCount += EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                "INSERT INTO " + TABLE_NAME + " (ASSIGNED_USER_ID, ASSIGNED_USER_GROUP_ID, STATUS_ID, TASK_COUNT, LAST_UPDATED_STAMP)" +
+                        " SELECT ?, T.ASSIGNED_USER_GROUP_ID, T.STATUS_ID, COUNT(*), ? FROM " + taskTableName + " T" +
+                        " WHERE T.ASSIGNED_USER_ID IS NULL AND T.ASSIGNED_USER_GROUP_ID IS NOT NULL AND T.STATUS_ID IS NOT NULL" +
+                        " AND NOT EXISTS (SELECT 1 FROM " + TABLE_NAME + " C WHERE C.ASSIGNED_USER_ID = ?" +
+                        " AND C.ASSIGNED_USER_GROUP_ID = T.ASSIGNED_USER_GROUP_ID AND C.STATUS_ID = T.STATUS_ID)" +
+                        " GROUP BY T.ASSIGNED_USER_GROUP_ID, T.STATUS_ID",
+                NOT_APPLICABLE, now, NOT_APPLICABLE);
+
+        // write the marker, the counts are trusted once it commits
+        EntityJdbcUtil.executeInsertIfAbsent(ec, ENTITY_NAME,
+                "INSERT INTO " + TABLE_NAME + " (ASSIGNED_USER_ID, ASSIGNED_USER_GROUP_ID, STATUS_ID, TASK_COUNT, LAST_UPDATED_STAMP)" +
+                        " VALUES (?, ?, ?, ?, ?)",
+                NOT_APPLICABLE, NOT_APPLICABLE, SEEDED_STATUS_ID, 0L, now);
+        logger.info(String.format("Seeded %d task counters", createdCount));
+        return createdCount;
+    }
+
+    /**
+     * Creates the missing counters in their own transactions, counting the committed tasks.
+     *
+     * @param ec Execution context
+     * @param keys Counter keys
+     */
+    private static void createMissing(ExecutionContext ec, Set<Key> keys) {
+        EntityFacade ef = ec.getEntity();
+        EntityConditionFactory ecf = ef.getConditionFactory();
+
+        // find the existing counters
+        Set<String> userIds = new HashSet<>();
+        Set<String> userGroupIds = new HashSet<>();
+        Set<String> statusIds = new HashSet<>();
+        for (Key key : keys) {
+            userIds.add(key.assignedUserId);
+            userGroupIds.add(key.assignedUserGroupId);
+            statusIds.add(key.statusId);
+        }
+        EntityList counters = ef.find(ENTITY_NAME)
+                .condition(ecf.makeCondition(Arrays.asList(
+                        ecf.makeCondition("assignedUserId", EntityCondition.ComparisonOperator.IN, userIds),
+                        ecf.makeCondition("assignedUserGroupId", EntityCondition.ComparisonOperator.IN, userGroupIds),
+                        ecf.makeCondition("statusId", EntityCondition.ComparisonOperator.IN, statusIds)
+                )))
+                .selectField("assignedUserId,assignedUserGroupId,statusId")
+                .list();
+        Set<Key> missing = new HashSet<>(keys);
+        for (EntityValue counter : counters) {
+            missing.remove(new Key(counter.getString("assignedUserId"), counter.getString("assignedUserGroupId"), counter.getString("statusId")));
+        }
+
+        // create them from the committed tasks
+        for (Key key : missing) {
+            try {
+                WorkflowInstanceLease.runInNewTransaction(ec, () -> {
+                    boolean userKey = !NOT_APPLICABLE.equals(key.assignedUserId);
+                    long taskCount = ef.find("moqui.workflow.WorkflowInstanceTask")
+                            .condition("assignedUserId", userKey ? key.assignedUserId : null)
+                            .condition(userKey ? ecf.makeCondition("statusId", EntityCondition.ComparisonOperator.EQUALS, key.statusId)
+                                    : ecf.makeCondition(
+                                            ecf.makeCondition("assignedUserGroupId", EntityCondition.ComparisonOperator.EQUALS, key.assignedUserGroupId),
+                                            EntityCondition.JoinOperator.AND,
+                                            ecf.makeCondition("statusId", EntityCondition.ComparisonOperator.EQUALS, key.statusId)))
+                            .count();
+                    ef.makeValue(ENTITY_NAME)
+                            .set("assignedUserId", key.assignedUserId)
+                            .set("assignedUserGroupId", key.assignedUserGroupId)
+                            .set("statusId", key.statusId)
+                            .set("taskCount", taskCount)
+                            .create();
+                    return taskCount;
+                });
+            } catch (EntityException e) {
+                // created concurrently by another transaction
+                logger.debug(String.format("Task counter %s was created concurrently: %s", key, e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Counter key.
+     */
+    private static final class Key {
+
+        /**
+         * Assigned user ID.
+         */
+        private final String assignedUserId;
+        /**
+         * Assigned user group ID.
+         */
+        private final String assignedUserGroupId;
+        /**
+         * Task status ID.
+         */
+        private final String statusId;
+
+        private Key(String assignedUserId, String assignedUserGroupId, String statusId) {
+            this.assignedUserId = assignedUserId;
+            this.assignedUserGroupId = assignedUserGroupId;
+            this.statusId = statusId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            } else if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return assignedUserId.equals(key.assignedUserId) && assignedUserGroupId.equals(key.assignedUserGroupId) && statusId.equals(key.statusId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(assignedUserId, assignedUserGroupId, statusId);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s/%s/%s", assignedUserId, assignedUserGroupId, statusId);
+        }
+    }
+}
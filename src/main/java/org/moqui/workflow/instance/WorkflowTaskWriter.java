@@ -0,0 +1,386 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.instance;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.TransactionFacade;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityConditionFactory;
+import org.moqui.entity.EntityFacade;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.moqui.entity.util.EntityJdbcUtil;
+import org.moqui.util.TimestampUtil;
+import org.moqui.workflow.util.WorkflowEventType;
+import org.moqui.workflow.util.WorkflowTaskStatus;
+import org.moqui.workflow.util.WorkflowTaskType;
+import org.moqui.workflow.util.WorkflowUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk writer of workflow instance tasks.
+ * <p>
+ * Tasks are inserted with JDBC batches instead of one entity service call per task, which bypasses the real
+ * time data feed. The search documents of each batch are therefore built with a single query and handed to
+ * the search index once the transaction commits.
+ */
+public final class WorkflowTaskWriter {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowTaskWriter.class);
+    /**
+     * Task entity name.
+     */
+    private static final String ENTITY_NAME = "moqui.workflow.WorkflowInstanceTask";
+    /**
+     * Task table name.
+     */
+    private static final String TABLE_NAME = EntityJdbcUtil.getTableName(ENTITY_NAME);
+    /**
+     * Task status flow.
+     */
+    private static final String STATUS_FLOW_ID = "WorkflowTaskStatusFlow";
+    /**
+     * Data document of tasks.
+     */
+    private static final String DATA_DOCUMENT_ID = "MoquiWorkflowInstanceTask";
+    /**
+     * Service indexing data documents.
+     */
+    private static final String INDEX_SERVICE_NAME = "org.moqui.search.SearchServices.index#DataDocuments";
+    /**
+     * Maximum number of tasks per batch.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Utility class, not to be instantiated.
+     */
+    private WorkflowTaskWriter() {
+    }
+
+    /**
+     * Creates pending tasks for a set of users as part of the current transaction.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @param activityId Activity ID
+     * @param taskType Task type
+     * @param variableId Variable ID of variable tasks
+     * @param summary Task summary
+     * @param description Task description
+     * @param userIds Assigned user IDs
+     * @return Task IDs, in the order of the users
+     */
+    public static List<String> createTasks(ExecutionContext ec, String instanceId, String activityId, WorkflowTaskType taskType,
+                                           String variableId, String summary, String description, Collection<String> userIds) {
+        return insertTasks(ec, instanceId, activityId, taskType, variableId, summary, description, "ASSIGNED_USER_ID", userIds);
+    }
+
+    /**
+     * Creates pending tasks for a set of user groups as part of the current transaction. Each task is assigned
+     * to a group until one of the group members claims it.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @param activityId Activity ID
+     * @param taskType Task type
+     * @param variableId Variable ID of variable tasks
+     * @param summary Task summary
+     * @param description Task description
+     * @param userGroupIds Assigned user group IDs
+     * @return Task IDs, in the order of the user groups
+     */
+    public static List<String> createGroupTasks(ExecutionContext ec, String instanceId, String activityId, WorkflowTaskType taskType,
+                                                String variableId, String summary, String description, Collection<String> userGroupIds) {
+        return insertTasks(ec, instanceId, activityId, taskType, variableId, summary, description, "ASSIGNED_USER_GROUP_ID", userGroupIds);
+    }
+
+    /**
+     * Claims a pending group task for a user as part of the current transaction. The task is assigned with a single
+     * conditional UPDATE so that only one of several members claiming the same task at once succeeds. The task stays
+     * pending so that the claiming user can then decide it through the regular status flow.
+     *
+     * @param ec Execution context
+     * @param taskId Task ID
+     * @param userGroupId User group ID the task is assigned to
+     * @param userId Claiming user ID
+     * @return {@code true} if the task was claimed, {@code false} if it was already claimed or is no longer pending
+     */
+    public static boolean claimTask(ExecutionContext ec, String taskId, String userGroupId, String userId) {
+        int updated = EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                "UPDATE " + TABLE_NAME + " SET ASSIGNED_USER_ID = ?, LAST_UPDATED_STAMP = ?" +
+                        " WHERE TASK_ID = ? AND ASSIGNED_USER_ID IS NULL AND ASSIGNED_USER_GROUP_ID = ? AND STATUS_ID = ?",
+                userId, TimestampUtil.now(), taskId, userGroupId, WorkflowTaskStatus.WF_TASK_STAT_PEND.name());
+        if (updated == 0) {
+            return false;
+        }
+        new WorkflowTaskCounter()
+                .add(null, userGroupId, WorkflowTaskStatus.WF_TASK_STAT_PEND.name(), -1)
+                .add(userId, userGroupId, WorkflowTaskStatus.WF_TASK_STAT_PEND.name(), 1)
+                .apply(ec);
+        reindex(ec, Collections.singletonList(taskId));
+        logger.debug(String.format("Task %s claimed by user %s", taskId, userId));
+        return true;
+    }
+
+    /**
+     * Moves the tasks of an activity that are in one of the given statuses to a new status with a single UPDATE,
+     * as part of the current transaction. The tasks are locked first so that the task counts can be adjusted and
+     * the status guard is part of the statement, so tasks decided in the meantime are left alone. The changed
+     * tasks are reindexed together and a single instance event records the transition.
+     * <p>
+     * Each move must be an unconditional transition of the task status flow, as conditional transitions depend on
+     * the type of each task. Decided statuses are not allowed either as they are counted by the approval tallies.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @param activityId Activity ID
+     * @param fromStatuses Statuses of the tasks to move
+     * @param toStatus New status
+     * @return Number of tasks moved
+     * @throws IllegalArgumentException if one of the moves is not allowed
+     */
+    public static int transitionTasks(ExecutionContext ec, String instanceId, String activityId, Collection<WorkflowTaskStatus> fromStatuses, WorkflowTaskStatus toStatus) {
+        if (fromStatuses.isEmpty()) {
+            return 0;
+        }
+        for (WorkflowTaskStatus status : fromStatuses) {
+            if (isDecided(status)) {
+                throw new IllegalArgumentException(String.format("Tasks in status %s cannot be transitioned in bulk", status.name()));
+            }
+        }
+        if (isDecided(toStatus)) {
+            throw new IllegalArgumentException(String.format("Tasks cannot be transitioned in bulk to status %s", toStatus.name()));
+        }
+        for (WorkflowTaskStatus status : fromStatuses) {
+            if (!isTransitionAllowed(ec, status, toStatus)) {
+                throw new IllegalArgumentException(String.format("Tasks cannot be transitioned from status %s to status %s", status.name(), toStatus.name()));
+            }
+        }
+
+        // lock the tasks to move and count them by assignee
+        EntityFacade ef = ec.getEntity();
+        EntityConditionFactory ecf = ef.getConditionFactory();
+        List<String> fromStatusIds = new ArrayList<>(fromStatuses.size());
+        for (WorkflowTaskStatus status : fromStatuses) {
+            fromStatusIds.add(status.name());
+        }
+        EntityList tasks = ef.find(ENTITY_NAME)
+                .condition("instanceId", instanceId)
+                .condition("activityId", activityId)
+                .condition("statusId", EntityCondition.ComparisonOperator.IN, fromStatusIds)
+                .selectField("taskId,assignedUserId,assignedUserGroupId,statusId")
+                .forUpdate(true)
+                .list();
+        if (tasks.isEmpty()) {
+            return 0;
+        }
+        WorkflowTaskCounter counter = new WorkflowTaskCounter();
+        for (EntityValue task : tasks) {
+            counter.move(task.getString("assignedUserId"), task.getString("assignedUserGroupId"), task.getString("statusId"), toStatus.name());
+        }
+
+        // move the tasks
+        Timestamp now = TimestampUtil.now();
+        List<Object> parameters = new ArrayList<>();
+        parameters.add(toStatus.name());
+        parameters.add(now);
+        parameters.add(instanceId);
+        parameters.add(activityId);
+        StringBuilder statusPlaceholders = new StringBuilder();
+        for (WorkflowTaskStatus status : fromStatuses) {
+            statusPlaceholders.append(statusPlaceholders.length() == 0 ? "?" : ", ?");
+            parameters.add(status.name());
+        }
+        int updated = EntityJdbcUtil.executeUpdate(ec, ENTITY_NAME,
+                "UPDATE " + TABLE_NAME + " SET STATUS_ID = ?, LAST_UPDATED_STAMP = ?" +
+                        " WHERE INSTANCE_ID = ? AND ACTIVITY_ID = ? AND STATUS_ID IN (" + statusPlaceholders + ")",
+                parameters.toArray());
+        counter.apply(ec);
+
+        // reindex the moved tasks and record the transition
+        reindex(ec, ecf.makeCondition(
+                Arrays.asList(
+                        ecf.makeCondition("instanceId", EntityCondition.ComparisonOperator.EQUALS, instanceId),
+                        ecf.makeCondition("activityId", EntityCondition.ComparisonOperator.EQUALS, activityId),
+                        ecf.makeCondition("statusId", EntityCondition.ComparisonOperator.EQUALS, toStatus.name())
+                )
+        ), now);
+        WorkflowUtil.createWorkflowEvent(
+                ec,
+                instanceId,
+                WorkflowEventType.WF_EVENT_ACTIVITY,
+                String.format("Moved %d tasks of activity %s to %s", updated, activityId, toStatus.name()),
+                false
+        );
+        logger.debug(String.format("Moved %d tasks of activity %s in instance %s to %s", updated, activityId, instanceId, toStatus.name()));
+        return updated;
+    }
+
+    /**
+     * Checks if the task status flow has an unconditional transition between two statuses.
+     *
+     * @param ec Execution context
+     * @param fromStatus Current status
+     * @param toStatus New status
+     * @return {@code true} if the transition exists
+     */
+    private static boolean isTransitionAllowed(ExecutionContext ec, WorkflowTaskStatus fromStatus, WorkflowTaskStatus toStatus) {
+        EntityList transitions = ec.getEntity().find("moqui.basic.StatusFlowTransition")
+                .condition("statusFlowId", STATUS_FLOW_ID)
+                .condition("statusId", fromStatus.name())
+                .condition("toStatusId", toStatus.name())
+                .useCache(true)
+                .list();
+        for (EntityValue transition : transitions) {
+            if (transition.get("conditionExpression") == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a status is a decision counted by the approval tallies.
+     *
+     * @param status Task status
+     * @return {@code true} if the status is approved or rejected
+     */
+    private static boolean isDecided(WorkflowTaskStatus status) {
+        return status == WorkflowTaskStatus.WF_TASK_STAT_APPROVE || status == WorkflowTaskStatus.WF_TASK_STAT_REJECT;
+    }
+
+    /**
+     * Inserts pending tasks with JDBC batches.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @param activityId Activity ID
+     * @param taskType Task type
+     * @param variableId Variable ID of variable tasks
+     * @param summary Task summary
+     * @param description Task description
+     * @param assigneeColumn Column holding the assignee
+     * @param assigneeIds Assignee IDs
+     * @return Task IDs, in the order of the assignees
+     */
+    private static List<String> insertTasks(ExecutionContext ec, String instanceId, String activityId, WorkflowTaskType taskType,
+                                            String variableId, String summary, String description, String assigneeColumn, Collection<String> assigneeIds) {
+        EntityFacade ef = ec.getEntity();
+        Timestamp now = TimestampUtil.now();
+        String sql = "INSERT INTO " + TABLE_NAME + " (TASK_ID, INSTANCE_ID, ACTIVITY_ID, " + assigneeColumn + ", TASK_TYPE_ENUM_ID, VARIABLE_ID," +
+                " STATUS_ID, SUMMARY, DESCRIPTION, CREATION_DATE, LAST_UPDATED_STAMP) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+        List<String> taskIds = new ArrayList<>(assigneeIds.size());
+        WorkflowTaskCounter counter = new WorkflowTaskCounter();
+        boolean groupAssignees = "ASSIGNED_USER_GROUP_ID".equals(assigneeColumn);
+        List<String> batchTaskIds = new ArrayList<>(BATCH_SIZE);
+        List<Object[]> parameterRows = new ArrayList<>(BATCH_SIZE);
+        for (String assigneeId : assigneeIds) {
+            String taskId = ef.sequencedIdPrimary(ENTITY_NAME, null, (long) Math.min(assigneeIds.size(), BATCH_SIZE));
+            batchTaskIds.add(taskId);
+            counter.add(groupAssignees ? null : assigneeId, groupAssignees ? assigneeId : null, WorkflowTaskStatus.WF_TASK_STAT_PEND.name(), 1);
+            parameterRows.add(new Object[]{
+                    taskId,
+                    instanceId,
+                    activityId,
+                    assigneeId,
+                    taskType != null ? taskType.name() : null,
+                    variableId,
+                    WorkflowTaskStatus.WF_TASK_STAT_PEND.name(),
+                    summary,
+                    description,
+                    now,
+                    now
+            });
+            if (parameterRows.size() == BATCH_SIZE) {
+                EntityJdbcUtil.executeBatch(ec, ENTITY_NAME, sql, parameterRows);
+                reindex(ec, batchTaskIds);
+                taskIds.addAll(batchTaskIds);
+                batchTaskIds = new ArrayList<>(BATCH_SIZE);
+                parameterRows.clear();
+            }
+        }
+        if (!parameterRows.isEmpty()) {
+            EntityJdbcUtil.executeBatch(ec, ENTITY_NAME, sql, parameterRows);
+            reindex(ec, batchTaskIds);
+            taskIds.addAll(batchTaskIds);
+        }
+        counter.apply(ec);
+
+        logger.debug(String.format("Created %d tasks of activity %s in instance %s", taskIds.size(), activityId, instanceId));
+        return taskIds;
+    }
+
+    /**
+     * Builds the search documents of tasks written without the entity facade and indexes them once the
+     * current transaction commits, or immediately if no transaction is in place.
+     *
+     * @param ec Execution context
+     * @param taskIds Task IDs
+     */
+    public static void reindex(ExecutionContext ec, Collection<String> taskIds) {
+        if (taskIds.isEmpty()) {
+            return;
+        }
+        reindex(ec, ec.getEntity().getConditionFactory().makeCondition("taskId", EntityCondition.ComparisonOperator.IN, new ArrayList<>(taskIds)), null);
+    }
+
+    /**
+     * Builds the search documents of the tasks matching a condition with a single query and indexes them once
+     * the current transaction commits, or immediately if no transaction is in place.
+     *
+     * @param ec Execution context
+     * @param condition Task condition
+     * @param fromUpdateStamp Only index tasks updated since, {@code null} for all
+     */
+    private static void reindex(ExecutionContext ec, EntityCondition condition, Timestamp fromUpdateStamp) {
+        List<Map> documentList = ec.getEntity().getDataFeed().getDataDocuments(DATA_DOCUMENT_ID, condition, fromUpdateStamp, null);
+        if (documentList.isEmpty()) {
+            return;
+        }
+
+        TransactionFacade tf = ec.getTransaction();
+        if (!tf.isTransactionInPlace()) {
+            ec.getService().async().name(INDEX_SERVICE_NAME).parameter("documentList", documentList).call();
+            return;
+        }
+        tf.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    ec.getService().async().name(INDEX_SERVICE_NAME).parameter("documentList", documentList).call();
+                }
+            }
+        });
+    }
+}
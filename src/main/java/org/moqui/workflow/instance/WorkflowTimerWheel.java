@@ -0,0 +1,291 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.instance;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.context.ToolFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel firing workflow instance timeouts in memory.
+ * <p>
+ * Timers are hashed by their due tick into a fixed number of buckets and a single thread visits one bucket per
+ * tick, so scheduling, moving and firing a timer costs constant time and no database query. Only timers due
+ * within the load horizon are held in memory; the wheel is loaded from the timer table at startup and whenever
+ * the node gains partitions, and topped up by the timer reconciliation job, which also fires anything the wheel
+ * missed. Timers set on this node are held regardless of their partition, firing deletes the timer row so that
+ * a timer fires only once in the cluster.
+ */
+public class WorkflowTimerWheel implements ToolFactory<WorkflowTimerWheel> {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowTimerWheel.class);
+    /**
+     * Tool name.
+     */
+    public static final String TOOL_NAME = "WorkflowTimerWheel";
+    /**
+     * Property holding the tick duration in milliseconds.
+     */
+    private static final String TICK_MILLIS_PROPERTY = "workflow_timer_tick_millis";
+    /**
+     * Default tick duration in milliseconds.
+     */
+    private static final int DEFAULT_TICK_MILLIS = 1000;
+    /**
+     * Property holding the load horizon in minutes.
+     */
+    private static final String HORIZON_MINUTES_PROPERTY = "workflow_timer_horizon_minutes";
+    /**
+     * Default load horizon in minutes.
+     */
+    private static final int DEFAULT_HORIZON_MINUTES = 60;
+    /**
+     * Maximum number of timers loaded at once.
+     */
+    private static final int LOAD_LIMIT = 100000;
+    /**
+     * Number of buckets, a power of two.
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * Execution context factory.
+     */
+    private ExecutionContextFactory ecf;
+    /**
+     * Ticking thread.
+     */
+    private ScheduledExecutorService ticker;
+    /**
+     * Tick duration in milliseconds.
+     */
+    private long tickMillis;
+    /**
+     * Load horizon in milliseconds.
+     */
+    private long horizonMillis;
+    /**
+     * Buckets holding the due dates by instance ID of the timers hashed to them.
+     */
+    @SuppressWarnings("unchecked")
+    private final Map<String, Long>[] buckets = new Map[WHEEL_SIZE];
+    /**
+     * Bucket index of every scheduled instance.
+     */
+    private final Map<String, Integer> bucketIndex = new HashMap<>();
+    /**
+     * Last tick visited.
+     */
+    private long lastTick;
+
+    @Override
+    public String getName() {
+        return TOOL_NAME;
+    }
+
+    @Override
+    public void init(ExecutionContextFactory ecf) {
+        this.ecf = ecf;
+        this.tickMillis = Math.max(10, NumberUtils.toInt(System.getProperty(TICK_MILLIS_PROPERTY), DEFAULT_TICK_MILLIS));
+        this.horizonMillis = Math.max(1, NumberUtils.toInt(System.getProperty(HORIZON_MINUTES_PROPERTY), DEFAULT_HORIZON_MINUTES)) * 60000L;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            buckets[i] = new LinkedHashMap<>();
+        }
+        lastTick = System.currentTimeMillis() / tickMillis;
+
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WorkflowTimerWheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.execute(this::load);
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        logger.info(String.format("Workflow timer wheel started with a tick of %d milliseconds and a horizon of %d minutes", tickMillis, horizonMillis / 60000L));
+    }
+
+    @Override
+    public WorkflowTimerWheel getInstance(Object... parameters) {
+        return this;
+    }
+
+    @Override
+    public void destroy() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    /**
+     * Gets the wheel of the execution context factory.
+     *
+     * @param ecf Execution context factory
+     * @return Wheel or {@code null} if the tool is not configured
+     */
+    public static WorkflowTimerWheel getWheel(ExecutionContextFactory ecf) {
+        try {
+            return ecf.getTool(TOOL_NAME, WorkflowTimerWheel.class);
+        } catch (IllegalArgumentException e) {
+            logger.warn(String.format("Tool %s not configured, instance timeouts will only fire from the timer reconciliation", TOOL_NAME));
+            return null;
+        }
+    }
+
+    /**
+     * Schedules, moves or cancels the timer of an instance. Timers beyond the load horizon are only dropped from
+     * memory, the reconciliation job loads them once they come within the horizon.
+     *
+     * @param instanceId Instance ID
+     * @param dueDate Due date or {@code null} to cancel the timer
+     */
+    public synchronized void schedule(String instanceId, Timestamp dueDate) {
+        Integer previous = bucketIndex.remove(instanceId);
+        if (previous != null) {
+            buckets[previous].remove(instanceId);
+        }
+        if (dueDate == null || dueDate.getTime() > System.currentTimeMillis() + horizonMillis) {
+            return;
+        }
+
+        // overdue timers go to the next bucket visited
+        long dueTick = Math.max(dueDate.getTime() / tickMillis, lastTick + 1);
+        int index = (int) (dueTick & (WHEEL_SIZE - 1));
+        buckets[index].put(instanceId, dueDate.getTime());
+        bucketIndex.put(instanceId, index);
+    }
+
+    /**
+     * Schedules a set of timers.
+     *
+     * @param dueDates Due dates by instance ID
+     */
+    public void scheduleAll(Map<String, Timestamp> dueDates) {
+        for (Map.Entry<String, Timestamp> dueDate : dueDates.entrySet()) {
+            schedule(dueDate.getKey(), dueDate.getValue());
+        }
+    }
+
+    /**
+     * Gets the load horizon.
+     *
+     * @return Load horizon in milliseconds
+     */
+    public long getHorizonMillis() {
+        return horizonMillis;
+    }
+
+    /**
+     * Gets the number of timers held in memory.
+     *
+     * @return Timer count
+     */
+    public synchronized int size() {
+        return bucketIndex.size();
+    }
+
+    /**
+     * Visits the buckets of the ticks elapsed since the last visit and fires the timers that are due.
+     */
+    private void tick() {
+        long now = System.currentTimeMillis();
+        List<String> expired = new ArrayList<>();
+        synchronized (this) {
+            long currentTick = now / tickMillis;
+            long firstTick = Math.max(lastTick + 1, currentTick - WHEEL_SIZE + 1);
+            for (long tick = firstTick; tick <= currentTick; tick++) {
+                Iterator<Map.Entry<String, Long>> timers = buckets[(int) (tick & (WHEEL_SIZE - 1))].entrySet().iterator();
+                while (timers.hasNext()) {
+                    Map.Entry<String, Long> timer = timers.next();
+                    if (timer.getValue() <= now) {
+                        timers.remove();
+                        bucketIndex.remove(timer.getKey());
+                        expired.add(timer.getKey());
+                    }
+                }
+            }
+            lastTick = Math.max(lastTick, currentTick);
+        }
+
+        for (String instanceId : expired) {
+            try {
+                ecf.getWorkerPool().execute(() -> fire(instanceId));
+            } catch (RejectedExecutionException e) {
+                logger.warn(String.format("Worker pool is full, timer of instance %s left to the timer reconciliation", instanceId));
+            }
+        }
+    }
+
+    /**
+     * Fires the timer of an instance.
+     *
+     * @param instanceId Instance ID
+     */
+    private void fire(String instanceId) {
+        ExecutionContext ec = ecf.getExecutionContext();
+        try {
+            WorkflowInstanceTimer.fire(ec, instanceId);
+        } catch (Exception e) {
+            logger.error(String.format("Error firing timer of instance %s, left to the timer reconciliation", instanceId), e);
+        } finally {
+            ecf.destroyActiveExecutionContext();
+        }
+    }
+
+    /**
+     * Loads the timers of the partitions owned by this node at startup.
+     */
+    private void load() {
+        ExecutionContext ec = ecf.getExecutionContext();
+        try {
+            load(ec, WorkflowPartitionManager.getOwnedPartitions(ecf));
+        } finally {
+            ecf.destroyActiveExecutionContext();
+        }
+    }
+
+    /**
+     * Loads the timers due within the horizon from the timer table.
+     *
+     * @param ec Execution context
+     * @param partitions Partitions to load or {@code null} to load all
+     */
+    public void load(ExecutionContext ec, Set<Integer> partitions) {
+        try {
+            Map<String, Timestamp> dueDates = WorkflowInstanceLease.runInNewTransaction(ec, () ->
+                    WorkflowInstanceTimer.findDue(ec, partitions, new Timestamp(System.currentTimeMillis() + horizonMillis), LOAD_LIMIT));
+            scheduleAll(dueDates);
+            logger.info(String.format("Loaded %d workflow instance timers", dueDates.size()));
+        } catch (Exception e) {
+            logger.error("Error loading workflow instance timers, they will be loaded by the timer reconciliation", e);
+        }
+    }
+}
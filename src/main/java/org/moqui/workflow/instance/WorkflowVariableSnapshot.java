@@ -0,0 +1,154 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.instance;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.moqui.workflow.util.WorkflowVariableType;
+import org.moqui.workflow.util.WorkflowVariableValue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Variables of a workflow instance, loaded with a single query when first needed during an advance.
+ * <p>
+ * Conditions and adjustments of the same advance read the snapshot instead of querying the variables again,
+ * and adjustments write through it so that later activities see the new values. The snapshot is owned by
+ * the leased {@link WorkflowInstanceState} and is not thread-safe.
+ */
+public final class WorkflowVariableSnapshot {
+
+    /**
+     * Variable rows by variable name.
+     */
+    private final Map<String, EntityValue> variablesByName = new HashMap<>();
+    /**
+     * Variable names by variable ID.
+     */
+    private final Map<String, String> namesById = new HashMap<>();
+    /**
+     * Typed values by variable name.
+     */
+    private final Map<String, Object> values = new HashMap<>();
+
+    /**
+     * Loads the variables of an instance.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     */
+    WorkflowVariableSnapshot(ExecutionContext ec, String instanceId) {
+        EntityList variableList = ec.getEntity().find("moqui.workflow.WorkflowInstanceVariableDetail")
+                .condition("instanceId", instanceId)
+                .selectField("variableId,variableName,variableTypeEnumId,definedValue,numberValue,decimalValue,booleanValue,dateValue")
+                .useCache(false)
+                .list();
+        for (EntityValue variable : variableList) {
+            String variableName = variable.getString("variableName");
+            variablesByName.put(variableName, variable);
+            namesById.put(variable.getString("variableId"), variableName);
+            values.put(variableName, WorkflowVariableValue.fromFields(getType(variableName), variable).getValue());
+        }
+    }
+
+    /**
+     * Checks whether the instance has a variable.
+     *
+     * @param variableName Variable name
+     * @return {@code true} if the variable exists
+     */
+    public boolean contains(String variableName) {
+        return variablesByName.containsKey(variableName);
+    }
+
+    /**
+     * Gets the type of a variable.
+     *
+     * @param variableName Variable name
+     * @return Variable type or {@code null} if the variable does not exist or its type is unknown
+     */
+    public WorkflowVariableType getType(String variableName) {
+        EntityValue variable = variablesByName.get(variableName);
+        return variable != null ? EnumUtils.getEnum(WorkflowVariableType.class, variable.getString("variableTypeEnumId")) : null;
+    }
+
+    /**
+     * Gets the type enumeration ID of a variable as stored.
+     *
+     * @param variableName Variable name
+     * @return Type enumeration ID or {@code null} if the variable does not exist
+     */
+    public String getTypeEnumId(String variableName) {
+        EntityValue variable = variablesByName.get(variableName);
+        return variable != null ? variable.getString("variableTypeEnumId") : null;
+    }
+
+    /**
+     * Gets the defined value of a variable as stored.
+     *
+     * @param variableName Variable name
+     * @return Defined value or {@code null}
+     */
+    public String getText(String variableName) {
+        EntityValue variable = variablesByName.get(variableName);
+        return variable != null ? variable.getString("definedValue") : null;
+    }
+
+    /**
+     * Gets the typed value of a variable, see {@link WorkflowVariableValue#getValue()}.
+     *
+     * @param variableName Variable name
+     * @return Typed value or {@code null} if the variable does not exist or is not set
+     */
+    public Object getValue(String variableName) {
+        return values.get(variableName);
+    }
+
+    /**
+     * Gets the typed values of all variables.
+     *
+     * @return Read-only typed values by variable name
+     */
+    public Map<String, Object> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Converts a value to the type of a variable and writes it to the database and to the snapshot.
+     *
+     * @param ec Execution context
+     * @param instanceId Instance ID
+     * @param variableId Variable ID
+     * @param rawValue New value
+     * @throws IllegalArgumentException If the value cannot be converted to the variable type
+     */
+    void update(ExecutionContext ec, String instanceId, String variableId, Object rawValue) {
+        String variableName = namesById.get(variableId);
+        WorkflowVariableValue value = WorkflowVariableValue.of(variableName != null ? getType(variableName) : null, rawValue);
+        ec.getService().sync().name("update#moqui.workflow.WorkflowInstanceVariable")
+                .parameter("instanceId", instanceId)
+                .parameter("variableId", variableId)
+                .parameters(value.toFields())
+                .call();
+
+        if (variableName != null) {
+            variablesByName.get(variableName).putAll(value.toFields());
+            values.put(variableName, value.getValue());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.script;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Script whose {@code {{variable}}} placeholders were replaced by deterministic identifiers, so that the script
+ * text is the same for every evaluation and variable values can be passed as bindings.
+ */
+public final class WorkflowScript {
+
+    /**
+     * Variable placeholder pattern.
+     */
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{\\s*([^{}]+?)\\s*\\}\\}");
+    /**
+     * Prefix of the generated identifiers.
+     */
+    private static final String IDENTIFIER_PREFIX = "wfVar";
+
+    /**
+     * Original script.
+     */
+    private final String source;
+    /**
+     * Script with identifiers in place of the placeholders.
+     */
+    private final String text;
+    /**
+     * Variable names, the identifier of a variable is the prefix followed by its index.
+     */
+    private final List<String> variableNames;
+
+    /**
+     * Creates a new script.
+     *
+     * @param source Original script
+     * @param text Script with identifiers in place of the placeholders
+     * @param variableNames Variable names in identifier order
+     */
+    private WorkflowScript(String source, String text, List<String> variableNames) {
+        this.source = source;
+        this.text = text;
+        this.variableNames = Collections.unmodifiableList(variableNames);
+    }
+
+    /**
+     * Replaces the placeholders of a script by identifiers. The same variable always gets the same identifier.
+     *
+     * @param source Original script
+     * @return Translated script
+     */
+    public static WorkflowScript translate(String source) {
+        List<String> variableNames = new ArrayList<>();
+        StringBuffer text = new StringBuffer(source.length());
+        Matcher matcher = PLACEHOLDER.matcher(source);
+        while (matcher.find()) {
+            String variableName = matcher.group(1);
+            int index = variableNames.indexOf(variableName);
+            if (index < 0) {
+                index = variableNames.size();
+                variableNames.add(variableName);
+            }
+            matcher.appendReplacement(text, getIdentifier(index));
+        }
+        matcher.appendTail(text);
+        return new WorkflowScript(source, text.toString(), variableNames);
+    }
+
+    /**
+     * Gets the identifier of a variable.
+     *
+     * @param index Variable index
+     * @return Identifier
+     */
+    public static String getIdentifier(int index) {
+        return IDENTIFIER_PREFIX + index;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public List<String> getVariableNames() {
+        return variableNames;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.script;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runtime evaluating workflow scripts on a bounded pool of JavaScript engines.
+ * <p>
+ * Script engines are not guaranteed to be thread-safe, so each evaluation borrows an engine for exclusive use.
+ * Every engine keeps the scripts it compiled, keyed by the caller's cache key, and recompiles a script only when
+ * its source changes. Variables are passed as bindings, never spliced into the script text.
+ */
+public final class WorkflowScriptRuntime {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowScriptRuntime.class);
+    /**
+     * Script engine name.
+     */
+    private static final String ENGINE_NAME = "JavaScript";
+    /**
+     * Property holding the size of the engine pool.
+     */
+    private static final String POOL_SIZE_PROPERTY = "workflow_script_engine_pool_size";
+    /**
+     * Shared runtime.
+     */
+    private static final WorkflowScriptRuntime INSTANCE = new WorkflowScriptRuntime();
+
+    /**
+     * Engine manager.
+     */
+    private final ScriptEngineManager manager = new ScriptEngineManager();
+    /**
+     * Idle engines.
+     */
+    private final BlockingQueue<PooledEngine> idleEngines;
+    /**
+     * Maximum number of engines.
+     */
+    private final int poolSize;
+    /**
+     * Number of engines created.
+     */
+    private final AtomicInteger engineCount = new AtomicInteger();
+    /**
+     * Translated scripts by cache key.
+     */
+    private final Map<String, WorkflowScript> scripts = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the runtime.
+     */
+    private WorkflowScriptRuntime() {
+        poolSize = Math.max(1, NumberUtils.toInt(System.getProperty(POOL_SIZE_PROPERTY), Runtime.getRuntime().availableProcessors()));
+        idleEngines = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * Gets the shared runtime.
+     *
+     * @return Script runtime
+     */
+    public static WorkflowScriptRuntime getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Evaluates a script.
+     *
+     * @param cacheKey Key identifying the script, for example its workflow, activity and position
+     * @param source Script with {@code {{variable}}} placeholders
+     * @param variables Variable values by name
+     * @return Script result
+     * @throws ScriptException if the script fails to compile or evaluate
+     */
+    public Object evaluate(String cacheKey, String source, Map<String, Object> variables) throws ScriptException {
+        WorkflowScript script = scripts.get(cacheKey);
+        if (script == null || !script.getSource().equals(source)) {
+            script = WorkflowScript.translate(source);
+            scripts.put(cacheKey, script);
+        }
+
+        // the engine is borrowed for exclusive use, so its own scope can hold the bindings without building a new global
+        PooledEngine engine = borrow();
+        Bindings bindings = engine.engine.getBindings(ScriptContext.ENGINE_SCOPE);
+        List<String> variableNames = script.getVariableNames();
+        try {
+            for (int i = 0; i < variableNames.size(); i++) {
+                bindings.put(WorkflowScript.getIdentifier(i), variables.get(variableNames.get(i)));
+            }
+            CompiledScript compiledScript = engine.compile(cacheKey, script);
+            return compiledScript != null ? compiledScript.eval() : engine.engine.eval(script.getText());
+        } finally {
+            for (int i = 0; i < variableNames.size(); i++) {
+                bindings.remove(WorkflowScript.getIdentifier(i));
+            }
+            idleEngines.offer(engine);
+        }
+    }
+
+    /**
+     * Borrows an idle engine, creating one while the pool is not full and waiting for one otherwise.
+     *
+     * @return Engine for exclusive use
+     * @throws ScriptException if no engine is available
+     */
+    private PooledEngine borrow() throws ScriptException {
+        PooledEngine engine = idleEngines.poll();
+        if (engine != null) {
+            return engine;
+        }
+        if (engineCount.incrementAndGet() <= poolSize) {
+            ScriptEngine scriptEngine = manager.getEngineByName(ENGINE_NAME);
+            if (scriptEngine == null) {
+                engineCount.decrementAndGet();
+                throw new ScriptException(String.format("Script engine %s is not available", ENGINE_NAME));
+            }
+            logger.debug(String.format("Created script engine %d of %d", engineCount.get(), poolSize));
+            return new PooledEngine(scriptEngine);
+        }
+        engineCount.decrementAndGet();
+        try {
+            return idleEngines.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScriptException("Interrupted while waiting for a script engine");
+        }
+    }
+
+    /**
+     * Script engine with the scripts it compiled.
+     */
+    private static final class PooledEngine {
+
+        /**
+         * Script engine.
+         */
+        private final ScriptEngine engine;
+        /**
+         * Compiled scripts by cache key.
+         */
+        private final Map<String, CompiledEntry> compiledScripts = new ConcurrentHashMap<>();
+
+        /**
+         * Creates a new pooled engine.
+         *
+         * @param engine Script engine
+         */
+        private PooledEngine(ScriptEngine engine) {
+            this.engine = engine;
+        }
+
+        /**
+         * Gets the compiled form of a script, compiling it on first use or when its source changed.
+         *
+         * @param cacheKey Cache key
+         * @param script Translated script
+         * @return Compiled script or {@code null} if the engine cannot compile
+         * @throws ScriptException if the script fails to compile
+         */
+        private CompiledScript compile(String cacheKey, WorkflowScript script) throws ScriptException {
+            if (!(engine instanceof Compilable)) {
+                return null;
+            }
+            CompiledEntry entry = compiledScripts.get(cacheKey);
+            if (entry == null || !entry.source.equals(script.getSource())) {
+                entry = new CompiledEntry(script.getSource(), ((Compilable) engine).compile(script.getText()));
+                compiledScripts.put(cacheKey, entry);
+            }
+            return entry.compiledScript;
+        }
+    }
+
+    /**
+     * Compiled script and the source it was compiled from.
+     */
+    private static final class CompiledEntry {
+
+        /**
+         * Script source.
+         */
+        private final String source;
+        /**
+         * Compiled script.
+         */
+        private final CompiledScript compiledScript;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param source Script source
+         * @param compiledScript Compiled script
+         */
+        private CompiledEntry(String source, CompiledScript compiledScript) {
+            this.source = source;
+            this.compiledScript = compiledScript;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor running at most a fixed number of tasks at a time, blocking submitters while it is saturated so that
+ * callers streaming work from a cursor never buffer more than the parallelism allows.
+ * <p>
+ * Tasks run on virtual threads when the JVM supports them and on a fixed pool of daemon threads otherwise.
+ */
+public final class WorkflowBoundedExecutor implements AutoCloseable {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowBoundedExecutor.class);
+
+    /**
+     * Underlying executor.
+     */
+    private final ExecutorService executor;
+    /**
+     * Permits of the tasks allowed to run.
+     */
+    private final Semaphore permits;
+    /**
+     * Maximum number of tasks running at a time.
+     */
+    private final int parallelism;
+    /**
+     * Whether the tasks run on virtual threads.
+     */
+    private final boolean virtualThreads;
+
+    /**
+     * Creates a new executor.
+     *
+     * @param name Name prefix of the worker threads
+     * @param parallelism Maximum number of tasks running at a time
+     */
+    public WorkflowBoundedExecutor(String name, int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.permits = new Semaphore(this.parallelism);
+        ExecutorService virtualExecutor = newVirtualThreadExecutor();
+        if (virtualExecutor != null) {
+            this.executor = virtualExecutor;
+            this.virtualThreads = true;
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            this.executor = Executors.newFixedThreadPool(this.parallelism, threadFactory);
+            this.virtualThreads = false;
+        }
+    }
+
+    /**
+     * Submits a task, blocking until one of the running tasks completes if the executor is saturated.
+     *
+     * @param task Task to run
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void submit(Runnable task) throws InterruptedException {
+        permits.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for all submitted tasks to complete.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        permits.acquire(parallelism);
+        permits.release(parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates a virtual thread per task executor on JVMs that support it, looked up reflectively so that the
+     * component still runs on Java 8.
+     *
+     * @return Executor or {@code null} if virtual threads are not supported
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            logger.debug("Virtual threads not available, using platform threads", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.util;
+
+import org.apache.commons.lang3.StringUtils;
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityConditionFactory;
+import org.moqui.entity.EntityFacade;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.moqui.workflow.definition.WorkflowCrowdConfig;
+
+import javax.cache.Cache;
+import javax.transaction.Synchronization;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves the users of activity crowds.
+ * <p>
+ * Group crowds are resolved with a single query joining the group members to their user accounts. The active
+ * members of each group are cached until the group membership changes, the next membership starts or ends, or
+ * the cache entry expires.
+ */
+public final class WorkflowCrowdResolver {
+
+    /**
+     * Cache name, configured in MoquiConf.xml.
+     */
+    public static final String CACHE_NAME = "workflow.crowd.group";
+    /**
+     * View entity joining group members to their user accounts.
+     */
+    private static final String MEMBER_ENTITY_NAME = "moqui.workflow.WorkflowCrowdMember";
+
+    private WorkflowCrowdResolver() {
+    }
+
+    /**
+     * Resolves the users of a crowd.
+     *
+     * @param ec Execution context
+     * @param crowd Crowd configuration
+     * @param initiatorUserId User ID of the instance initiator
+     * @return Email addresses by user ID, in a stable order
+     */
+    public static Map<String, String> resolve(ExecutionContext ec, WorkflowCrowdConfig crowd, String initiatorUserId) {
+        WorkflowCrowdType crowdType = crowd.getCrowdType();
+        if (crowdType == WorkflowCrowdType.WF_CROWD_USER) {
+            return findUser(ec, crowd.getUserId());
+        } else if (crowdType == WorkflowCrowdType.WF_CROWD_USER_GROUP) {
+            return getGroupMembers(ec, crowd.getUserGroupId());
+        } else if (crowdType == WorkflowCrowdType.WF_CROWD_INITIATOR) {
+            return findUser(ec, initiatorUserId);
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Gets the active members of a user group, loading them if not cached or no longer current.
+     *
+     * @param ec Execution context
+     * @param userGroupId User group ID
+     * @return Email addresses by user ID, in a stable order
+     */
+    public static Map<String, String> getGroupMembers(ExecutionContext ec, String userGroupId) {
+        if (StringUtils.isBlank(userGroupId)) {
+            return Collections.emptyMap();
+        }
+
+        Cache<String, GroupMembers> cache = getCache(ec);
+        GroupMembers groupMembers = cache.get(userGroupId);
+        if (groupMembers == null || groupMembers.validUntil <= System.currentTimeMillis()) {
+            groupMembers = loadGroupMembers(ec, userGroupId);
+            cache.put(userGroupId, groupMembers);
+        }
+        return groupMembers.members;
+    }
+
+    /**
+     * Removes a user group from the cache. When called inside a transaction the entry is removed again after
+     * the transaction completes, so that a concurrent reader cannot cache the membership being replaced.
+     *
+     * @param ec Execution context
+     * @param userGroupId User group ID
+     */
+    public static void invalidate(ExecutionContext ec, String userGroupId) {
+        if (StringUtils.isBlank(userGroupId)) {
+            return;
+        }
+
+        Cache<String, GroupMembers> cache = getCache(ec);
+        cache.remove(userGroupId);
+        if (ec.getTransaction().isTransactionInPlace()) {
+            ec.getTransaction().registerSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    cache.remove(userGroupId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets the group membership cache.
+     *
+     * @param ec Execution context
+     * @return Group membership cache
+     */
+    @SuppressWarnings("unchecked")
+    private static Cache<String, GroupMembers> getCache(ExecutionContext ec) {
+        return (Cache<String, GroupMembers>) ec.getCache().getCache(CACHE_NAME);
+    }
+
+    /**
+     * Finds a single user.
+     *
+     * @param ec Execution context
+     * @param userId User ID
+     * @return Email address by user ID, empty if the user does not exist
+     */
+    private static Map<String, String> findUser(ExecutionContext ec, String userId) {
+        if (StringUtils.isBlank(userId)) {
+            return Collections.emptyMap();
+        }
+
+        EntityValue userAccount = ec.getEntity().find("moqui.security.UserAccount")
+                .condition("userId", userId)
+                .selectField("userId,emailAddress")
+                .one();
+        if (userAccount == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(userId, userAccount.getString("emailAddress"));
+    }
+
+    /**
+     * Loads the members of a user group that have not left it yet. Members that joined are returned, those
+     * that join later only determine how long the result is current.
+     *
+     * @param ec Execution context
+     * @param userGroupId User group ID
+     * @return Group members
+     */
+    private static GroupMembers loadGroupMembers(ExecutionContext ec, String userGroupId) {
+        EntityFacade ef = ec.getEntity();
+        EntityConditionFactory ecf = ef.getConditionFactory();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        EntityList memberList = ef.find(MEMBER_ENTITY_NAME)
+                .condition("userGroupId", userGroupId)
+                .condition(ecf.makeCondition(
+                        Arrays.asList(
+                                ecf.makeCondition("thruDate", EntityCondition.ComparisonOperator.EQUALS, null),
+                                ecf.makeCondition("thruDate", EntityCondition.ComparisonOperator.GREATER_THAN, now)
+                        ),
+                        EntityCondition.JoinOperator.OR
+                ))
+                .selectField("userId,emailAddress,fromDate,thruDate")
+                .orderBy("userId")
+                .list();
+
+        Map<String, String> members = new LinkedHashMap<>();
+        long validUntil = Long.MAX_VALUE;
+        for (EntityValue member : memberList) {
+            Timestamp fromDate = member.getTimestamp("fromDate");
+            Timestamp thruDate = member.getTimestamp("thruDate");
+            if (fromDate != null && fromDate.after(now)) {
+                validUntil = Math.min(validUntil, fromDate.getTime());
+                continue;
+            }
+            if (thruDate != null) {
+                validUntil = Math.min(validUntil, thruDate.getTime());
+            }
+            members.put(member.getString("userId"), member.getString("emailAddress"));
+        }
+        return new GroupMembers(Collections.unmodifiableMap(members), validUntil);
+    }
+
+    /**
+     * Cached members of a user group.
+     */
+    private static final class GroupMembers {
+
+        /**
+         * Email addresses by user ID.
+         */
+        private final Map<String, String> members;
+        /**
+         * Time in milliseconds at which the membership changes next.
+         */
+        private final long validUntil;
+
+        private GroupMembers(Map<String, String> members, long validUntil) {
+            this.members = members;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.util;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.TransactionFacade;
+import org.moqui.entity.util.EntityJdbcUtil;
+import org.moqui.util.ServerUtil;
+import org.moqui.util.TimestampUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.transaction.Synchronization;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-transaction buffer of workflow instance events.
+ * <p>
+ * Events are collected while a transaction runs and written as one JDBC batch insert, either when
+ * {@link #flush(ExecutionContext)} is called or right before the transaction commits. Event sequence IDs
+ * are taken from the entity's primary sequence, so that transactions writing events for the same instance
+ * concurrently never collide, and are assigned in the order the events were created.
+ */
+public class WorkflowEventBuffer implements Synchronization {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowEventBuffer.class);
+    /**
+     * Name of the buffer in the active transaction.
+     */
+    private static final String SYNCHRONIZATION_NAME = "WorkflowEventBuffer";
+    /**
+     * Event entity name.
+     */
+    private static final String ENTITY_NAME = "moqui.workflow.WorkflowInstanceEvent";
+    /**
+     * Insert statement.
+     */
+    private static final String INSERT_SQL = "INSERT INTO " + EntityJdbcUtil.getTableName(ENTITY_NAME) +
+            " (INSTANCE_ID, EVENT_SEQ_ID, EVENT_TYPE_ENUM_ID, SOURCE_NAME, DESCRIPTION, WAS_ERROR, CREATION_DATE, LAST_UPDATED_STAMP)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Execution context of the transaction.
+     */
+    private final ExecutionContext ec;
+    /**
+     * Server name recorded as event source.
+     */
+    private final String sourceName = ServerUtil.getServerName();
+    /**
+     * Pending event rows.
+     */
+    private final List<Object[]> pendingEvents = new ArrayList<>();
+
+    /**
+     * Creates a new buffer.
+     *
+     * @param ec Execution context
+     */
+    private WorkflowEventBuffer(ExecutionContext ec) {
+        this.ec = ec;
+    }
+
+    /**
+     * Adds an event to the buffer of the active transaction, or writes it right away if there is no transaction.
+     *
+     * @param ec Execution context
+     * @param instanceId Workflow instance ID
+     * @param event Workflow event type
+     * @param description Event description
+     * @param wasError Error indicator
+     */
+    public static void add(ExecutionContext ec, String instanceId, WorkflowEventType event, String description, boolean wasError) {
+        TransactionFacade tf = ec.getTransaction();
+        if (tf.isTransactionInPlace()) {
+            WorkflowEventBuffer buffer = (WorkflowEventBuffer) tf.getActiveSynchronization(SYNCHRONIZATION_NAME);
+            if (buffer == null) {
+                buffer = new WorkflowEventBuffer(ec);
+                tf.putAndEnlistActiveSynchronization(SYNCHRONIZATION_NAME, buffer);
+            }
+            buffer.addEvent(instanceId, event, description, wasError);
+        } else {
+            WorkflowEventBuffer buffer = new WorkflowEventBuffer(ec);
+            buffer.addEvent(instanceId, event, description, wasError);
+            buffer.flushEvents();
+        }
+    }
+
+    /**
+     * Writes the events buffered in the active transaction so far.
+     *
+     * @param ec Execution context
+     * @return Number of events written
+     */
+    public static int flush(ExecutionContext ec) {
+        TransactionFacade tf = ec.getTransaction();
+        if (!tf.isTransactionInPlace()) {
+            return 0;
+        }
+        WorkflowEventBuffer buffer = (WorkflowEventBuffer) tf.getActiveSynchronization(SYNCHRONIZATION_NAME);
+        return buffer != null ? buffer.flushEvents() : 0;
+    }
+
+    /**
+     * Adds an event, assigning its sequence ID.
+     *
+     * @param instanceId Workflow instance ID
+     * @param event Workflow event type
+     * @param description Event description
+     * @param wasError Error indicator
+     */
+    private void addEvent(String instanceId, WorkflowEventType event, String description, boolean wasError) {
+        Timestamp now = TimestampUtil.now();
+        pendingEvents.add(new Object[] {
+                instanceId,
+                ec.getEntity().sequencedIdPrimary(ENTITY_NAME, null, null),
+                event.name(),
+                sourceName,
+                description,
+                wasError ? "Y" : "N",
+                now,
+                now
+        });
+    }
+
+    /**
+     * Writes the pending events as one batch.
+     *
+     * @return Number of events written
+     */
+    private int flushEvents() {
+        if (pendingEvents.isEmpty()) {
+            return 0;
+        }
+        int count = EntityJdbcUtil.executeBatch(ec, ENTITY_NAME, INSERT_SQL, pendingEvents);
+        logger.debug(String.format("Wrote %d buffered workflow events", pendingEvents.size()));
+        pendingEvents.clear();
+        return count;
+    }
+
+    @Override
+    public void beforeCompletion() {
+        flushEvents();
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        pendingEvents.clear();
+    }
+}
@@ -13,8 +13,13 @@
  */
 package org.moqui.workflow.util;
 
+import org.apache.commons.lang3.EnumUtils;
 import org.moqui.context.ExecutionContext;
-import org.moqui.util.ServerUtil;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Utility class that offers common workflow functions.
@@ -22,7 +27,8 @@ import org.moqui.util.ServerUtil;
 public class WorkflowUtil {
 
     /**
-     * Creates a new workflow event.
+     * Creates a new workflow event. The event is buffered and written together with the other events of
+     * the current transaction, see {@link WorkflowEventBuffer}.
      *
      * @param ec Execution context
      * @param instanceId Workflow instance ID
@@ -31,12 +37,26 @@ public class WorkflowUtil {
      * @param wasError Error indicator
      */
     public static void createWorkflowEvent(ExecutionContext ec, String instanceId, WorkflowEventType event, String description, boolean wasError) {
-        ec.getService().sync().name("create#moqui.workflow.WorkflowInstanceEvent")
-                .parameter("instanceId", instanceId)
-                .parameter("eventTypeEnumId", event.name())
-                .parameter("sourceName", ServerUtil.getServerName())
-                .parameter("description", description)
-                .parameter("wasError", wasError ? "Y" : "N")
-                .call();
+        WorkflowEventBuffer.add(ec, instanceId, event, description, wasError);
+    }
+
+    /**
+     * Gets the typed values of the variables of a workflow instance, see {@link WorkflowVariableValue#getValue()}.
+     *
+     * @param ec Execution context
+     * @param instanceId Workflow instance ID
+     * @return Typed values by variable name
+     */
+    public static Map<String, Object> getInstanceVariables(ExecutionContext ec, String instanceId) {
+        EntityList variableList = ec.getEntity().find("moqui.workflow.WorkflowInstanceVariableDetail")
+                .condition("instanceId", instanceId)
+                .selectField("variableName,variableTypeEnumId,definedValue,numberValue,decimalValue,booleanValue,dateValue")
+                .list();
+        Map<String, Object> variables = new HashMap<>();
+        for (EntityValue variable : variableList) {
+            WorkflowVariableType variableType = EnumUtils.getEnum(WorkflowVariableType.class, variable.getString("variableTypeEnumId"));
+            variables.put(variable.getString("variableName"), WorkflowVariableValue.fromFields(variableType, variable).getValue());
+        }
+        return variables;
     }
 }
@@ -18,5 +18,8 @@ package org.moqui.workflow.util;
  */
 public enum WorkflowVariableType {
     WF_VAR_TEXT,
-    WF_VAR_NUMBER
+    WF_VAR_NUMBER,
+    WF_VAR_DECIMAL,
+    WF_VAR_BOOLEAN,
+    WF_VAR_DATE
 }
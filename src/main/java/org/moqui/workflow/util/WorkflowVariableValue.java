@@ -0,0 +1,269 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+package org.moqui.workflow.util;
+
+import org.apache.commons.lang3.time.DateFormatUtils;
+import org.apache.commons.lang3.time.DateUtils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Typed value of a workflow instance variable.
+ * <p>
+ * Values are validated and converted once when written, and stored both as text in {@code definedValue} and in
+ * the slot matching the variable type: {@code numberValue}, {@code decimalValue}, {@code booleanValue} or
+ * {@code dateValue}. Readers take the typed value from the slot instead of parsing the text again.
+ */
+public final class WorkflowVariableValue {
+
+    /**
+     * Date patterns accepted when converting text to a date.
+     */
+    private static final String[] DATE_PATTERNS = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd HH:mm", "yyyy-MM-dd"};
+    /**
+     * Pattern of dates written as text.
+     */
+    private static final String DATE_TEXT_PATTERN = "yyyy-MM-dd HH:mm:ss";
+    /**
+     * Scale of the {@code decimalValue} column, decimals with more fraction digits are rounded half up to it.
+     */
+    private static final int DECIMAL_SCALE = 6;
+
+    /**
+     * Variable type.
+     */
+    private final WorkflowVariableType type;
+    /**
+     * Typed value: {@code String}, {@code Long}, {@code BigDecimal}, {@code Boolean} or {@code Timestamp}.
+     */
+    private final Object value;
+    /**
+     * Value as text.
+     */
+    private final String definedValue;
+
+    /**
+     * Creates a new value.
+     *
+     * @param type Variable type
+     * @param value Typed value
+     * @param definedValue Value as text
+     */
+    private WorkflowVariableValue(WorkflowVariableType type, Object value, String definedValue) {
+        this.type = type;
+        this.value = value;
+        this.definedValue = definedValue;
+    }
+
+    /**
+     * Validates and converts a value to a variable type. Blank text is converted to an empty value, and decimals
+     * are rounded half up to the 6 fraction digits of their column.
+     *
+     * @param type Variable type, {@code null} is handled as text
+     * @param rawValue Value to convert
+     * @return Typed value
+     * @throws IllegalArgumentException If the value cannot be converted to the variable type
+     */
+    public static WorkflowVariableValue of(WorkflowVariableType type, Object rawValue) {
+        WorkflowVariableType valueType = type != null ? type : WorkflowVariableType.WF_VAR_TEXT;
+        if (rawValue == null || (rawValue instanceof String && ((String) rawValue).trim().isEmpty() && valueType != WorkflowVariableType.WF_VAR_TEXT)) {
+            return new WorkflowVariableValue(valueType, null, null);
+        }
+
+        switch (valueType) {
+            case WF_VAR_NUMBER: {
+                Long number;
+                try {
+                    number = toDecimal(rawValue).longValueExact();
+                } catch (ArithmeticException | NumberFormatException e) {
+                    throw new IllegalArgumentException(String.format("Value '%s' is not a whole number", rawValue));
+                }
+                return new WorkflowVariableValue(valueType, number, number.toString());
+            }
+            case WF_VAR_DECIMAL: {
+                BigDecimal decimal;
+                try {
+                    decimal = toDecimal(rawValue);
+                    if (decimal.scale() > DECIMAL_SCALE) {
+                        decimal = decimal.setScale(DECIMAL_SCALE, RoundingMode.HALF_UP).stripTrailingZeros();
+                        decimal = decimal.scale() < 0 ? decimal.setScale(0) : decimal;
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(String.format("Value '%s' is not a number", rawValue));
+                }
+                return new WorkflowVariableValue(valueType, decimal, decimal.toPlainString());
+            }
+            case WF_VAR_BOOLEAN: {
+                Boolean bool = toBoolean(rawValue);
+                if (bool == null) {
+                    throw new IllegalArgumentException(String.format("Value '%s' is not a boolean", rawValue));
+                }
+                return new WorkflowVariableValue(valueType, bool, bool.toString());
+            }
+            case WF_VAR_DATE: {
+                Timestamp date = toTimestamp(rawValue);
+                if (date == null) {
+                    throw new IllegalArgumentException(String.format("Value '%s' is not a date", rawValue));
+                }
+                return new WorkflowVariableValue(valueType, date, DateFormatUtils.format(date, DATE_TEXT_PATTERN));
+            }
+            default: {
+                String text = rawValue instanceof Number ? toDecimal(rawValue).toPlainString() : rawValue.toString();
+                return new WorkflowVariableValue(valueType, text, text);
+            }
+        }
+    }
+
+    /**
+     * Reads a stored value. The typed slot is used when set, values written before the variable was typed are
+     * converted from their text and are empty if the text does not convert.
+     *
+     * @param type Variable type
+     * @param fields Instance variable fields
+     * @return Typed value
+     */
+    public static WorkflowVariableValue fromFields(WorkflowVariableType type, Map<String, Object> fields) {
+        WorkflowVariableType valueType = type != null ? type : WorkflowVariableType.WF_VAR_TEXT;
+        String definedValue = (String) fields.get("definedValue");
+        Object slotValue = fields.get(getSlotField(valueType));
+        if (slotValue != null) {
+            Object value;
+            switch (valueType) {
+                case WF_VAR_NUMBER:
+                    value = ((Number) slotValue).longValue();
+                    break;
+                case WF_VAR_DECIMAL:
+                    value = toDecimal(slotValue);
+                    break;
+                case WF_VAR_BOOLEAN:
+                    value = "Y".equals(slotValue);
+                    break;
+                default:
+                    value = slotValue;
+            }
+            return new WorkflowVariableValue(valueType, value, definedValue);
+        }
+        try {
+            return of(valueType, definedValue);
+        } catch (IllegalArgumentException e) {
+            return new WorkflowVariableValue(valueType, null, definedValue);
+        }
+    }
+
+    public WorkflowVariableType getType() {
+        return type;
+    }
+
+    /**
+     * Gets the typed value.
+     *
+     * @return {@code String}, {@code Long}, {@code BigDecimal}, {@code Boolean}, {@code Timestamp} or {@code null}
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    public String getDefinedValue() {
+        return definedValue;
+    }
+
+    /**
+     * Gets the instance variable fields holding the value, with the slots of other types cleared.
+     *
+     * @return Field values by field name
+     */
+    public Map<String, Object> toFields() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("definedValue", definedValue);
+        fields.put("numberValue", type == WorkflowVariableType.WF_VAR_NUMBER ? value : null);
+        fields.put("decimalValue", type == WorkflowVariableType.WF_VAR_DECIMAL ? value : null);
+        fields.put("booleanValue", type == WorkflowVariableType.WF_VAR_BOOLEAN && value != null ? ((Boolean) value ? "Y" : "N") : null);
+        fields.put("dateValue", type == WorkflowVariableType.WF_VAR_DATE ? value : null);
+        return fields;
+    }
+
+    /**
+     * Gets the field holding values of a variable type.
+     *
+     * @param type Variable type
+     * @return Field name
+     */
+    public static String getSlotField(WorkflowVariableType type) {
+        switch (type) {
+            case WF_VAR_NUMBER:
+                return "numberValue";
+            case WF_VAR_DECIMAL:
+                return "decimalValue";
+            case WF_VAR_BOOLEAN:
+                return "booleanValue";
+            case WF_VAR_DATE:
+                return "dateValue";
+            default:
+                return "definedValue";
+        }
+    }
+
+    private static BigDecimal toDecimal(Object rawValue) {
+        if (rawValue instanceof BigDecimal) {
+            return (BigDecimal) rawValue;
+        } else if (rawValue instanceof Long || rawValue instanceof Integer || rawValue instanceof Short || rawValue instanceof Byte) {
+            return BigDecimal.valueOf(((Number) rawValue).longValue());
+        } else if (rawValue instanceof Number) {
+            double number = ((Number) rawValue).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                throw new NumberFormatException();
+            }
+            BigDecimal decimal = BigDecimal.valueOf(number).stripTrailingZeros();
+            return decimal.scale() < 0 ? decimal.setScale(0) : decimal;
+        }
+        BigDecimal decimal = new BigDecimal(rawValue.toString().trim());
+        return decimal.scale() < 0 ? decimal.setScale(0) : decimal;
+    }
+
+    private static Boolean toBoolean(Object rawValue) {
+        if (rawValue instanceof Boolean) {
+            return (Boolean) rawValue;
+        } else if (rawValue instanceof Number) {
+            return ((Number) rawValue).doubleValue() != 0;
+        }
+        String text = rawValue.toString().trim();
+        if ("true".equalsIgnoreCase(text) || "Y".equalsIgnoreCase(text) || "1".equals(text)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(text) || "N".equalsIgnoreCase(text) || "0".equals(text)) {
+            return false;
+        }
+        return null;
+    }
+
+    private static Timestamp toTimestamp(Object rawValue) {
+        if (rawValue instanceof Timestamp) {
+            return (Timestamp) rawValue;
+        } else if (rawValue instanceof Date) {
+            return new Timestamp(((Date) rawValue).getTime());
+        } else if (rawValue instanceof Number) {
+            return new Timestamp(((Number) rawValue).longValue());
+        }
+        try {
+            return new Timestamp(DateUtils.parseDateStrictly(rawValue.toString().trim(), DATE_PATTERNS).getTime());
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * This software is in the public domain under CC0 1.0 Universal plus a
+ * Grant of Patent License.
+ *
+ * To the extent possible under law, the author(s) have dedicated all
+ * copyright and related and neighboring rights to this software to the
+ * public domain worldwide. This software is distributed without any
+ * warranty.
+ *
+ * You should have received a copy of the CC0 Public Domain Dedication
+ * along with this software (see the LICENSE.md file). If not, see
+ * <http://creativecommons.org/publicdomain/zero/1.0/>.
+ */
+
+import org.moqui.workflow.expression.WorkflowExpression
+import org.moqui.workflow.expression.WorkflowExpressionException
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Workflow expression tests, run without an execution context.
+ */
+class WorkflowExpressionTests extends Specification {
+
+    @Shared
+    Map<String, Object> variables = [
+            one     : "1",
+            two     : "2",
+            nine    : "9",
+            ten     : "10",
+            name    : "abc",
+            flag    : "true",
+            approved: Boolean.TRUE,
+            count   : 3L,
+            price   : new BigDecimal("0.1"),
+            tax     : new BigDecimal("0.2")
+    ]
+
+    @Unroll
+    def "evaluate #source"() {
+        expect:
+        WorkflowExpression.toText(WorkflowExpression.parse(source).evaluate(variables)) == result
+
+        where:
+        source                            | result
+        // precedence and associativity
+        "1 + 2 * 3"                       | "7"
+        "(1 + 2) * 3"                     | "9"
+        "10 - 4 - 3"                      | "3"
+        "2 * 3 % 4"                       | "2"
+        "-2 * 3"                          | "-6"
+        "1 > 2 || 2 > 1 && false"         | "false"
+        "!false && 1 + 1 == 2"            | "true"
+        "1 < 2 ? 'yes' : 'no'"            | "yes"
+        // text holding numbers and booleans
+        "{{one}} + {{two}}"               | "3"
+        "{{ten}} / {{two}}"               | "5"
+        "'x' + {{one}}"                   | "x1"
+        "{{name}} + {{one}}"              | "abc1"
+        "{{nine}} < {{ten}}"              | "true"
+        "{{name}} == 'abc'"               | "true"
+        "{{flag}} == true"                | "true"
+        // exact decimals
+        "0.1 + 0.2"                       | "0.3"
+        "{{price}} + {{tax}}"             | "0.3"
+        "{{price}} * {{count}}"           | "0.3"
+        "1 / 3"                           | "0.3333333333333333333333333333333333"
+        "2.50 * 2"                        | "5"
+        // null and NaN
+        "{{missing}} == null"             | "true"
+        "{{missing}} != 1"                | "true"
+        "{{missing}} < 1"                 | "false"
+        "{{missing}} * 2"                 | null
+        "{{name}} * 2 > 0"                | "false"
+        "1 / 0"                           | null
+    }
+
+    @Unroll
+    def "evaluate condition #source"() {
+        expect:
+        WorkflowExpression.parse(source).evaluateCondition(variables) == result
+
+        where:
+        source                   | result
+        "1 > 0"                  | true
+        "1 < 0"                  | false
+        "0.5"                    | true
+        "0"                      | false
+        "-1"                     | false
+        "{{approved}}"           | true
+        "{{count}} - 3"          | false
+        "{{price}} + {{tax}}"    | true
+        "{{name}}"               | false
+        "{{missing}}"            | false
+        "{{name}} * 2"           | false
+    }
+
+    def "variable names"() {
+        expect:
+        WorkflowExpression.parse("{{one}} + {{ two }} * {{one}}").getVariableNames() == ["one", "two"] as Set
+    }
+
+    @Unroll
+    def "reject #source"() {
+        when:
+        WorkflowExpression.parse(source)
+
+        then:
+        thrown(WorkflowExpressionException)
+
+        where:
+        source << ["", "1 +", "(1", "{{}}", "foo", "'open"]
+    }
+}